@@ -1,4 +1,12 @@
 @ECHO OFF
+rem Seed with the server's own import tool, which is much faster than
+rem mongoimport for big files. Set USE_MONGOIMPORT to use mongoimport
+rem (e.g., where there's no Java).
+if not defined USE_MONGOIMPORT (
+  call "%~dp0..\server\gradlew.bat" -p "%~dp0..\server" -q dataTool --args="seed %~dp0seed"
+  exit /b %ERRORLEVEL%
+)
+
 echo Dropping DB dev
 mongo dev --eval "db.dropDatabase()"
 for %%f in (seed\*.json) do (
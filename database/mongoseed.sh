@@ -1,9 +1,19 @@
 #!/usr/bin/env bash
 
 seed_db="${MONGO_DB:-dev}"
+seed_dir="$(cd "$(dirname "$BASH_SOURCE")" && pwd)"
+server_dir="$seed_dir/../server"
+
+# Seed with the server's own import tool, which is much faster than
+# `mongoimport` for big files. Set USE_MONGOIMPORT to use `mongoimport`
+# (e.g., where there's no Java).
+if [[ -z "$USE_MONGOIMPORT" ]]; then
+  MONGO_DB="$seed_db" exec "$server_dir/gradlew" -p "$server_dir" -q dataTool --args="seed '$seed_dir/seed'"
+fi
+
 echo Dropping DB $seed_db
 mongo "$seed_db" --eval "db.dropDatabase()"
-for file in "$(dirname "$BASH_SOURCE")"/seed/*.json; do
+for file in "$seed_dir"/seed/*.json; do
   if [[ -f "$file" ]]; then
     echo Seeding $(basename "$file" ".json") from $file in DB $seed_db
     mongoimport --db="$seed_db" --collection="$(basename "$file" ".json")" --file="$file" --jsonArray
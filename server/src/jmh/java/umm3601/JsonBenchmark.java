@@ -0,0 +1,87 @@
+package umm3601;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import umm3601.RequestForm.RequestForm;
+import umm3601.fsclient.Fsclient;
+
+/**
+ * Benchmarks of turning fsclients and request forms into JSON and back,
+ * which happens for every request and response body.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@SuppressWarnings({"MagicNumber"})
+public class JsonBenchmark {
+
+  private final ObjectMapper mapper = new ObjectMapper();
+
+  private Fsclient fsclient;
+  private String fsclientJson;
+  private List<Fsclient> fsclients;
+  private RequestForm requestForm;
+  private String requestFormJson;
+
+  @Setup
+  public void setupObjects() throws JsonProcessingException {
+    fsclient = new Fsclient();
+    fsclient._id = "588935f57546a2daea44de7c";
+    fsclient.name = "Connie Stewart";
+    fsclient.age = 25;
+    fsclient.company = "OHMNET";
+    fsclient.email = "conniestewart@ohmnet.com";
+    fsclient.role = "admin";
+    fsclient.avatar = "https://gravatar.com/avatar/200fb5f06639c64a0ad75f05a93e9be3?d=identicon";
+    fsclientJson = mapper.writeValueAsString(fsclient);
+
+    fsclients = new ArrayList<>();
+    for (int i = 0; i < 100; i++) {
+      fsclients.add(fsclient);
+    }
+
+    requestForm = new RequestForm();
+    requestForm._id = "588935f57546a2daea44de7d";
+    requestForm.name = "Lynn Ferguson";
+    requestForm.foods = new ArrayList<>(List.of("milk", "bread", "eggs", "apples", "rice"));
+    requestFormJson = mapper.writeValueAsString(requestForm);
+  }
+
+  @Benchmark
+  public String serializeFsclient() throws JsonProcessingException {
+    return mapper.writeValueAsString(fsclient);
+  }
+
+  @Benchmark
+  public byte[] serializeFsclientList() throws JsonProcessingException {
+    return mapper.writeValueAsBytes(fsclients);
+  }
+
+  @Benchmark
+  public Fsclient deserializeFsclient() throws JsonProcessingException {
+    return mapper.readValue(fsclientJson, Fsclient.class);
+  }
+
+  @Benchmark
+  public String serializeRequestForm() throws JsonProcessingException {
+    return mapper.writeValueAsString(requestForm);
+  }
+
+  @Benchmark
+  public RequestForm deserializeRequestForm() throws JsonProcessingException {
+    return mapper.readValue(requestFormJson, RequestForm.class);
+  }
+}
@@ -0,0 +1,35 @@
+package umm3601.fsclient;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import umm3601.events.ChangeFeed;
+
+/**
+ * Benchmarks of hashing emails and building the gravatar URLs that are
+ * generated for every new fsclient. Since the avatars are cached,
+ * `generateAvatar` measures the cost of a cache hit.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class AvatarBenchmark {
+
+  private final FsclientController controller = new FsclientController(null, Runnable::run, new ChangeFeed());
+
+  @Benchmark
+  public String md5() {
+    return controller.md5("ConnieStewart@ohmnet.com");
+  }
+
+  @Benchmark
+  public String generateAvatar() {
+    return controller.generateAvatar("ConnieStewart@ohmnet.com");
+  }
+}
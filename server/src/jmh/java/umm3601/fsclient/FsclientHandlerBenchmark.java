@@ -0,0 +1,187 @@
+package umm3601.fsclient;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.mongodb.MongoClientSettings;
+import com.mongodb.ServerAddress;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
+import com.mongodb.client.MongoDatabase;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import io.javalin.Javalin;
+import umm3601.events.ChangeFeed;
+
+/**
+ * End-to-end benchmarks of the fsclient list and get handlers: real HTTP
+ * requests to a Javalin server, backed by a real MongoDB.
+ * <p>
+ * The main benchmarks use a controller with its fsclient and list caches
+ * turned off, and spread their requests over every fsclient id and a
+ * range of filters, so each request really goes to MongoDB (and the
+ * `databaseAccess` comparison means something). The `...Cached`
+ * benchmarks measure the usual, cached path separately.
+ * <p>
+ * Like `MongoSpec`, this expects MongoDB to be running at `MONGO_ADDR`
+ * (default "localhost"). It uses (and drops) its own `jmh` database.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@SuppressWarnings({"MagicNumber", "VisibilityModifier"})
+public class FsclientHandlerBenchmark {
+
+  private static final List<String> ROLES = List.of("admin", "editor", "viewer");
+
+  @Param({"async", "sync"})
+  String databaseAccess;
+
+  @Param({"1000"})
+  int fsclientCount;
+
+  private MongoClient mongoClient;
+  private MongoDatabase database;
+  private ExecutorService databaseThreads;
+  private Javalin server;
+  private HttpClient httpClient;
+
+  private URI listUri;
+  private URI pageUri;
+  private final List<URI> filteredUris = new ArrayList<>();
+  private final List<URI> getUris = new ArrayList<>();
+  private URI cachedListUri;
+  private URI cachedGetUri;
+  // Which of the filtered and get URIs to use next
+  private final AtomicInteger next = new AtomicInteger();
+
+  @Setup(Level.Trial)
+  public void startServer() {
+    String mongoAddr = System.getenv().getOrDefault("MONGO_ADDR", "localhost");
+    mongoClient = MongoClients.create(MongoClientSettings.builder()
+      .applyToClusterSettings(builder -> builder.hosts(Arrays.asList(new ServerAddress(mongoAddr))))
+      .build());
+    database = mongoClient.getDatabase("jmh");
+    database.drop();
+
+    FsclientRepository repository = new MongoFsclientRepository(database);
+    repository.ensureIndexes();
+    List<String> ids = new ArrayList<>();
+    for (int i = 0; i < fsclientCount; i++) {
+      Fsclient fsclient = new Fsclient();
+      fsclient.name = "Client " + i;
+      fsclient.age = 18 + i % 60;
+      fsclient.company = "Company " + i % 50;
+      fsclient.email = "client" + i + "@example.com";
+      fsclient.role = ROLES.get(i % ROLES.size());
+      ids.add(repository.insert(fsclient));
+    }
+
+    Executor databaseExecutor;
+    if (databaseAccess.equals("sync")) {
+      databaseExecutor = Runnable::run;
+    } else {
+      databaseThreads = Executors.newFixedThreadPool(8);
+      databaseExecutor = databaseThreads;
+    }
+    FsclientController controller = new FsclientController(repository, databaseExecutor, new ChangeFeed(), false);
+    FsclientController cachedController = new FsclientController(repository, databaseExecutor, new ChangeFeed());
+    server = Javalin.create()
+      .get("/api/fsclients", controller::getFsclients)
+      .get("/api/fsclients/{id}", controller::getFsclient)
+      .get("/cached/fsclients", cachedController::getFsclients)
+      .get("/cached/fsclients/{id}", cachedController::getFsclient)
+      .start(0);
+
+    String base = "http://localhost:" + server.port() + "/api/fsclients";
+    listUri = URI.create(base);
+    pageUri = URI.create(base + "?limit=20");
+    for (String role : ROLES) {
+      for (int age = 18; age < 78; age++) {
+        filteredUris.add(URI.create(base + "?role=" + role + "&age=" + age + "&sortby=name"));
+      }
+    }
+    for (String id : ids) {
+      getUris.add(URI.create(base + "/" + id));
+    }
+    String cachedBase = "http://localhost:" + server.port() + "/cached/fsclients";
+    cachedListUri = URI.create(cachedBase);
+    cachedGetUri = URI.create(cachedBase + "/" + ids.get(ids.size() - 1));
+    httpClient = HttpClient.newHttpClient();
+  }
+
+  @TearDown(Level.Trial)
+  public void stopServer() {
+    server.stop();
+    if (databaseThreads != null) {
+      databaseThreads.shutdown();
+    }
+    database.drop();
+    mongoClient.close();
+  }
+
+  @Benchmark
+  public byte[] listAll() throws IOException, InterruptedException {
+    return get(listUri);
+  }
+
+  @Benchmark
+  public byte[] listPage() throws IOException, InterruptedException {
+    return get(pageUri);
+  }
+
+  @Benchmark
+  public byte[] listFiltered() throws IOException, InterruptedException {
+    return get(nextOf(filteredUris));
+  }
+
+  @Benchmark
+  public byte[] getOne() throws IOException, InterruptedException {
+    return get(nextOf(getUris));
+  }
+
+  @Benchmark
+  public byte[] listAllCached() throws IOException, InterruptedException {
+    return get(cachedListUri);
+  }
+
+  @Benchmark
+  public byte[] getOneCached() throws IOException, InterruptedException {
+    return get(cachedGetUri);
+  }
+
+  private URI nextOf(List<URI> uris) {
+    return uris.get(Math.floorMod(next.getAndIncrement(), uris.size()));
+  }
+
+  private byte[] get(URI uri) throws IOException, InterruptedException {
+    HttpResponse<byte[]> response = httpClient.send(
+      HttpRequest.newBuilder(uri).GET().build(),
+      HttpResponse.BodyHandlers.ofByteArray());
+    if (response.statusCode() != 200) {
+      throw new IllegalStateException("GET " + uri + " returned " + response.statusCode());
+    }
+    return response.body();
+  }
+}
@@ -0,0 +1,61 @@
+package umm3601.fsclient;
+
+import java.util.concurrent.TimeUnit;
+
+import com.mongodb.MongoClientSettings;
+
+import org.bson.BsonDocument;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Benchmarks of building the Mongo filter and sort documents for a
+ * list query. The filters are rendered to BSON, since that (and not
+ * just creating the filter objects) is what the driver does for every
+ * query it sends.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@SuppressWarnings({"MagicNumber"})
+public class QueryConstructionBenchmark {
+
+  private FsclientQuery emptyQuery;
+  private FsclientQuery fullQuery;
+
+  @Setup
+  public void setupQueries() {
+    emptyQuery = new FsclientQuery();
+
+    fullQuery = new FsclientQuery();
+    fullQuery.age = 25;
+    fullQuery.role = "editor";
+    fullQuery.companyPrefix = "ohm";
+    fullQuery.sortBy = "company";
+    fullQuery.descending = true;
+  }
+
+  @Benchmark
+  public BsonDocument emptyFilter() {
+    return render(MongoFsclientRepository.constructFilter(emptyQuery));
+  }
+
+  @Benchmark
+  public BsonDocument fullFilter() {
+    return render(MongoFsclientRepository.constructFilter(fullQuery));
+  }
+
+  @Benchmark
+  public BsonDocument sortingOrder() {
+    return render(MongoFsclientRepository.constructSortingOrder(fullQuery));
+  }
+
+  private static BsonDocument render(org.bson.conversions.Bson bson) {
+    return bson.toBsonDocument(BsonDocument.class, MongoClientSettings.getDefaultCodecRegistry());
+  }
+}
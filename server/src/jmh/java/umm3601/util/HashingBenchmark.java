@@ -0,0 +1,44 @@
+package umm3601.util;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Compares `Hashing.md5Hex` with the way the controllers used to hash
+ * emails (a new `MessageDigest` per call and `String.format` per byte).
+ * Look at the `gc.alloc.rate.norm` results (bytes allocated per call) as
+ * well as the times.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class HashingBenchmark {
+
+  private final String email = "ConnieStewart@ohmnet.com";
+
+  @Benchmark
+  public String md5Hex() {
+    return Hashing.md5Hex(email);
+  }
+
+  @Benchmark
+  public String formatPerByteMd5() throws NoSuchAlgorithmException {
+    MessageDigest md = MessageDigest.getInstance("MD5");
+    byte[] hashInBytes = md.digest(email.toLowerCase().getBytes(StandardCharsets.UTF_8));
+
+    StringBuilder result = new StringBuilder();
+    for (byte b : hashInBytes) {
+      result.append(String.format("%02x", b));
+    }
+    return result.toString();
+  }
+}
@@ -0,0 +1,366 @@
+package umm3601.loadtest;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+/**
+ * Puts a running server under a steady load of fsclient requests, and
+ * checks that it answers quickly enough. Run it with `./gradlew loadTest`
+ * from the `server` directory, e.g.
+ * <pre>
+ *   ./gradlew loadTest --args="--rate 500 --duration 60 --slo get=20,list=50"
+ * </pre>
+ * The options (all optional) are:
+ * <ul>
+ *   <li>`--url`: where the server is (default `http://localhost:4567`)</li>
+ *   <li>`--rate`: requests per second (default 100)</li>
+ *   <li>`--duration`: seconds to measure for (default 30)</li>
+ *   <li>`--warmup`: seconds to run before measuring (default 5)</li>
+ *   <li>`--mix`: the relative weights of the kinds of request (default
+ *     `list=40,filter=20,get=30,post=5,delete=5`)</li>
+ *   <li>`--slo`: the longest acceptable 99th percentile latency, in
+ *     milliseconds, for each kind of request (default
+ *     `list=100,filter=100,get=50,post=200,delete=200`)</li>
+ *   <li>`--max-errors`: the largest acceptable fraction of requests that
+ *     fail (default 0.01)</li>
+ * </ul>
+ * The kinds of request are listing fsclients (`list`), listing them with
+ * filters (`filter`), getting one (`get`), adding one (`post`), and
+ * deleting one that this run added (`delete`).
+ * <p>
+ * This is an "open loop" test: requests are sent on a fixed schedule,
+ * whether or not the earlier ones have been answered, just like real
+ * users, who don't wait for each other. Each request's latency is measured
+ * from when it was <em>scheduled</em> to be sent, not when it actually was,
+ * so if the server (or this tool) falls behind, the time spent waiting
+ * counts too. Measuring from when requests were sent would hide exactly
+ * those stalls (this is known as "coordinated omission").
+ * <p>
+ * The run fails (exits with status 1) if any kind of request misses its
+ * latency objective, or too many requests fail. The server's write
+ * limits will turn away a fast stream of writes from one client, so run
+ * the server with `RATE_LIMIT_PER_SECOND=0` when testing writes.
+ */
+public final class LoadTest {
+
+  private static final ObjectMapper MAPPER = new ObjectMapper();
+
+  private static final long NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+  private static final double MICROS_PER_MILLI = TimeUnit.MILLISECONDS.toMicros(1);
+  // Latencies are recorded in microseconds, up to a minute, to 3
+  // significant digits
+  private static final long MAX_LATENCY_MICROS = TimeUnit.MINUTES.toMicros(1);
+  private static final int SIGNIFICANT_DIGITS = 3;
+  private static final Duration REQUEST_TIMEOUT = Duration.ofSeconds(30);
+  private static final double[] PERCENTILES = {50, 90, 99, 99.9};
+  private static final double SLO_PERCENTILE = 99;
+  private static final double PERCENT = 100;
+  private static final long POLL_MILLIS = 10;
+  // How many existing fsclients the `get` requests choose from
+  private static final int EXISTING_IDS = 1000;
+
+  // The fsclients this adds are between 18 and 77 years old
+  private static final long MIN_AGE = 18;
+  private static final long AGE_RANGE = 60;
+  private static final String[] ROLES = {"admin", "editor", "viewer"};
+  private static final String[] COMPANY_PREFIXES = {"O", "N", "IN", "K", "S"};
+
+  private final String baseUrl;
+  private final HttpClient client;
+  private final Map<String, Recorder> latencies = new LinkedHashMap<>();
+  private final Map<String, AtomicLong> errors = new LinkedHashMap<>();
+  private final AtomicLong inFlight = new AtomicLong();
+
+  // Existing fsclients to get, and the ones this run added, to delete
+  private final List<String> existingIds = new ArrayList<>();
+  private final ConcurrentLinkedDeque<String> addedIds = new ConcurrentLinkedDeque<>();
+
+  private LoadTest(String baseUrl, ExecutorService executor, Iterable<String> operations) {
+    this.baseUrl = baseUrl;
+    this.client = HttpClient.newBuilder()
+      .executor(executor)
+      .version(HttpClient.Version.HTTP_1_1)
+      .connectTimeout(REQUEST_TIMEOUT)
+      .build();
+    for (String operation : operations) {
+      latencies.put(operation, new Recorder(MAX_LATENCY_MICROS, SIGNIFICANT_DIGITS));
+      errors.put(operation, new AtomicLong());
+    }
+  }
+
+  public static void main(String[] args) throws IOException, InterruptedException {
+    Map<String, String> options = new LinkedHashMap<>();
+    options.put("url", "http://localhost:4567");
+    options.put("rate", "100");
+    options.put("duration", "30");
+    options.put("warmup", "5");
+    options.put("mix", "list=40,filter=20,get=30,post=5,delete=5");
+    options.put("slo", "list=100,filter=100,get=50,post=200,delete=200");
+    options.put("max-errors", "0.01");
+    for (int i = 0; i + 1 < args.length; i += 2) {
+      String name = args[i].replaceFirst("^--", "");
+      if (!options.containsKey(name)) {
+        throw new IllegalArgumentException("Unknown option " + args[i]);
+      }
+      options.put(name, args[i + 1]);
+    }
+
+    Map<String, Double> mix = parseNumbers(options.get("mix"));
+    Map<String, Double> slos = parseNumbers(options.get("slo"));
+    double rate = Double.parseDouble(options.get("rate"));
+
+    boolean passed;
+    try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+      LoadTest loadTest = new LoadTest(options.get("url"), executor, mix.keySet());
+      loadTest.loadExistingIds();
+
+      System.out.printf("Warming up for %s seconds...%n", options.get("warmup"));
+      loadTest.run(mix, rate, Long.parseLong(options.get("warmup")) * NANOS_PER_SECOND);
+      loadTest.resetResults();
+
+      System.out.printf("Sending %.0f requests per second for %s seconds...%n", rate, options.get("duration"));
+      long start = System.nanoTime();
+      long sent = loadTest.run(mix, rate, Long.parseLong(options.get("duration")) * NANOS_PER_SECOND);
+      loadTest.awaitResponses();
+      double seconds = (double) (System.nanoTime() - start) / NANOS_PER_SECOND;
+      System.out.printf("Sent %d requests (%.1f per second)%n%n", sent, sent / seconds);
+
+      passed = loadTest.report(slos, Double.parseDouble(options.get("max-errors")));
+      executor.shutdownNow();
+    }
+    System.exit(passed ? 0 : 1);
+  }
+
+  /**
+   * Send requests on schedule for a while.
+   *
+   * @return how many requests were sent
+   */
+  private long run(Map<String, Double> mix, double rate, long durationNanos) {
+    long interval = (long) (NANOS_PER_SECOND / rate);
+    long start = System.nanoTime();
+    long sent = 0;
+    while (true) {
+      long scheduled = start + sent * interval;
+      if (scheduled - start >= durationNanos) {
+        return sent;
+      }
+      long wait = scheduled - System.nanoTime();
+      if (wait > 0) {
+        LockSupport.parkNanos(wait);
+      }
+      send(pick(mix), scheduled);
+      sent++;
+    }
+  }
+
+  private void send(String operation, long scheduled) {
+    HttpRequest request;
+    switch (operation) {
+      case "list":
+        request = get("/api/fsclients?limit=20");
+        break;
+      case "filter":
+        request = get("/api/fsclients?role=" + random(ROLES)
+          + "&company=" + random(COMPANY_PREFIXES) + "&sortby=age&limit=20");
+        break;
+      case "get":
+        request = get("/api/fsclients/" + existingIds.get(ThreadLocalRandom.current().nextInt(existingIds.size())));
+        break;
+      case "post":
+        request = post();
+        break;
+      case "delete":
+        String id = addedIds.pollFirst();
+        if (id == null) {
+          // Nothing to delete yet, so add something instead
+          send("post", scheduled);
+          return;
+        }
+        request = HttpRequest.newBuilder(URI.create(baseUrl + "/api/fsclients/" + id))
+          .timeout(REQUEST_TIMEOUT)
+          .DELETE()
+          .build();
+        break;
+      default:
+        throw new IllegalArgumentException("Unknown kind of request: " + operation);
+    }
+
+    inFlight.incrementAndGet();
+    client.sendAsync(request, HttpResponse.BodyHandlers.ofString())
+      .whenComplete((response, failure) -> {
+        try {
+          latencies.get(operation).recordValue(
+            Math.min(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - scheduled), MAX_LATENCY_MICROS));
+          if (failure != null || response.statusCode() >= HttpURLConnection.HTTP_BAD_REQUEST) {
+            errors.get(operation).incrementAndGet();
+          } else if (operation.equals("post")) {
+            addedIds.add(idOf(response.body()));
+          }
+        } catch (IllegalStateException e) {
+          // A success without the new fsclient's id is still wrong
+          errors.get(operation).incrementAndGet();
+        } finally {
+          inFlight.decrementAndGet();
+        }
+      });
+  }
+
+  private HttpRequest get(String path) {
+    return HttpRequest.newBuilder(URI.create(baseUrl + path)).timeout(REQUEST_TIMEOUT).GET().build();
+  }
+
+  private HttpRequest post() {
+    long n = ThreadLocalRandom.current().nextLong(Long.MAX_VALUE);
+    String body = "{\"name\": \"Load Test " + n + "\", \"age\": " + (MIN_AGE + n % AGE_RANGE)
+      + ", \"company\": \"LOADTEST\", \"email\": \"load" + n + "@loadtest.com\", \"role\": \""
+      + ROLES[(int) (n % ROLES.length)] + "\"}";
+    return HttpRequest.newBuilder(URI.create(baseUrl + "/api/fsclients"))
+      .timeout(REQUEST_TIMEOUT)
+      .header("Content-Type", "application/json")
+      .POST(HttpRequest.BodyPublishers.ofString(body))
+      .build();
+  }
+
+  /**
+   * Find some fsclients for the `get` requests to ask for.
+   */
+  private void loadExistingIds() throws IOException, InterruptedException {
+    HttpResponse<String> response = client.send(
+      get("/api/fsclients?fields=_id&limit=" + EXISTING_IDS), HttpResponse.BodyHandlers.ofString());
+    if (response.statusCode() != HttpURLConnection.HTTP_OK) {
+      throw new IOException("Couldn't list the fsclients: HTTP " + response.statusCode());
+    }
+    for (JsonNode fsclient : MAPPER.readTree(response.body())) {
+      existingIds.add(fsclient.get("_id").asText());
+    }
+    if (existingIds.isEmpty()) {
+      throw new IOException("There are no fsclients to get; seed the database first");
+    }
+  }
+
+  private void awaitResponses() {
+    long deadline = System.nanoTime() + REQUEST_TIMEOUT.toNanos();
+    while (inFlight.get() > 0 && System.nanoTime() < deadline) {
+      LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(POLL_MILLIS));
+    }
+  }
+
+  private void resetResults() {
+    awaitResponses();
+    latencies.values().forEach(Recorder::reset);
+    errors.values().forEach(count -> count.set(0));
+  }
+
+  /**
+   * Print the latency percentiles and errors for each kind of request, and
+   * check them against the objectives.
+   *
+   * @return whether every objective was met
+   */
+  private boolean report(Map<String, Double> slos, double maxErrors) {
+    boolean passed = true;
+    long total = 0;
+    long failed = 0;
+    System.out.printf("%-8s %8s %7s %9s %9s %9s %9s %9s%n",
+      "request", "count", "errors", "p50 ms", "p90 ms", "p99 ms", "p99.9 ms", "max ms");
+    for (Map.Entry<String, Recorder> entry : latencies.entrySet()) {
+      String operation = entry.getKey();
+      Histogram histogram = entry.getValue().getIntervalHistogram();
+      long count = histogram.getTotalCount();
+      long operationErrors = errors.get(operation).get();
+      total += count;
+      failed += operationErrors;
+
+      StringBuilder line = new StringBuilder(String.format("%-8s %8d %7d", operation, count, operationErrors));
+      for (double percentile : PERCENTILES) {
+        line.append(String.format(" %9.2f", millis(histogram.getValueAtPercentile(percentile))));
+      }
+      line.append(String.format(" %9.2f", millis(histogram.getMaxValue())));
+
+      double p99 = millis(histogram.getValueAtPercentile(SLO_PERCENTILE));
+      Double slo = slos.get(operation);
+      if (slo != null && count > 0 && p99 > slo) {
+        line.append(String.format("  FAILED: p99 over %.0f ms", slo));
+        passed = false;
+      }
+      System.out.println(line);
+    }
+
+    double errorRate = total == 0 ? 0 : (double) failed / total;
+    System.out.printf("%nError rate: %.2f%%%n", errorRate * PERCENT);
+    if (errorRate > maxErrors) {
+      System.out.printf("FAILED: more than %.2f%% of requests failed%n", maxErrors * PERCENT);
+      passed = false;
+    }
+    System.out.println(passed ? "PASSED" : "FAILED");
+    return passed;
+  }
+
+  private static double millis(long micros) {
+    return micros / MICROS_PER_MILLI;
+  }
+
+  private static String pick(Map<String, Double> mix) {
+    double total = mix.values().stream().mapToDouble(Double::doubleValue).sum();
+    double choice = ThreadLocalRandom.current().nextDouble(total);
+    for (Map.Entry<String, Double> entry : mix.entrySet()) {
+      choice -= entry.getValue();
+      if (choice < 0) {
+        return entry.getKey();
+      }
+    }
+    return mix.keySet().iterator().next();
+  }
+
+  private static String random(String[] values) {
+    return values[ThreadLocalRandom.current().nextInt(values.length)];
+  }
+
+  private static String idOf(String body) {
+    JsonNode id;
+    try {
+      id = MAPPER.readTree(body).get("id");
+    } catch (IOException e) {
+      throw new IllegalStateException("Unexpected response to adding an fsclient: " + body, e);
+    }
+    if (id == null || !id.isTextual()) {
+      throw new IllegalStateException("Unexpected response to adding an fsclient: " + body);
+    }
+    return id.asText();
+  }
+
+  /**
+   * Parse a list like `a=1,b=2.5` into a map from names to numbers.
+   */
+  private static Map<String, Double> parseNumbers(String list) {
+    Map<String, Double> numbers = new LinkedHashMap<>();
+    for (String item : list.split(",")) {
+      String[] parts = item.split("=");
+      numbers.put(parts[0].trim(), Double.parseDouble(parts[1].trim()));
+    }
+    return numbers;
+  }
+}
@@ -0,0 +1,20 @@
+package umm3601.RequestForm;
+
+/**
+ * The number of request forms that asked for a particular food.
+ */
+@SuppressWarnings({"VisibilityModifier"})
+public class FoodCount {
+
+  public String food;
+  public long count;
+
+  /**
+   * @param food the food
+   * @param count how many request forms asked for it
+   */
+  public FoodCount(String food, long count) {
+    this.food = food;
+    this.count = count;
+  }
+}
@@ -0,0 +1,257 @@
+package umm3601.RequestForm;
+
+import static com.mongodb.client.model.Filters.and;
+import static com.mongodb.client.model.Filters.eq;
+import static com.mongodb.client.model.Filters.gte;
+import static com.mongodb.client.model.Filters.lte;
+
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Supplier;
+
+import com.mongodb.MongoException;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.Accumulators;
+import com.mongodb.client.model.Aggregates;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.Sorts;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.UpdateOptions;
+import com.mongodb.client.model.Updates;
+import com.mongodb.client.model.WriteModel;
+
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.bson.types.ObjectId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps track of how many request forms asked for each food, per day.
+ * <p>
+ * Rather than counting over every request form whenever someone asks, we
+ * keep a small collection of counters, one per (food, day) pair, and a
+ * total per food, which are bumped every time a form is added. The overall
+ * demand is read straight from the totals, so it costs time proportional
+ * to the number of distinct foods, not the number of forms. The demand
+ * over a range of days adds up the daily counters in the range, so costs
+ * time proportional to the number of foods times the number of days.
+ * <p>
+ * Each daily counter looks like
+ * `{ _id: { food: "milk", day: "2023-02-14" }, count: 12 }`, and each total
+ * like `{ _id: "milk", count: 40 }`. The day is the (UTC) day the form was
+ * created, which we get from its ObjectId.
+ * <p>
+ * There are no transactions on a standalone MongoDB, so a form can be
+ * saved and then fail to be counted. When that happens the counters are
+ * marked as stale; summaries still read them (so they may be a little
+ * low), and the caller should have them rebuilt, off the request path,
+ * since that reads every form. `rebuild()` can also
+ * be called if the counters are suspect for other reasons (e.g., forms
+ * were added directly to the database). While it runs, this server doesn't
+ * add or count any forms, so that no counts are lost when the rebuilt
+ * counters replace the old ones.
+ */
+class FoodDemand {
+
+  static final String COLLECTION_NAME = "foodDemand";
+  static final String TOTALS_COLLECTION_NAME = "foodDemandTotals";
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(FoodDemand.class);
+
+  private final MongoCollection<Document> requestFormDocuments;
+  private final MongoCollection<Document> counters;
+  private final MongoCollection<Document> totals;
+
+  // Adding and counting forms holds the read lock, and rebuilding holds
+  // the write lock, so nothing is counted while the counters are replaced.
+  private final ReadWriteLock rebuilding = new ReentrantReadWriteLock();
+  // Whether some saved forms may not have been counted
+  private final AtomicBoolean stale = new AtomicBoolean();
+
+  /**
+   * Construct a food demand tracker.
+   *
+   * @param database the database containing the request forms and counters
+   * @param requestFormCollectionName the name of the request form collection
+   */
+  FoodDemand(MongoDatabase database, String requestFormCollectionName) {
+    requestFormDocuments = database.getCollection(requestFormCollectionName);
+    counters = database.getCollection(COLLECTION_NAME);
+    totals = database.getCollection(TOTALS_COLLECTION_NAME);
+  }
+
+  /**
+   * Mark the counters as stale if there are daily counters but no totals,
+   * which is the case for a database from before the totals were kept, so
+   * that they're rebuilt before the first summary.
+   */
+  void checkTotals() {
+    if (totals.estimatedDocumentCount() == 0 && counters.estimatedDocumentCount() > 0) {
+      stale.set(true);
+    }
+  }
+
+  /**
+   * Add request forms and count them, without a rebuild starting in
+   * between (which could count them twice).
+   *
+   * @param insert adds the forms to the database, and returns the ones
+   *   that were added
+   */
+  void insertAndRecord(Supplier<Collection<RequestForm>> insert) {
+    rebuilding.readLock().lock();
+    try {
+      record(insert.get());
+    } finally {
+      rebuilding.readLock().unlock();
+    }
+  }
+
+  /**
+   * Count the given (already inserted) request forms in the demand counters.
+   * Each form counts once for every distinct food it lists. All the counter
+   * updates are sent to the database in two bulk writes, one for the daily
+   * counters and one for the totals. If either fails, the counters are
+   * marked as stale rather than failing the caller, since the forms
+   * themselves were saved.
+   *
+   * @param requestForms the request forms to count; each must have an `_id`
+   */
+  void record(Collection<RequestForm> requestForms) {
+    Map<Document, Integer> increments = new HashMap<>();
+    Map<String, Integer> totalIncrements = new HashMap<>();
+    for (RequestForm requestForm : requestForms) {
+      if (requestForm.foods == null) {
+        continue;
+      }
+      String day = dayOf(requestForm._id);
+      for (String food : new LinkedHashSet<>(requestForm.foods)) {
+        increments.merge(counterId(food, day), 1, Integer::sum);
+        totalIncrements.merge(food, 1, Integer::sum);
+      }
+    }
+    if (increments.isEmpty()) {
+      return;
+    }
+
+    rebuilding.readLock().lock();
+    try {
+      counters.bulkWrite(incrementsOf(increments), new BulkWriteOptions().ordered(false));
+      totals.bulkWrite(incrementsOf(totalIncrements), new BulkWriteOptions().ordered(false));
+    } catch (MongoException e) {
+      stale.set(true);
+      LOGGER.warn("Couldn't count {} request forms in the food demand, so it will be rebuilt",
+        requestForms.size(), e);
+    } finally {
+      rebuilding.readLock().unlock();
+    }
+  }
+
+  /**
+   * Summarize the demand for each food, most requested first.
+   *
+   * @param from the first day to include, or `null` to start at the beginning
+   * @param to the last day to include, or `null` to go up to today
+   * @return the count for each food
+   */
+  List<FoodCount> summary(LocalDate from, LocalDate to) {
+    List<Bson> pipeline = new ArrayList<>();
+    if (from == null && to == null) {
+      pipeline.add(Aggregates.sort(Sorts.orderBy(Sorts.descending("count"), Sorts.ascending("_id"))));
+      return summarize(totals, pipeline);
+    }
+
+    List<Bson> dayFilters = new ArrayList<>();
+    if (from != null) {
+      dayFilters.add(gte("_id.day", from.toString()));
+    }
+    if (to != null) {
+      dayFilters.add(lte("_id.day", to.toString()));
+    }
+    pipeline.add(Aggregates.match(and(dayFilters)));
+    pipeline.add(Aggregates.group("$_id.food", Accumulators.sum("count", "$count")));
+    pipeline.add(Aggregates.sort(Sorts.orderBy(Sorts.descending("count"), Sorts.ascending("_id"))));
+    return summarize(counters, pipeline);
+  }
+
+  /**
+   * @return whether some saved forms may not have been counted, so the
+   *   counters should be rebuilt
+   */
+  boolean isStale() {
+    return stale.get();
+  }
+
+  /**
+   * Recompute every counter from the request forms themselves, replacing
+   * the current counters. This reads every request form, so it's only meant
+   * for repairing the counters, not for answering queries. New forms wait
+   * until it's done.
+   */
+  void rebuild() {
+    rebuilding.writeLock().lock();
+    try {
+      // Any forms that weren't counted are about to be
+      stale.set(false);
+      requestFormDocuments.aggregate(List.of(
+        // Each form counts once per distinct food
+        Aggregates.project(new Document("foods", new Document("$setUnion", List.of("$foods", List.of())))
+          .append("day", new Document("$dateToString",
+            new Document("format", "%Y-%m-%d").append("date", new Document("$toDate", "$_id"))))),
+        Aggregates.unwind("$foods"),
+        Aggregates.group(new Document("food", "$foods").append("day", "$day"), Accumulators.sum("count", 1)),
+        // Replaces the contents of the counter collection in one step
+        Aggregates.out(COLLECTION_NAME)
+      )).toCollection();
+      counters.aggregate(List.of(
+        Aggregates.group("$_id.food", Accumulators.sum("count", "$count")),
+        Aggregates.out(TOTALS_COLLECTION_NAME)
+      )).toCollection();
+    } catch (MongoException e) {
+      stale.set(true);
+      throw e;
+    } finally {
+      rebuilding.writeLock().unlock();
+    }
+  }
+
+  private List<FoodCount> summarize(MongoCollection<Document> source, List<Bson> pipeline) {
+    List<FoodCount> summary = new ArrayList<>();
+    rebuilding.readLock().lock();
+    try {
+      for (Document count : source.aggregate(pipeline)) {
+        summary.add(new FoodCount(count.getString("_id"), count.get("count", Number.class).longValue()));
+      }
+    } finally {
+      rebuilding.readLock().unlock();
+    }
+    return summary;
+  }
+
+  private static <K> List<WriteModel<Document>> incrementsOf(Map<K, Integer> increments) {
+    List<WriteModel<Document>> updates = new ArrayList<>(increments.size());
+    UpdateOptions upsert = new UpdateOptions().upsert(true);
+    increments.forEach((id, increment) ->
+      updates.add(new UpdateOneModel<>(eq("_id", id), Updates.inc("count", increment), upsert)));
+    return updates;
+  }
+
+  private static Document counterId(String food, String day) {
+    return new Document("food", food).append("day", day);
+  }
+
+  private static String dayOf(String id) {
+    return LocalDate.ofInstant(new ObjectId(id).getDate().toInstant(), ZoneOffset.UTC).toString();
+  }
+}
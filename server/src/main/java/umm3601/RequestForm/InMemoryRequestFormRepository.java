@@ -0,0 +1,199 @@
+package umm3601.RequestForm;
+
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.bson.types.ObjectId;
+
+import umm3601.util.CaseInsensitiveOrder;
+import umm3601.util.PageCursor;
+
+/**
+ * A `RequestFormRepository` that keeps request forms in memory, for
+ * running the server without MongoDB.
+ * <p>
+ * Queries behave like those of `MongoRequestFormRepository` (the name
+ * and food filters ignore case, names sort case-insensitively, and ties
+ * are broken by `_id`). Like the MongoDB collection, there's an index on
+ * `foods`, so "who asked for X" only looks at the forms that did. Food
+ * demand is counted from the forms when it's asked for, so there are no
+ * counters to rebuild.
+ * <p>
+ * As in `InMemoryFsclientRepository`, reads don't lock and writes are
+ * serialized.
+ */
+public class InMemoryRequestFormRepository implements RequestFormRepository {
+
+  private final Map<String, RequestForm> requestForms = new ConcurrentHashMap<>();
+  // From each (lower cased) food to the ids of the forms that asked for it
+  private final Map<String, Set<String>> byFood = new ConcurrentHashMap<>();
+  // From each idempotency key to the id of the form saved with it
+  private final Map<String, String> byIdempotencyKey = new ConcurrentHashMap<>();
+
+  @Override
+  public void ensureIndexes() {
+    // The index is always there
+  }
+
+  @Override
+  public RequestForm findById(String id) {
+    return requestForms.get(checkId(id));
+  }
+
+  @Override
+  public List<RequestForm> find(RequestFormQuery query) {
+    Comparator<RequestForm> order = query.sortBy.equals("_id")
+      ? Comparator.comparing((RequestForm form) -> form._id)
+      : Comparator.comparing((RequestForm form) -> form.name, CaseInsensitiveOrder.ORDER)
+        .thenComparing(form -> form._id);
+    if (query.descending) {
+      order = order.reversed();
+    }
+
+    List<RequestForm> matches = matching(query);
+    if (query.after != null) {
+      RequestForm last = requestFormAt(query.after);
+      Comparator<RequestForm> finalOrder = order;
+      matches.removeIf(form -> finalOrder.compare(form, last) <= 0);
+    }
+
+    matches.sort(order);
+    if (query.limit > 0 && matches.size() > query.limit) {
+      return new ArrayList<>(matches.subList(0, query.limit));
+    }
+    return matches;
+  }
+
+  @Override
+  public long count(RequestFormQuery query) {
+    return matching(query).size();
+  }
+
+  @Override
+  public synchronized String insert(RequestForm requestForm) {
+    if (requestForm._id == null) {
+      requestForm._id = new ObjectId().toHexString();
+    } else if (requestForms.containsKey(checkId(requestForm._id))) {
+      throw new IllegalArgumentException("There is already a request form with id " + requestForm._id);
+    }
+    if (requestForm.idempotencyKey != null) {
+      String originalId = byIdempotencyKey.putIfAbsent(requestForm.idempotencyKey, requestForm._id);
+      if (originalId != null) {
+        return originalId;
+      }
+    }
+    requestForms.put(requestForm._id, requestForm);
+    if (requestForm.foods != null) {
+      for (String food : requestForm.foods) {
+        if (food != null) {
+          byFood.computeIfAbsent(lowerCase(food), key -> ConcurrentHashMap.newKeySet()).add(requestForm._id);
+        }
+      }
+    }
+    return requestForm._id;
+  }
+
+  @Override
+  public List<String> insertMany(List<RequestForm> forms) {
+    List<String> errors = new ArrayList<>(forms.size());
+    for (RequestForm requestForm : forms) {
+      try {
+        String id = insert(requestForm);
+        errors.add(id.equals(requestForm._id)
+          ? null
+          : "There is already a request form with idempotency key " + requestForm.idempotencyKey);
+      } catch (IllegalArgumentException e) {
+        errors.add(e.getMessage());
+      }
+    }
+    return errors;
+  }
+
+  @Override
+  public List<FoodCount> foodDemand(LocalDate from, LocalDate to) {
+    Map<String, Long> counts = new HashMap<>();
+    for (RequestForm requestForm : requestForms.values()) {
+      LocalDate day = LocalDate.ofInstant(new ObjectId(requestForm._id).getDate().toInstant(), ZoneOffset.UTC);
+      if (requestForm.foods == null || (from != null && day.isBefore(from)) || (to != null && day.isAfter(to))) {
+        continue;
+      }
+      // Each form counts once for every distinct food it lists
+      for (String food : new LinkedHashSet<>(requestForm.foods)) {
+        counts.merge(food, 1L, Long::sum);
+      }
+    }
+
+    List<FoodCount> summary = new ArrayList<>(counts.size());
+    counts.forEach((food, count) -> summary.add(new FoodCount(food, count)));
+    // Most requested first, as `FoodDemand` sorts them
+    summary.sort(Comparator.comparingLong((FoodCount count) -> count.count).reversed()
+      .thenComparing(count -> count.food, Comparator.nullsFirst(Comparator.naturalOrder())));
+    return summary;
+  }
+
+  @Override
+  public void rebuildFoodDemand() {
+    // Food demand is always counted from the request forms themselves
+  }
+
+  @Override
+  public boolean isFoodDemandStale() {
+    return false;
+  }
+
+  private List<RequestForm> matching(RequestFormQuery query) {
+    Collection<String> candidates = query.food == null
+      ? requestForms.keySet()
+      : byFood.getOrDefault(lowerCase(query.food), Set.of());
+    List<RequestForm> matches = new ArrayList<>();
+    for (String id : candidates) {
+      RequestForm requestForm = requestForms.get(id);
+      if (requestForm != null && matches(query, requestForm)) {
+        matches.add(requestForm);
+      }
+    }
+    return matches;
+  }
+
+  /**
+   * @return a request form that sorts exactly where the cursor is
+   */
+  private static RequestForm requestFormAt(PageCursor cursor) {
+    RequestForm requestForm = new RequestForm();
+    requestForm._id = cursor.id();
+    if (cursor.sortBy().equals("name") && cursor.value() != null) {
+      requestForm.name = cursor.value().toString();
+    }
+    return requestForm;
+  }
+
+  private static boolean matches(RequestFormQuery query, RequestForm requestForm) {
+    if (query.name != null && !lowerCase(query.name).equals(lowerCase(requestForm.name))) {
+      return false;
+    }
+    return query.food == null
+      || (requestForm.foods != null
+        && requestForm.foods.stream().anyMatch(food -> lowerCase(query.food).equals(lowerCase(food))));
+  }
+
+  private static String lowerCase(String value) {
+    return value == null ? null : value.toLowerCase(Locale.ROOT);
+  }
+
+  private static String checkId(String id) {
+    if (!ObjectId.isValid(id)) {
+      throw new IllegalArgumentException("Not a legal Mongo Object ID: " + id);
+    }
+    return id;
+  }
+}
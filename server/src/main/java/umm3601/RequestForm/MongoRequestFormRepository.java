@@ -0,0 +1,220 @@
+package umm3601.RequestForm;
+
+import static com.mongodb.client.model.Filters.and;
+import static com.mongodb.client.model.Filters.eq;
+import static com.mongodb.client.model.Filters.exists;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.mongodb.ErrorCategory;
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.MongoWriteException;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.client.FindIterable;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.Collation;
+import com.mongodb.client.model.CollationStrength;
+import com.mongodb.client.model.CountOptions;
+import com.mongodb.client.model.IndexModel;
+import com.mongodb.client.model.IndexOptions;
+import com.mongodb.client.model.Indexes;
+import com.mongodb.client.model.InsertManyOptions;
+import com.mongodb.client.model.Sorts;
+
+import org.bson.Document;
+import org.bson.UuidRepresentation;
+import org.bson.conversions.Bson;
+import org.bson.types.ObjectId;
+import org.mongojack.JacksonMongoCollection;
+
+/**
+ * A `RequestFormRepository` that keeps request forms in a MongoDB
+ * collection, and the food demand counts in another (see `FoodDemand`).
+ */
+public class MongoRequestFormRepository implements RequestFormRepository {
+
+  static final String COLLECTION_NAME = "requestForm";
+
+  // Request form queries and indexes use a case-insensitive collation, so that
+  // the name filter ignores case and can still be answered from an index.
+  static final Collation CASE_INSENSITIVE = Collation.builder()
+    .locale("en")
+    .collationStrength(CollationStrength.SECONDARY)
+    .build();
+
+  private final JacksonMongoCollection<RequestForm> requestFormCollection;
+  // The same collection, but as raw documents, for creating its indexes
+  private final MongoCollection<Document> requestFormDocuments;
+  private final FoodDemand foodDemand;
+
+  /**
+   * Construct a repository for the request forms in the given database.
+   *
+   * @param database the database containing request form data
+   */
+  public MongoRequestFormRepository(MongoDatabase database) {
+    requestFormCollection = JacksonMongoCollection.builder().build(
+        database,
+        COLLECTION_NAME,
+        RequestForm.class,
+        UuidRepresentation.STANDARD);
+    requestFormDocuments = database.getCollection(COLLECTION_NAME);
+    foodDemand = new FoodDemand(database, COLLECTION_NAME);
+  }
+
+  /**
+   * Make sure the request form collection has the indexes that back the
+   * filters and sort orders supported by `RequestFormQuery`. Creating an index
+   * that already exists does nothing, so this is safe to call on every start.
+   * <p>
+   * The index on `foods` is a multikey index (it has an entry for every food in
+   * every form), which is what lets "who asked for X" queries avoid a scan.
+   * The unique index on `idempotencyKey` only covers the forms that have one,
+   * and is what stops a retried submission from being saved twice, even by
+   * another server.
+   */
+  @Override
+  public void ensureIndexes() {
+    IndexOptions options = new IndexOptions().collation(CASE_INSENSITIVE);
+    requestFormDocuments.createIndexes(List.of(
+      new IndexModel(Indexes.ascending("name", "_id"), options),
+      new IndexModel(Indexes.ascending("foods", "name", "_id"), options),
+      new IndexModel(Indexes.ascending("idempotencyKey"),
+        new IndexOptions().unique(true).partialFilterExpression(exists("idempotencyKey")))));
+    foodDemand.checkTotals();
+  }
+
+  @Override
+  public RequestForm findById(String id) {
+    return requestFormCollection.find(eq("_id", new ObjectId(id))).first();
+  }
+
+  @Override
+  public List<RequestForm> find(RequestFormQuery query) {
+    Bson combinedFilter = constructFilter(query);
+    if (query.after != null) {
+      combinedFilter = and(combinedFilter, query.after.filter(query.descending));
+    }
+
+    // All of the find, sort, and limit steps happen "in parallel" inside the
+    // database system. So MongoDB is going to find the request forms with the
+    // specified properties and return those sorted in the specified manner.
+    FindIterable<RequestForm> requestForms = requestFormCollection
+      .find(combinedFilter)
+      .sort(constructSortingOrder(query))
+      .collation(CASE_INSENSITIVE);
+    if (query.limit > 0) {
+      requestForms = requestForms.limit(query.limit);
+    }
+    return requestForms.into(new ArrayList<>());
+  }
+
+  @Override
+  public long count(RequestFormQuery query) {
+    return requestFormCollection.countDocuments(constructFilter(query),
+      new CountOptions().collation(CASE_INSENSITIVE));
+  }
+
+  @Override
+  public String insert(RequestForm requestForm) {
+    try {
+      foodDemand.insertAndRecord(() -> {
+        requestFormCollection.insertOne(requestForm);
+        return List.of(requestForm);
+      });
+    } catch (MongoWriteException e) {
+      if (e.getError().getCategory() != ErrorCategory.DUPLICATE_KEY || requestForm.idempotencyKey == null) {
+        throw e;
+      }
+      // Most likely the key; if it was the id after all, rethrow
+      RequestForm original = requestFormCollection.find(eq("idempotencyKey", requestForm.idempotencyKey)).first();
+      if (original == null) {
+        throw e;
+      }
+      return original._id;
+    }
+    return requestForm._id;
+  }
+
+  @Override
+  public List<String> insertMany(List<RequestForm> requestForms) {
+    String[] errors = new String[requestForms.size()];
+    if (requestForms.isEmpty()) {
+      return Arrays.asList(errors);
+    }
+    // Assign the ids here so we know each form's id even if
+    // some of the inserts fail.
+    for (RequestForm requestForm : requestForms) {
+      if (requestForm._id == null) {
+        requestForm._id = new ObjectId().toHexString();
+      }
+    }
+
+    foodDemand.insertAndRecord(() -> {
+      try {
+        requestFormCollection.insertMany(requestForms, new InsertManyOptions().ordered(false));
+      } catch (MongoBulkWriteException e) {
+        // With an unordered insert everything except the failed forms
+        // is still written, and the errors tell us which ones failed.
+        for (BulkWriteError error : e.getWriteErrors()) {
+          errors[error.getIndex()] = error.getMessage();
+        }
+      }
+
+      List<RequestForm> inserted = new ArrayList<>(requestForms.size());
+      for (int i = 0; i < errors.length; i++) {
+        if (errors[i] == null) {
+          inserted.add(requestForms.get(i));
+        }
+      }
+      return inserted;
+    });
+    return Arrays.asList(errors);
+  }
+
+  @Override
+  public List<FoodCount> foodDemand(LocalDate from, LocalDate to) {
+    return foodDemand.summary(from, to);
+  }
+
+  @Override
+  public void rebuildFoodDemand() {
+    foodDemand.rebuild();
+  }
+
+  @Override
+  public boolean isFoodDemandStale() {
+    return foodDemand.isStale();
+  }
+
+  static Bson constructFilter(RequestFormQuery query) {
+    List<Bson> filters = new ArrayList<>(); // start with a blank document
+
+    if (query.name != null) {
+      filters.add(eq("name", query.name));
+    }
+    if (query.food != null) {
+      // Equality on an array field matches any document whose array
+      // contains the value, which the multikey index on `foods` answers.
+      filters.add(eq("foods", query.food));
+    }
+
+    // Combine the list of filters into a single filtering document.
+    Bson combinedFilter = filters.isEmpty() ? new Document() : and(filters);
+
+    return combinedFilter;
+  }
+
+  static Bson constructSortingOrder(RequestFormQuery query) {
+    // Ties are broken on `_id` so that the order is total,
+    // which the `after` cursor relies on.
+    Bson sortingOrder = query.descending
+      ? Sorts.descending(query.sortBy, "_id")
+      : Sorts.ascending(query.sortBy, "_id");
+    return sortingOrder;
+  }
+}
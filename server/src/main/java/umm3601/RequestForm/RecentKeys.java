@@ -0,0 +1,120 @@
+package umm3601.RequestForm;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongSupplier;
+
+/**
+ * The keys of recent request form submissions (idempotency keys, or hashes
+ * of the forms' contents), with the ids of the forms they were for, kept
+ * in memory for a limited time.
+ * <p>
+ * A key is first *claimed*, while its form is being saved, and then either
+ * *completed* with the form's id, or *released* if the form couldn't be
+ * saved (so a retry can try again). Claiming is a single `putIfAbsent`, so
+ * of several submissions racing with the same key exactly one gets it.
+ * <p>
+ * When there are more than `maxSize` keys the expired ones are dropped,
+ * and if that isn't enough, some completed ones too. Forgetting a live key
+ * only means a later duplicate of it might not be spotted.
+ */
+class RecentKeys {
+
+  /**
+   * What's known about a key: the id of its form, or `null` while the form
+   * is still being saved, the hash of the form's contents (for idempotency
+   * keys, so that a key reused for a different form can be spotted), and
+   * when to forget it.
+   */
+  record Entry(String id, String contents, long expiresAt) { }
+
+  // When pruning, make room for a tenth of `maxSize` more keys, so we
+  // aren't pruning again on the very next claim
+  private static final int ROOM_FRACTION = 10;
+
+  private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+  private final long timeToLiveNanos;
+  private final int maxSize;
+  private final LongSupplier clock;
+
+  /**
+   * @param timeToLiveNanos how long to remember each key
+   * @param maxSize the most keys to remember
+   * @param clock the current time, in nanoseconds
+   */
+  RecentKeys(long timeToLiveNanos, int maxSize, LongSupplier clock) {
+    this.timeToLiveNanos = timeToLiveNanos;
+    this.maxSize = maxSize;
+    this.clock = clock;
+  }
+
+  /**
+   * Claim a key for a new submission.
+   *
+   * @param key the key of the submission
+   * @param contents the hash of the form's contents, or `null`
+   * @return `null` if the key is now claimed by the caller, or what's known
+   *   about the earlier submission with the same key
+   */
+  Entry claim(String key, String contents) {
+    long now = clock.getAsLong();
+    pruneIfFull(now);
+    Entry claimed = new Entry(null, contents, now + timeToLiveNanos);
+    while (true) {
+      Entry existing = entries.putIfAbsent(key, claimed);
+      if (existing == null) {
+        return null;
+      }
+      if (existing.expiresAt() - now > 0) {
+        return existing;
+      }
+      if (entries.replace(key, existing, claimed)) {
+        return null;
+      }
+    }
+  }
+
+  /**
+   * Remember the id of the form a key was used for. The hash of the
+   * contents it was claimed with is kept.
+   *
+   * @param key the key of the submission
+   * @param id the id of the form
+   */
+  void complete(String key, String id) {
+    long expiresAt = clock.getAsLong() + timeToLiveNanos;
+    entries.compute(key, (k, entry) -> new Entry(id, entry == null ? null : entry.contents(), expiresAt));
+  }
+
+  /**
+   * Forget a claimed key whose form couldn't be saved. A key that has
+   * already been completed is left alone.
+   *
+   * @param key the key of the submission
+   */
+  void release(String key) {
+    entries.computeIfPresent(key, (k, entry) -> entry.id() == null ? null : entry);
+  }
+
+  /**
+   * @return the number of keys being remembered
+   */
+  int size() {
+    return entries.size();
+  }
+
+  private void pruneIfFull(long now) {
+    if (entries.size() <= maxSize) {
+      return;
+    }
+    entries.values().removeIf(entry -> entry.expiresAt() - now <= 0);
+    int target = maxSize - maxSize / ROOM_FRACTION;
+    Iterator<Entry> iterator = entries.values().iterator();
+    while (entries.size() > target && iterator.hasNext()) {
+      if (iterator.next().id() != null) {
+        iterator.remove();
+      }
+    }
+  }
+}
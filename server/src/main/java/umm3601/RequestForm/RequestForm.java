@@ -1,6 +1,9 @@
 package umm3601.RequestForm;
 
 import java.util.ArrayList;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
 import org.mongojack.Id;
 import org.mongojack.ObjectId;
 
@@ -19,6 +22,10 @@ public class RequestForm {
   // public String zipCode;
   // public date; (built in?)
   public ArrayList<String> foods;
+  // The `Idempotency-Key` header the form was submitted with, if any.
+  // There's a unique index on it, so a retry can't be saved twice.
+  @JsonInclude(JsonInclude.Include.NON_NULL)
+  public String idempotencyKey;
   // public int income;
   // public int familySize;
   // public int children;
@@ -1,55 +1,195 @@
 package umm3601.RequestForm;
 
-//import static com.mongodb.client.model.Filters.and;
-import static com.mongodb.client.model.Filters.eq;
-//import static com.mongodb.client.model.Filters.regex;
-
-import java.nio.charset.StandardCharsets;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
-//import java.util.ArrayList;
-//import java.util.List;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
-//import java.util.Objects;
-//import java.util.regex.Pattern;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
 
-import com.mongodb.client.MongoDatabase;
-//import com.mongodb.client.model.Sorts;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.DatabindException;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
 //import com.mongodb.client.result.DeleteResult;
 
-//import org.bson.Document;
-import org.bson.UuidRepresentation;
-//import org.bson.conversions.Bson;
 import org.bson.types.ObjectId;
-import org.mongojack.JacksonMongoCollection;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import io.javalin.http.BadRequestResponse;
+import io.javalin.http.ConflictResponse;
+import io.javalin.http.ContentType;
 import io.javalin.http.Context;
+import io.javalin.http.HttpResponseException;
 import io.javalin.http.HttpStatus;
 import io.javalin.http.NotFoundResponse;
+import io.javalin.http.ServiceUnavailableResponse;
+import umm3601.events.ChangeEvent;
+import umm3601.events.ChangeFeed;
+import umm3601.util.ChangeToken;
+import umm3601.util.ETags;
+import umm3601.util.Hashing;
+import umm3601.util.PageCursor;
+import umm3601.validation.Checks;
+import umm3601.validation.Validator;
 
 /**
  * Controller that manages requests for info about RequestForm.
+ * <p>
+ * Adding a request form doesn't talk to the database on the request thread;
+ * the insert is handed to the `databaseExecutor` and Javalin is given a
+ * future for the result. Passing an executor that runs tasks immediately
+ * (`Runnable::run`) gives the plain, synchronous, behavior instead.
+ * <p>
+ * With a `RequestFormWriteBehind` a new request form isn't inserted while
+ * the client waits at all: it's given its id, handed to the write-behind
+ * queue, and acknowledged with a 202 (Accepted).
  */
 public class RequestFormController {
 
+  private static final Logger LOGGER = LoggerFactory.getLogger(RequestFormController.class);
+
+  static final String NAME_KEY = "name";
+  static final String FOOD_KEY = "food";
+  static final String SORT_BY_KEY = "sortby";
   static final String SORT_ORDER_KEY = "sortorder";
+  static final String LIMIT_KEY = "limit";
+  static final String AFTER_KEY = "after";
+  static final String COUNT_KEY = "count";
+  static final String CHUNK_SIZE_KEY = "chunksize";
+  static final String FROM_KEY = "from";
+  static final String TO_KEY = "to";
+
+  // Response header carrying the `after` cursor for the next page of a
+  // paginated listing; absent when there are no further pages.
+  static final String NEXT_PAGE_HEADER = "X-Next-After";
+  // Response header carrying the total number of matching request forms
+  // (ignoring pagination) when the caller asks for it with `count=true`.
+  static final String TOTAL_COUNT_HEADER = "X-Total-Count";
+
+  private static final int MAX_PAGE_SIZE = 1000;
+
+  // Clients send the same key with every attempt at a submission, so a
+  // retry isn't saved twice
+  static final String IDEMPOTENCY_KEY_HEADER = "Idempotency-Key";
+  private static final int MAX_IDEMPOTENCY_KEY_LENGTH = 255;
+
+  // How long to tell clients to wait when the write-behind queue is full,
+  // or a duplicate of a submission is still being saved
+  private static final String RETRY_AFTER_HEADER = "Retry-After";
+  private static final String RETRY_AFTER_SECONDS = "1";
+  // Marks a food demand summary that may be missing some forms
+  static final String FOOD_DEMAND_STALE_HEADER = "X-Food-Demand-Stale";
+
+  private static final int DEFAULT_BULK_CHUNK_SIZE = 500;
+  private static final int MAX_BULK_CHUNK_SIZE = 5000;
+
+  // Reads either a JSON array of request forms or a stream of request
+  // forms separated by whitespace (e.g., newline delimited JSON), one
+  // form at a time, so a bulk upload never has to be held in memory.
+  private static final ObjectReader REQUEST_FORM_READER = new ObjectMapper().readerFor(RequestForm.class);
+  private static final ObjectWriter REQUEST_FORM_WRITER = new ObjectMapper().writerFor(RequestForm.class);
+
+  public static final String EMAIL_REGEX = Checks.EMAIL_REGEX;
 
-  public static final String EMAIL_REGEX = "^[a-zA-Z0-9_!#$%&'*+/=?`{|}~^.-]+@[a-zA-Z0-9.-]+$";
+  // The checks a new request form has to pass, both on its own and as part
+  // of a bulk upload. These are built once and shared by every request.
+  private static final Validator<RequestForm> REQUEST_FORM_VALIDATOR = new Validator<RequestForm>("Request form")
+    .check("name", form -> Checks.isNonBlank(form.name), "Request form must have a non-empty name")
+    .check("foods", form -> form.foods != null, "Request form must have a list of foods")
+    .check("foods", form -> form.foods.stream().allMatch(Checks::isNonBlank),
+      "Request form must not have any empty foods");
 
-  private final JacksonMongoCollection<RequestForm> requestFormCollection;
+  private final RequestFormRepository requestFormRepository;
+  private final Executor databaseExecutor;
+  private final ChangeFeed changeFeed;
+  // Saves new request forms in the background, or null to save them
+  // before responding
+  private final RequestFormWriteBehind writeBehind;
+  // Spots submissions that duplicate earlier ones
+  private final RequestFormDeduplicator deduplicator;
+
+  // Changes whenever request forms are added; used to tag list responses
+  // so that clients can cheaply check if theirs are current.
+  private final ChangeToken requestFormChanges = new ChangeToken();
+  // Whether the food demand counters are being rebuilt in the background
+  private final AtomicBoolean rebuildingFoodDemand = new AtomicBoolean();
 
   /**
    * Construct a controller for request forms.
    *
-   * @param database the database containing request form data
+   * @param requestFormRepository where the request forms are stored
+   * @param databaseExecutor runs the handlers' calls to the repository
+   * @param changeFeed where to report the changes this controller makes
+   */
+  public RequestFormController(
+    RequestFormRepository requestFormRepository,
+    Executor databaseExecutor,
+    ChangeFeed changeFeed) {
+    this(requestFormRepository, databaseExecutor, changeFeed, null);
+  }
+
+  /**
+   * Construct a controller for request forms that saves new request forms
+   * in the background.
+   *
+   * @param requestFormRepository where the request forms are stored
+   * @param databaseExecutor runs the handlers' calls to the repository
+   * @param changeFeed where to report the changes this controller makes
+   * @param writeBehind saves new request forms, or `null` to save them
+   *   before responding
+   */
+  public RequestFormController(
+    RequestFormRepository requestFormRepository,
+    Executor databaseExecutor,
+    ChangeFeed changeFeed,
+    RequestFormWriteBehind writeBehind) {
+    this(requestFormRepository, databaseExecutor, changeFeed, writeBehind, RequestFormDeduplicator.disabled());
+  }
+
+  /**
+   * Construct a controller for request forms that saves new request forms
+   * (perhaps in the background) unless they duplicate earlier ones.
+   *
+   * @param requestFormRepository where the request forms are stored
+   * @param databaseExecutor runs the handlers' calls to the repository
+   * @param changeFeed where to report the changes this controller makes
+   * @param writeBehind saves new request forms, or `null` to save them
+   *   before responding
+   * @param deduplicator spots submissions that duplicate earlier ones
    */
-  public RequestFormController(MongoDatabase database) {
-    requestFormCollection = JacksonMongoCollection.builder().build(
-        database,
-        "requestForm",
-        RequestForm.class,
-        UuidRepresentation.STANDARD);
+  public RequestFormController(
+    RequestFormRepository requestFormRepository,
+    Executor databaseExecutor,
+    ChangeFeed changeFeed,
+    RequestFormWriteBehind writeBehind,
+    RequestFormDeduplicator deduplicator) {
+    this.requestFormRepository = requestFormRepository;
+    this.databaseExecutor = databaseExecutor;
+    this.changeFeed = changeFeed;
+    this.writeBehind = writeBehind;
+    this.deduplicator = deduplicator;
+  }
+
+  /**
+   * Note that the request forms have changed. This should be registered
+   * as a listener on the `ChangeFeed`, so that changes made by other
+   * servers (or directly in the database) are noticed too.
+   *
+   * @param event a change to one of our collections
+   */
+  public void changed(ChangeEvent event) {
+    if (event.collection().equals(ChangeEvent.REQUEST_FORMS)) {
+      requestFormChanges.changed();
+    }
   }
 
   /**
@@ -63,14 +203,24 @@ public class RequestFormController {
     RequestForm requestForm;
 
     try {
-      requestForm = requestFormCollection.find(eq("_id", new ObjectId(id))).first();
+      requestForm = requestFormRepository.findById(id);
     } catch (IllegalArgumentException e) {
       throw new BadRequestResponse("The requested requestForm id wasn't a legal Mongo Object ID.");
     }
     if (requestForm == null) {
       throw new NotFoundResponse("The requested requestForm was not found");
-    } else {
-      ctx.json(requestForm);
+    }
+    // Tag the response with a hash of its body, so a client that already
+    // has this version of the form gets a 304 instead.
+    byte[] body;
+    try {
+      body = REQUEST_FORM_WRITER.writeValueAsBytes(requestForm);
+    } catch (JsonProcessingException e) {
+      throw new UncheckedIOException(e);
+    }
+    if (!ETags.notModified(ctx, ETags.forContent(body))) {
+      ctx.contentType(ContentType.APPLICATION_JSON);
+      ctx.result(body);
       ctx.status(HttpStatus.OK);
     }
   }
@@ -78,75 +228,390 @@ public class RequestFormController {
   /**
    * Set the JSON body of the response to be a list of all the request forms returned from the database
    * that match any requested filters and ordering
+   * <p>
+   * Forms can be filtered by `name` (ignoring case) and by `food`, which matches
+   * forms whose list of foods contains that item. The listing can be paginated with
+   * `limit` and `after`, where `after` is the opaque cursor returned in the
+   * `X-Next-After` header with the previous page.
+   * If `count=true` the total number of matching forms is returned in the
+   * `X-Total-Count` header. Counting costs an extra query, so it's only done on request.
    *
    * @param ctx a Javalin HTTP context
    */
-  /*public void getRequestForms(Context ctx) {
-    //Bson combinedFilter = constructFilter(ctx);
-    //Bson sortingOrder = constructSortingOrder(ctx);
+  public void getRequestForms(Context ctx) {
+    RequestFormQuery query = constructQuery(ctx);
 
-    // All three of the find, sort, and into steps happen "in parallel" inside the
-    // database system. So MongoDB is going to find the requestForm with the specified
-    // properties, return those sorted in the specified manner, and put the
-    // results into an initially empty ArrayList.
-    ArrayList<RequestForm> matchingRequestForm = requestFormCollection
-      //.find(combinedFilter)
-      //.sort(sortingOrder)
-      .into(new ArrayList<>());
+    // If no request forms have been added since the client last asked
+    // this, it can keep using the list it has, and we don't need to go to
+    // Mongo.
+    if (ETags.notModified(ctx, ETags.forQuery(requestFormChanges, ctx))) {
+      return;
+    }
+
+    if (ctx.queryParamAsClass(COUNT_KEY, Boolean.class).getOrDefault(false)) {
+      ctx.header(TOTAL_COUNT_HEADER, Long.toString(requestFormRepository.count(query)));
+    }
+
+    List<RequestForm> matchingRequestForms = requestFormRepository.find(query);
+
+    // If we filled the page there may be more request forms, so tell the
+    // caller where to pick up from.
+    if (query.limit > 0 && matchingRequestForms.size() == query.limit) {
+      ctx.header(NEXT_PAGE_HEADER, query.cursorAfter(matchingRequestForms.get(query.limit - 1)).encode());
+    }
 
     // Set the JSON body of the response to be the list of requestForm returned by the database.
     // According to the Javalin documentation (https://javalin.io/documentation#context),
     // this calls result(jsonString), and also sets content type to json
-    ctx.json(matchingRequestForm);
+    ctx.json(matchingRequestForms);
 
     // Explicitly set the context status to OK
     ctx.status(HttpStatus.OK);
-  }*/
+  }
+
+  /**
+   * Build the query described by the filter, sorting, and pagination
+   * query params in the request, checking that they have legal values.
+   *
+   * @param ctx a Javalin HTTP context
+   * @return the requested query
+   */
+  private RequestFormQuery constructQuery(Context ctx) {
+    RequestFormQuery query = new RequestFormQuery();
+
+    query.name = ctx.queryParam(NAME_KEY);
+    query.food = ctx.queryParam(FOOD_KEY);
 
-  /*private Bson constructSortingOrder(Context ctx) {
     // Sort the results. Use the `sortby` query param (default "name")
     // as the field to sort by, and the query param `sortorder` (default
     // "asc") to specify the sort order.
-    String sortBy = Objects.requireNonNullElse(ctx.queryParam("sortby"), "name");
-    String sortOrder = Objects.requireNonNullElse(ctx.queryParam("sortorder"), "asc");
-    Bson sortingOrder = sortOrder.equals("desc") ?  Sorts.descending(sortBy) : Sorts.ascending(sortBy);
-    return sortingOrder;
-  }*/
+    query.sortBy = Objects.requireNonNullElse(ctx.queryParam(SORT_BY_KEY), "name");
+    if (!RequestFormQuery.SORTABLE_FIELDS.contains(query.sortBy)) {
+      throw new BadRequestResponse("Request forms can only be sorted by one of " + RequestFormQuery.SORTABLE_FIELDS);
+    }
+    query.descending = "desc".equals(ctx.queryParam(SORT_ORDER_KEY));
+
+    if (ctx.queryParamMap().containsKey(AFTER_KEY)) {
+      try {
+        query.after = PageCursor.decode(ctx.queryParam(AFTER_KEY), query.sortBy);
+      } catch (IllegalArgumentException e) {
+        throw new BadRequestResponse(e.getMessage());
+      }
+    }
+    if (ctx.queryParamMap().containsKey(LIMIT_KEY)) {
+      query.limit = ctx.queryParamAsClass(LIMIT_KEY, Integer.class)
+        .check(it -> it > 0, "The page size must be greater than zero")
+        .check(it -> it <= MAX_PAGE_SIZE, "The page size must be at most " + MAX_PAGE_SIZE)
+        .get();
+    }
+
+    return query;
+  }
 
   /**
    * Add a new request form using information from the context
    * (as long as the information gives "legal" values to request forms fields)
+   * <p>
+   * A submission that duplicates an earlier one (see `RequestFormDeduplicator`)
+   * isn't saved again; the response is a 200 with the earlier form's id,
+   * or, if that form is still being saved, a 409 (Conflict) asking the
+   * client to try again shortly. Clients that might retry a submission
+   * should send the same `Idempotency-Key` header with every attempt; a
+   * key that was already used for a different form gets a 422.
+   * <p>
+   * With write-behind, a retry that reaches a different server than the
+   * first attempt is only caught when it's saved: it's acknowledged with
+   * a new id, but that form is never saved, since the first one was.
    *
    * @param ctx a Javalin HTTP context
    */
   public void addNewRequestForms(Context ctx) {
     /*
-     * The follow chain of statements uses the Javalin validator system
-     * to verify that instance of `Fsclient` provided in this context is
-     * a "legal" fsclient. It checks the following things (in order):
-     *    - The fsclient has a value for the name (`usr.name != null`)
-     *    - The fsclient name is not blank (`usr.name.length > 0`)
-     *    - The provided email is valid (matches EMAIL_REGEX)
-     *    - The provided age is > 0
-     *    - The provided role is valid (one of "admin", "editor", or "viewer")
-     *    - A non-blank company is provided
+     * The Javalin body validator turns the body into a `RequestForm` (or
+     * responds with a 400 if it can't), and then `REQUEST_FORM_VALIDATOR`
+     * verifies that it is a "legal" request form. It checks that:
+     *    - The form has a non-blank name
+     *    - The form has a list of foods, none of which are blank
+     * Every problem with the form is reported in the 400 response, not
+     * just the first one.
      */
-    RequestForm requestForm = ctx.bodyValidator(RequestForm.class)
-      /* .check(usr -> usr.name != null && usr.name.length() > 0, "Fsclient must have a non-empty fsclient name")
-      .check(usr -> usr.email.matches(EMAIL_REGEX), "Fsclient must have a legal email")
-      .check(usr -> usr.age > 0, "Fsclient's age must be greater than zero")
-      .check(usr -> usr.age < REASONABLE_AGE_LIMIT, "Fsclient's age must be less than " + REASONABLE_AGE_LIMIT)
-      .check(usr -> usr.role.matches(ROLE_REGEX), "Fsclient must have a legal fsclient role")
-      .check(usr -> usr.company != null && usr.company.length() > 0, "Fsclient must have a non-empty company name")*/
-      .get();
-    requestFormCollection.insertOne(requestForm);
+    RequestForm requestForm = REQUEST_FORM_VALIDATOR.validate(ctx.bodyValidator(RequestForm.class).get());
+    String idempotencyKey = ctx.header(IDEMPOTENCY_KEY_HEADER);
+    if (idempotencyKey != null
+      && (!Checks.isNonBlank(idempotencyKey) || idempotencyKey.length() > MAX_IDEMPOTENCY_KEY_LENGTH)) {
+      throw new BadRequestResponse(
+        "The " + IDEMPOTENCY_KEY_HEADER + " header must be non-empty and at most "
+          + MAX_IDEMPOTENCY_KEY_LENGTH + " characters long");
+    }
+
+    RequestFormDeduplicator.Submission submission = deduplicator.submit(idempotencyKey, requestForm);
+    if (submission.isKeyReused()) {
+      throw keyReused();
+    }
+    if (submission.isDuplicate()) {
+      sendOriginal(ctx, submission.originalId());
+      return;
+    }
+
+    // Assign the id here, since with write-behind the client needs it
+    // before the form is saved. Clients don't get to choose it: one that
+    // isn't a valid ObjectId could never be saved. The key is only ever
+    // the header's.
+    requestForm._id = new ObjectId().toHexString();
+    requestForm.idempotencyKey = submission.idempotencyKey();
+    ctx.future(() -> CompletableFuture
+      .supplyAsync(() -> save(requestForm, submission), databaseExecutor)
+      .whenComplete((id, failure) -> {
+        if (failure != null || id == null) {
+          submission.failed();
+        } else if (!id.equals(requestForm._id)) {
+          submission.savedEarlier(id);
+        } else {
+          submission.saved(id);
+        }
+      })
+      .thenAccept(id -> {
+        if (id == null) {
+          ctx.header(RETRY_AFTER_HEADER, RETRY_AFTER_SECONDS);
+          throw new ServiceUnavailableResponse(
+            "Too many request forms are waiting to be saved; please try again shortly");
+        }
+        if (!id.equals(requestForm._id)) {
+          // It was saved earlier, by another server or before a restart
+          sendOriginal(ctx, id);
+          return;
+        }
+        ctx.json(Map.of("id", id));
+        if (writeBehind != null) {
+          // 202 says the form has been accepted, but not yet saved
+          ctx.status(HttpStatus.ACCEPTED);
+          return;
+        }
+        requestFormChanges.changed();
+        changeFeed.localChange(ChangeEvent.inserted(ChangeEvent.REQUEST_FORMS, id));
+        // 201 is the HTTP code for when we successfully
+        // create a new resource (a fsclient in this case).
+        // See, e.g., https://developer.mozilla.org/en-US/docs/Web/HTTP/Status
+        // for a description of the various response codes.
+        ctx.status(HttpStatus.CREATED);
+      }));
+  }
+
+  /**
+   * Save a new request form, either right away or (with a write-behind
+   * queue) in the background, unless one with the same idempotency key has
+   * already been saved (by another server, or before a restart).
+   *
+   * @return the id of the form, the id of the one saved earlier with the
+   *   same idempotency key, or `null` if the write-behind queue is too full
+   *   to take it
+   */
+  private String save(RequestForm requestForm, RequestFormDeduplicator.Submission submission) {
+    if (writeBehind != null) {
+      return writeBehind.submit(requestForm) ? requestForm._id : null;
+    }
+    String id = requestFormRepository.insert(requestForm);
+    if (!id.equals(requestForm._id)) {
+      RequestForm original = requestFormRepository.findById(id);
+      if (original != null && !submission.sameContents(original)) {
+        throw keyReused();
+      }
+    }
+    return id;
+  }
+
+  private static HttpResponseException keyReused() {
+    return new HttpResponseException(HttpStatus.UNPROCESSABLE_CONTENT.getCode(),
+      "This " + IDEMPOTENCY_KEY_HEADER + " was already used for a different request form");
+  }
+
+  /**
+   * Respond to a duplicate submission with the id of the original form, or
+   * ask the client to try again if the original is still being saved.
+   */
+  private static void sendOriginal(Context ctx, String originalId) {
+    if (originalId == null) {
+      ctx.header(RETRY_AFTER_HEADER, RETRY_AFTER_SECONDS);
+      throw new ConflictResponse("This request form is already being saved; please try again shortly");
+    }
+    ctx.json(Map.of("id", originalId));
+    ctx.status(HttpStatus.OK);
+  }
+
+  /**
+   * Add many request forms at once from the body of the request, which
+   * can be either a JSON array of request forms or newline delimited JSON
+   * (one request form per line).
+   * <p>
+   * Forms are validated one at a time as they are read, and the valid ones
+   * are written to the database in unordered batches of `chunksize` (a query
+   * param, default 500), so one bad form doesn't stop the others from being
+   * inserted. The response lists, for each form in the order given, either
+   * the `id` it was inserted with or the `error` that kept it out.
+   *
+   * @param ctx a Javalin HTTP context
+   */
+  public void addNewRequestFormsInBulk(Context ctx) throws IOException {
+    int chunkSize = ctx.queryParamAsClass(CHUNK_SIZE_KEY, Integer.class)
+      .check(it -> it > 0, "The chunk size must be greater than zero")
+      .check(it -> it <= MAX_BULK_CHUNK_SIZE, "The chunk size must be at most " + MAX_BULK_CHUNK_SIZE)
+      .getOrDefault(DEFAULT_BULK_CHUNK_SIZE);
+
+    List<Map<String, Object>> results = new ArrayList<>();
+    List<RequestForm> chunk = new ArrayList<>(chunkSize);
+    List<Integer> chunkIndices = new ArrayList<>(chunkSize);
+    int failed = 0;
+
+    try (MappingIterator<RequestForm> forms = REQUEST_FORM_READER.readValues(ctx.bodyInputStream())) {
+      int index = 0;
+      boolean moreForms = true;
+      while (moreForms) {
+        try {
+          moreForms = forms.hasNextValue();
+          if (moreForms) {
+            RequestForm requestForm = forms.nextValue();
+            // Idempotency keys only come from the header of a single submission
+            requestForm.idempotencyKey = null;
+            String problem = validationProblem(requestForm);
+            if (problem == null) {
+              chunk.add(requestForm);
+              chunkIndices.add(index);
+              results.add(null);
+            } else {
+              results.add(failure(index, problem));
+            }
+          }
+        } catch (DatabindException e) {
+          // The form was well-formed JSON but didn't fit a `RequestForm`;
+          // the reader skips past it and we can carry on with the next one.
+          results.add(failure(index, e.getOriginalMessage()));
+        } catch (JsonProcessingException e) {
+          // The JSON itself is broken, so there's no telling where the
+          // next form starts; report it and stop reading.
+          results.add(failure(index, "Malformed JSON: " + e.getOriginalMessage()));
+          moreForms = false;
+        }
+        if (chunk.size() == chunkSize || (!moreForms && !chunk.isEmpty())) {
+          insertChunk(chunk, chunkIndices, results);
+        }
+        index++;
+      }
+    }
 
-    ctx.json(Map.of("id", requestForm._id));
-    // 201 is the HTTP code for when we successfully
-    // create a new resource (a fsclient in this case).
-    // See, e.g., https://developer.mozilla.org/en-US/docs/Web/HTTP/Status
-    // for a description of the various response codes.
-    ctx.status(HttpStatus.CREATED);
+    for (Map<String, Object> result : results) {
+      if (result.containsKey("error")) {
+        failed++;
+      }
+    }
+    ctx.json(Map.of(
+      "inserted", results.size() - failed,
+      "failed", failed,
+      "results", results));
+    // 207 tells the client that some (but not necessarily all) of the
+    // forms failed, and that it needs to look at the individual results.
+    ctx.status(failed == 0 ? HttpStatus.CREATED : HttpStatus.MULTI_STATUS);
+  }
+
+  /**
+   * Insert a batch of request forms in a single unordered write, recording
+   * the outcome for each one in `results` (at the form's index in the
+   * original upload). The chunk lists are cleared afterwards.
+   */
+  private void insertChunk(List<RequestForm> chunk, List<Integer> chunkIndices, List<Map<String, Object>> results) {
+    List<String> errors = requestFormRepository.insertMany(chunk);
+    requestFormChanges.changed();
+    for (int i = 0; i < chunk.size(); i++) {
+      int index = chunkIndices.get(i);
+      if (errors.get(i) == null) {
+        changeFeed.localChange(ChangeEvent.inserted(ChangeEvent.REQUEST_FORMS, chunk.get(i)._id));
+      }
+      results.set(index, errors.get(i) == null
+        ? Map.of("index", index, "id", chunk.get(i)._id)
+        : failure(index, errors.get(i)));
+    }
+    chunk.clear();
+    chunkIndices.clear();
+  }
+
+  private static Map<String, Object> failure(int index, String message) {
+    return Map.of("index", index, "error", message);
+  }
+
+  /**
+   * Check that a request form has "legal" values for its fields.
+   *
+   * @param requestForm the request form to check
+   * @return a description of every problem found, or `null` if there aren't any
+   */
+  private static String validationProblem(RequestForm requestForm) {
+    Map<String, String> problems = REQUEST_FORM_VALIDATOR.problems(requestForm);
+    return problems.isEmpty() ? null : String.join("; ", problems.values());
+  }
+
+  /**
+   * Set the JSON body of the response to be the number of request forms
+   * that asked for each food, most requested first. The optional `from` and
+   * `to` query params (both `YYYY-MM-DD`, inclusive) limit the count to forms
+   * submitted in that range of days.
+   * <p>
+   * This is answered from the food demand counters, so it doesn't have to
+   * look at the request forms themselves. If some forms may not have been
+   * counted, the counts are sent anyway, with an `X-Food-Demand-Stale: true`
+   * header, and the counters are rebuilt in the background.
+   *
+   * @param ctx a Javalin HTTP context
+   */
+  public void getFoodDemand(Context ctx) {
+    if (requestFormRepository.isFoodDemandStale()) {
+      ctx.header(FOOD_DEMAND_STALE_HEADER, "true");
+      rebuildFoodDemandInBackground();
+    }
+    ctx.json(requestFormRepository.foodDemand(dateParam(ctx, FROM_KEY), dateParam(ctx, TO_KEY)));
+    ctx.status(HttpStatus.OK);
+  }
+
+  /**
+   * Start rebuilding the food demand counters on the database executor,
+   * unless that's already happening.
+   */
+  private void rebuildFoodDemandInBackground() {
+    if (!rebuildingFoodDemand.compareAndSet(false, true)) {
+      return;
+    }
+    CompletableFuture.runAsync(() -> {
+      try {
+        requestFormRepository.rebuildFoodDemand();
+      } catch (RuntimeException e) {
+        // It's still stale, so the next request tries again
+        LOGGER.warn("Couldn't rebuild the food demand counters", e);
+      } finally {
+        rebuildingFoodDemand.set(false);
+      }
+    }, databaseExecutor);
+  }
+
+  /**
+   * Recompute the food demand counters from scratch from the request forms,
+   * and set the JSON body of the response to be the resulting demand summary.
+   *
+   * @param ctx a Javalin HTTP context
+   */
+  public void rebuildFoodDemand(Context ctx) {
+    requestFormRepository.rebuildFoodDemand();
+    ctx.json(requestFormRepository.foodDemand(null, null));
+    ctx.status(HttpStatus.OK);
+  }
+
+  private static LocalDate dateParam(Context ctx, String key) {
+    String value = ctx.queryParam(key);
+    if (value == null) {
+      return null;
+    }
+    try {
+      return LocalDate.parse(value);
+    } catch (DateTimeParseException e) {
+      throw new BadRequestResponse("The `" + key + "` date must be in the form YYYY-MM-DD");
+    }
   }
 
   /**
@@ -172,15 +637,7 @@ public class RequestFormController {
    *
    * @param str the string to generate a md5 for
    */
-  @SuppressWarnings("lgtm[java/weak-cryptographic-algorithm]")
-  public String md5(String str) throws NoSuchAlgorithmException {
-    MessageDigest md = MessageDigest.getInstance("MD5");
-    byte[] hashInBytes = md.digest(str.toLowerCase().getBytes(StandardCharsets.UTF_8));
-
-    StringBuilder result = new StringBuilder();
-    for (byte b : hashInBytes) {
-      result.append(String.format("%02x", b));
-    }
-    return result.toString();
+  public String md5(String str) {
+    return Hashing.md5Hex(str);
   }
 }
@@ -0,0 +1,254 @@
+package umm3601.RequestForm;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+import umm3601.metrics.ServerMetrics;
+import umm3601.util.Hashing;
+
+/**
+ * Spots request forms that are submitted twice, so that they're only
+ * saved (and counted in the food demand) once.
+ * <p>
+ * There are two ways a submission can be a duplicate:
+ * <ul>
+ *   <li>It has the same `Idempotency-Key` header as an earlier one. Kiosks
+ *     send the same key when they retry a submission that timed out, so
+ *     the retry gets the id of the form the first attempt saved.</li>
+ *   <li>It has the same name and foods (ignoring case, and the order of
+ *     the foods) as one submitted within the last `contentWindow`.</li>
+ * </ul>
+ * Both are checked in memory, which takes microseconds and catches the
+ * usual retry to the same server. The content hashes are only ever kept
+ * in memory. The idempotency key is also saved with the form, where a
+ * unique index keeps a retry to another server (or after a restart) from
+ * being saved again; the repository's `insert` then returns the id of the
+ * form saved first. That's part of the insert, so it costs nothing extra.
+ * <p>
+ * Reusing an idempotency key for a form with different contents is a
+ * client bug, not a retry, so it's reported as such (`isKeyReused`).
+ * <p>
+ * A submission whose duplicate is still being saved can't be given an id
+ * yet, so the caller should ask the client to try again shortly.
+ */
+public class RequestFormDeduplicator {
+
+  private final RecentKeys recentIdempotencyKeys;
+  private final RecentKeys recentContents;
+
+  private final LongAdder idempotencyKeyDuplicates = new LongAdder();
+  private final LongAdder contentDuplicates = new LongAdder();
+
+  /**
+   * Construct a deduplicator.
+   *
+   * @param keyTimeToLive how long to remember idempotency keys in memory,
+   *   or zero to ignore them
+   * @param contentWindow how long to look for forms with the same contents,
+   *   or zero not to
+   * @param maxKeysInMemory the most keys of each kind to keep in memory
+   */
+  public RequestFormDeduplicator(Duration keyTimeToLive, Duration contentWindow, int maxKeysInMemory) {
+    this(keyTimeToLive, contentWindow, maxKeysInMemory, System::nanoTime);
+  }
+
+  RequestFormDeduplicator(Duration keyTimeToLive, Duration contentWindow, int maxKeysInMemory, LongSupplier clock) {
+    this.recentIdempotencyKeys = keyTimeToLive.isZero()
+      ? null
+      : new RecentKeys(keyTimeToLive.toNanos(), maxKeysInMemory, clock);
+    this.recentContents = contentWindow.isZero()
+      ? null
+      : new RecentKeys(contentWindow.toNanos(), maxKeysInMemory, clock);
+  }
+
+  /**
+   * @return a deduplicator that never finds any duplicates
+   */
+  public static RequestFormDeduplicator disabled() {
+    return new RequestFormDeduplicator(Duration.ZERO, Duration.ZERO, 0);
+  }
+
+  /**
+   * Check a new submission against the recent ones in memory. This doesn't
+   * touch the database.
+   *
+   * @param idempotencyKey the submission's `Idempotency-Key`, or `null`
+   * @param requestForm the submitted form
+   * @return the submission, which either is a duplicate, reuses a key, or
+   *   has claimed its keys (and must be finished with `saved`,
+   *   `savedEarlier`, or `failed`)
+   */
+  public Submission submit(String idempotencyKey, RequestForm requestForm) {
+    String ownKey = recentIdempotencyKeys == null ? null : idempotencyKey;
+    String contents = ownKey == null && recentContents == null ? null : contentKey(requestForm);
+    if (ownKey != null) {
+      RecentKeys.Entry earlier = recentIdempotencyKeys.claim(ownKey, contents);
+      if (earlier != null) {
+        if (earlier.contents() != null && !earlier.contents().equals(contents)) {
+          return new Submission(null, contents, false, null, true);
+        }
+        idempotencyKeyDuplicates.increment();
+        return new Submission(null, contents, false, earlier, false);
+      }
+    }
+    if (recentContents != null) {
+      RecentKeys.Entry earlier = recentContents.claim(contents, null);
+      if (earlier != null) {
+        contentDuplicates.increment();
+        // The key now stands for the earlier form too
+        if (ownKey != null && earlier.id() != null) {
+          recentIdempotencyKeys.complete(ownKey, earlier.id());
+        } else if (ownKey != null) {
+          recentIdempotencyKeys.release(ownKey);
+        }
+        return new Submission(null, contents, false, earlier, false);
+      }
+      return new Submission(ownKey, contents, true, null, false);
+    }
+    return new Submission(ownKey, contents, false, null, false);
+  }
+
+  /**
+   * Write the number of duplicates found, in the Prometheus text format.
+   *
+   * @param out where to write the metrics
+   */
+  public void writeMetrics(StringBuilder out) {
+    out.append("# HELP request_form_duplicates_total Duplicate request form submissions, by how they were spotted\n");
+    out.append("# TYPE request_form_duplicates_total counter\n");
+    ServerMetrics.writeSample(out, "request_form_duplicates_total",
+      ServerMetrics.label("reason", "idempotency_key"), idempotencyKeyDuplicates.sum());
+    ServerMetrics.writeSample(out, "request_form_duplicates_total",
+      ServerMetrics.label("reason", "content"), contentDuplicates.sum());
+  }
+
+  /**
+   * Hash a form's name and foods, ignoring case, surrounding spaces, and
+   * the order of the foods, so that resubmissions of the same form hash
+   * the same. Hashing keeps the keys small however big the form is.
+   *
+   * @param requestForm a valid request form
+   * @return the hash of the form's contents
+   */
+  static String contentKey(RequestForm requestForm) {
+    List<String> foods = new ArrayList<>(requestForm.foods.size());
+    for (String food : requestForm.foods) {
+      foods.add(food.trim().toLowerCase(Locale.ROOT));
+    }
+    Collections.sort(foods);
+    // `md5Hex` lowercases the name
+    return Hashing.md5Hex(requestForm.name.trim() + '\n' + String.join("\n", foods));
+  }
+
+  /**
+   * A request form submission that has been checked for duplicates.
+   */
+  public final class Submission {
+
+    // The idempotency key this submission claimed, or null
+    private final String idempotencyKey;
+    // The hash of the form's contents, or null if we don't need it
+    private final String contents;
+    // Whether this submission claimed its contents in `recentContents`
+    private final boolean claimedContents;
+    // The earlier submission this duplicates, or null
+    private final RecentKeys.Entry earlier;
+    private final boolean keyReused;
+
+    private Submission(
+      String idempotencyKey,
+      String contents,
+      boolean claimedContents,
+      RecentKeys.Entry earlier,
+      boolean keyReused) {
+      this.idempotencyKey = idempotencyKey;
+      this.contents = contents;
+      this.claimedContents = claimedContents;
+      this.earlier = earlier;
+      this.keyReused = keyReused;
+    }
+
+    /**
+     * @return whether this duplicates an earlier submission
+     */
+    public boolean isDuplicate() {
+      return earlier != null;
+    }
+
+    /**
+     * @return whether the idempotency key was used earlier for a form with
+     *   different contents
+     */
+    public boolean isKeyReused() {
+      return keyReused;
+    }
+
+    /**
+     * @return the id of the form this duplicates, or `null` if that's still
+     *   being saved (or this isn't a duplicate)
+     */
+    public String originalId() {
+      return earlier == null ? null : earlier.id();
+    }
+
+    /**
+     * @return the idempotency key to save with the form, or `null` if it
+     *   doesn't have one (or we're ignoring them)
+     */
+    public String idempotencyKey() {
+      return idempotencyKey;
+    }
+
+    /**
+     * @param original the form saved earlier with the same idempotency key
+     * @return whether it has the same contents as the one submitted now
+     */
+    public boolean sameContents(RequestForm original) {
+      return contents == null || contents.equals(contentKey(original));
+    }
+
+    /**
+     * Note that the form was saved.
+     *
+     * @param id the id of the saved form
+     */
+    public void saved(String id) {
+      if (idempotencyKey != null) {
+        recentIdempotencyKeys.complete(idempotencyKey, id);
+      }
+      if (claimedContents) {
+        recentContents.complete(contents, id);
+      }
+    }
+
+    /**
+     * Note that the form wasn't saved, because one with the same
+     * idempotency key had been already (by another server, or before a
+     * restart).
+     *
+     * @param originalId the id of that form
+     */
+    public void savedEarlier(String originalId) {
+      idempotencyKeyDuplicates.increment();
+      saved(originalId);
+    }
+
+    /**
+     * Note that the form couldn't be saved, and release its keys so that
+     * a retry can try again.
+     */
+    public void failed() {
+      if (idempotencyKey != null) {
+        recentIdempotencyKeys.release(idempotencyKey);
+      }
+      if (claimedContents) {
+        recentContents.release(contents);
+      }
+    }
+  }
+}
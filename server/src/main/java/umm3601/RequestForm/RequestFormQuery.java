@@ -0,0 +1,42 @@
+package umm3601.RequestForm;
+
+import java.util.Set;
+
+import umm3601.util.PageCursor;
+
+/**
+ * The filters, sort order, and page of a request for a list of request forms.
+ * A field left `null` (or `0` for `limit`) means that part of the query
+ * isn't restricted.
+ */
+// Like `RequestForm`, this is a plain holder of values, so we allow public fields.
+@SuppressWarnings({"VisibilityModifier"})
+public class RequestFormQuery {
+
+  // We only allow sorting on fields that have an index (see
+  // `MongoRequestFormRepository.ensureIndexes()`).
+  public static final Set<String> SORTABLE_FIELDS = Set.of("_id", "name");
+
+  /** Only request forms with this name (ignoring case). */
+  public String name;
+  /** Only request forms whose list of foods includes this one. */
+  public String food;
+
+  /** The field to sort on; ties are always broken by `_id`. */
+  public String sortBy = "name";
+  /** Whether to sort in descending rather than ascending order. */
+  public boolean descending;
+
+  /** Only request forms after this cursor in the sort order. */
+  public PageCursor after;
+  /** The most request forms to return, or 0 for no limit. */
+  public int limit;
+
+  /**
+   * @param requestForm a request form from the results of this query
+   * @return a cursor for the page of results after that request form
+   */
+  public PageCursor cursorAfter(RequestForm requestForm) {
+    return new PageCursor(sortBy, sortBy.equals("name") ? requestForm.name : requestForm._id, requestForm._id);
+  }
+}
@@ -0,0 +1,79 @@
+package umm3601.RequestForm;
+
+import java.time.LocalDate;
+import java.util.List;
+
+/**
+ * Storage for request forms, along with the per-food demand counts that
+ * are kept up to date as forms are added.
+ * <p>
+ * Methods that take an id throw an `IllegalArgumentException` if the id
+ * isn't a legal Mongo Object ID.
+ */
+public interface RequestFormRepository {
+
+  /**
+   * Make sure any indexes the queries rely on exist.
+   */
+  void ensureIndexes();
+
+  /**
+   * @param id the id of the request form to get
+   * @return the request form with the given id, or `null` if there isn't one
+   */
+  RequestForm findById(String id);
+
+  /**
+   * @param query the filters, order, and page of request forms to get
+   * @return the matching request forms, in order
+   */
+  List<RequestForm> find(RequestFormQuery query);
+
+  /**
+   * @param query the filters to count matches for; the page is ignored
+   * @return the total number of request forms matching the query's filters
+   */
+  long count(RequestFormQuery query);
+
+  /**
+   * Add a new request form, assigning it an id if it doesn't have one.
+   * If it has an `idempotencyKey` that a saved form already has, it isn't
+   * added, and the id of that form is returned instead.
+   *
+   * @param requestForm the request form to add
+   * @return the id of the new request form, or of the one saved earlier
+   *   with the same idempotency key
+   */
+  String insert(RequestForm requestForm);
+
+  /**
+   * Add several request forms at once, assigning ids to any that don't have
+   * one. A failure to add one form (including because its idempotency key
+   * has been used already) doesn't stop the others from being added.
+   *
+   * @param requestForms the request forms to add
+   * @return for each form (in the same order), `null` if it was added, or
+   *   a description of why it couldn't be
+   */
+  List<String> insertMany(List<RequestForm> requestForms);
+
+  /**
+   * Count how many request forms asked for each food, most requested first.
+   *
+   * @param from the first day to include, or `null` to start at the beginning
+   * @param to the last day to include, or `null` to go up to today
+   * @return the count for each food
+   */
+  List<FoodCount> foodDemand(LocalDate from, LocalDate to);
+
+  /**
+   * Recompute the food demand counts from scratch from the request forms.
+   */
+  void rebuildFoodDemand();
+
+  /**
+   * @return whether some forms may be missing from the food demand counts
+   *   (because counting them failed), until `rebuildFoodDemand` is called
+   */
+  boolean isFoodDemandStale();
+}
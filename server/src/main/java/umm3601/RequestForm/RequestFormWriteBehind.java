@@ -0,0 +1,529 @@
+package umm3601.RequestForm;
+
+import java.io.BufferedReader;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.mongodb.MongoNodeIsRecoveringException;
+import com.mongodb.MongoNotPrimaryException;
+import com.mongodb.MongoSocketException;
+import com.mongodb.MongoTimeoutException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import umm3601.events.ChangeEvent;
+import umm3601.events.ChangeFeed;
+import umm3601.metrics.ServerMetrics;
+
+/**
+ * Saves request forms to the database in the background, in batches, so
+ * that the request that submitted a form doesn't have to wait on MongoDB.
+ * <p>
+ * A submitted form (which must already have its `_id`) is first appended
+ * to a journal file, which is synced to disk, and then queued. Syncing is
+ * a group commit: a form submitted while another submission is syncing
+ * waits for that sync to finish, and then one sync covers every form
+ * written in the meantime, so a burst of submissions costs a few syncs,
+ * not one each.
+ * <p>
+ * A single writer thread takes forms off the queue and inserts them with
+ * one `insertMany` per batch: a batch is sent once it has `batchSize`
+ * forms, or `maxDelayMillis` after its first form arrived, whichever
+ * comes first. If the batch can't be saved because MongoDB can't be
+ * reached (or has no primary) the writer keeps it and tries again, with
+ * increasing delays, while new forms wait in the queue. Any other failure
+ * won't go away by trying again, so the batch is split in half and each
+ * half saved on its own, until the form that's to blame is found; that
+ * form is moved to a dead-letter file (the journal's name with `.dead`
+ * added) for someone to look at, and the writer carries on. Should the
+ * writer thread die anyway, `submit` fails rather than accept forms
+ * nobody will save.
+ * <p>
+ * The queue is bounded; when it's full `submit` refuses the form, and the
+ * caller should ask the client to try again later.
+ * <p>
+ * Once everything in the journal has been saved it is emptied. If the
+ * server stops (or crashes) first, the forms still in the journal are
+ * read by `start` the next time around, and saved by the writer (with the
+ * same retries) before any new ones. Because every form already has its
+ * id, saving one twice just fails with a duplicate key, so replaying forms
+ * that had in fact been saved does no harm.
+ */
+public class RequestFormWriteBehind {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(RequestFormWriteBehind.class);
+
+  private static final ObjectReader FORM_READER = new ObjectMapper().readerFor(RequestForm.class);
+  private static final ObjectWriter FORM_WRITER = new ObjectMapper().writerFor(RequestForm.class);
+
+  // Compact the journal (rather than let it grow) once it's this big and
+  // can't simply be emptied because there are always forms waiting
+  private static final long MAX_JOURNAL_BYTES = 16L * 1024 * 1024;
+  private static final long FIRST_RETRY_DELAY_MILLIS = 100;
+  private static final long MAX_RETRY_DELAY_MILLIS = 5000;
+  private static final long STOP_TIMEOUT_MILLIS = 10_000;
+
+  private final RequestFormRepository requestFormRepository;
+  private final ChangeFeed changeFeed;
+  private final Path journalPath;
+  private final Path deadLetterPath;
+  private final int batchSize;
+  private final long maxDelayMillis;
+  private final BlockingQueue<RequestForm> queue;
+  private final Thread writer;
+  private volatile boolean running = true;
+  private volatile boolean writerStopped;
+  // The forms left in the journal by the last run, which the writer saves
+  // first. Only the writer uses this once it has started.
+  private List<RequestForm> replay = List.of();
+
+  // Guarded by `this`, along with adding to the queue, so that the queue
+  // never holds a form that isn't in the journal.
+  private FileOutputStream journal;
+  private long journalBytes;
+  // The total bytes ever written to the journal (which, unlike
+  // `journalBytes`, never goes down), so that each submission knows how
+  // far the journal has to be synced for its form to be on disk
+  private long writtenBytes;
+
+  // Held while syncing the journal, so only one sync runs at a time
+  private final Object syncLock = new Object();
+  // How much of `writtenBytes` is known to be on disk (or saved)
+  private final AtomicLong syncedBytes = new AtomicLong();
+
+  /**
+   * @param requestFormRepository where to save the request forms
+   * @param changeFeed where to report the forms once they're saved
+   * @param journalPath the file to keep unsaved forms in
+   * @param capacity how many forms can be waiting to be saved at once
+   * @param batchSize the most forms to save in one `insertMany`
+   * @param maxDelayMillis how long to wait for a batch to fill up
+   */
+  public RequestFormWriteBehind(
+    RequestFormRepository requestFormRepository,
+    ChangeFeed changeFeed,
+    Path journalPath,
+    int capacity,
+    int batchSize,
+    long maxDelayMillis) {
+    this.requestFormRepository = requestFormRepository;
+    this.changeFeed = changeFeed;
+    this.journalPath = journalPath;
+    this.deadLetterPath = journalPath.resolveSibling(journalPath.getFileName() + ".dead");
+    this.batchSize = batchSize;
+    this.maxDelayMillis = maxDelayMillis;
+    this.queue = new ArrayBlockingQueue<>(capacity);
+    this.writer = new Thread(this::run, "request-form-writer");
+    this.writer.setDaemon(true);
+  }
+
+  /**
+   * Read any forms left in the journal from the last run, and start saving
+   * them, and then newly submitted forms, in the background. This doesn't
+   * touch the database, so it works even if MongoDB is down.
+   *
+   * @throws IOException if the journal can't be read or opened
+   */
+  public void start() throws IOException {
+    replay = readJournal();
+    // The replayed forms stay in the journal until they've been saved
+    openJournal(true);
+    journalBytes = Files.size(journalPath);
+    writer.start();
+  }
+
+  /**
+   * Stop taking forms, and give the writer a little while to save the
+   * ones already queued. Any it doesn't get to stay in the journal.
+   */
+  public void stop() {
+    running = false;
+    try {
+      writer.join(STOP_TIMEOUT_MILLIS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    synchronized (this) {
+      if (journal != null) {
+        closeJournal();
+      }
+    }
+  }
+
+  /**
+   * Durably record a request form and queue it to be saved.
+   *
+   * @param requestForm the form to save, which must already have its `_id`
+   * @return whether the form was accepted; it's refused if too many forms
+   *   are already waiting to be saved
+   * @throws IllegalStateException if the writer thread has died, so the
+   *   form would never be saved
+   */
+  public boolean submit(RequestForm requestForm) {
+    long position;
+    synchronized (this) {
+      if (writerStopped && running) {
+        throw new IllegalStateException("The request form writer has stopped; forms can't be saved");
+      }
+      if (!running || queue.remainingCapacity() == 0) {
+        return false;
+      }
+      try {
+        byte[] line = journalLine(requestForm);
+        journal.write(line);
+        journalBytes += line.length;
+        writtenBytes += line.length;
+        position = writtenBytes;
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+      // Only this method adds to the queue, and we checked there was room
+      queue.add(requestForm);
+    }
+    try {
+      syncJournal(position);
+    } catch (IOException e) {
+      // The form is queued, so it will most likely be saved anyway
+      throw new UncheckedIOException(e);
+    }
+    return true;
+  }
+
+  /**
+   * Make sure the journal is on disk up to `position`. If another thread is
+   * already syncing, wait for it: its sync may well cover this position
+   * too, and if not, the next sync covers everything written while it ran.
+   */
+  private void syncJournal(long position) throws IOException {
+    synchronized (syncLock) {
+      if (syncedBytes.get() >= position) {
+        return;
+      }
+      FileOutputStream out;
+      long target;
+      synchronized (this) {
+        out = journal;
+        target = writtenBytes;
+      }
+      try {
+        out.getFD().sync();
+      } catch (IOException e) {
+        // The writer may have trimmed (and closed) the journal meanwhile,
+        // which leaves everything written so far saved or on disk. It
+        // trims holding the lock, so once we have it any trim is done.
+        synchronized (this) {
+          if (syncedBytes.get() >= position) {
+            return;
+          }
+        }
+        throw e;
+      }
+      syncedBytes.accumulateAndGet(target, Math::max);
+    }
+  }
+
+  /**
+   * @return how many forms are waiting to be saved
+   */
+  public int pending() {
+    return queue.size();
+  }
+
+  /**
+   * Write the number of forms waiting to be saved, in the Prometheus text
+   * format.
+   *
+   * @param out where to write the metrics
+   */
+  public void writeMetrics(StringBuilder out) {
+    out.append("# HELP request_forms_pending Request forms accepted but not yet saved to the database\n");
+    out.append("# TYPE request_forms_pending gauge\n");
+    ServerMetrics.writeSample(out, "request_forms_pending", "", pending());
+  }
+
+  private void run() {
+    try {
+      if (!replayJournal()) {
+        return;
+      }
+      List<RequestForm> batch = new ArrayList<>(batchSize);
+      while (running || !queue.isEmpty() || !batch.isEmpty()) {
+        try {
+          fillBatch(batch);
+          if (batch.isEmpty()) {
+            continue;
+          }
+          if (!saveWithRetries(batch)) {
+            // We're stopping and the batch still isn't saved; the forms
+            // are safe in the journal.
+            return;
+          }
+          batch.clear();
+          trimJournal();
+        } catch (InterruptedException e) {
+          return;
+        } catch (RuntimeException e) {
+          // Keep going; the batch (if any) is tried again
+          LOGGER.error("Unexpected problem saving request forms; they remain in {}", journalPath, e);
+        }
+      }
+    } finally {
+      writerStopped = true;
+    }
+  }
+
+  /**
+   * Add forms from the queue to the batch until it has `batchSize` forms,
+   * or `maxDelayMillis` after its first form, whichever comes first. If
+   * the queue stays empty for `maxDelayMillis`, the batch is left empty.
+   */
+  private void fillBatch(List<RequestForm> batch) throws InterruptedException {
+    if (batch.isEmpty()) {
+      RequestForm first = queue.poll(maxDelayMillis, TimeUnit.MILLISECONDS);
+      if (first == null) {
+        return;
+      }
+      batch.add(first);
+    }
+    long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(maxDelayMillis);
+    while (batch.size() < batchSize) {
+      queue.drainTo(batch, batchSize - batch.size());
+      long remaining = deadline - System.nanoTime();
+      if (batch.size() == batchSize || remaining <= 0) {
+        return;
+      }
+      RequestForm next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+      if (next == null) {
+        return;
+      }
+      batch.add(next);
+    }
+  }
+
+  /**
+   * Save the forms left in the journal by the last run, in batches, with
+   * the same retries as new forms, and then trim the journal.
+   *
+   * @return whether they were all saved (rather than us stopping first)
+   */
+  private boolean replayJournal() {
+    int replayed = 0;
+    for (int start = 0; start < replay.size(); start += batchSize) {
+      List<RequestForm> batch = replay.subList(start, Math.min(start + batchSize, replay.size()));
+      try {
+        if (!saveWithRetries(batch)) {
+          return false;
+        }
+      } catch (InterruptedException e) {
+        return false;
+      }
+      replayed += batch.size();
+    }
+    if (replayed > 0) {
+      LOGGER.info("Replayed {} request forms from {}", replayed, journalPath);
+    }
+    replay = List.of();
+    trimJournal();
+    return true;
+  }
+
+  /**
+   * Save a batch of forms, retrying for as long as MongoDB can't be
+   * reached (unless we're stopping). If it fails for any other reason the
+   * batch is split up, so one bad form doesn't hold up the rest.
+   *
+   * @return whether the batch was saved (or dead-lettered)
+   */
+  private boolean saveWithRetries(List<RequestForm> batch) throws InterruptedException {
+    long delay = FIRST_RETRY_DELAY_MILLIS;
+    while (true) {
+      try {
+        save(batch);
+        return true;
+      } catch (RuntimeException e) {
+        if (!isTransient(e)) {
+          return saveSeparately(batch, e);
+        }
+        if (!running) {
+          return false;
+        }
+        LOGGER.warn("Couldn't save {} request forms; retrying in {} ms", batch.size(), delay, e);
+        Thread.sleep(delay);
+        delay = Math.min(delay * 2, MAX_RETRY_DELAY_MILLIS);
+      }
+    }
+  }
+
+  /**
+   * Save the two halves of a batch that couldn't be saved as a whole, or,
+   * if it's a single form, give up on it and move it to the dead-letter
+   * file.
+   *
+   * @return whether the forms were all saved (or dead-lettered)
+   */
+  private boolean saveSeparately(List<RequestForm> batch, RuntimeException failure) throws InterruptedException {
+    if (batch.size() == 1) {
+      deadLetter(batch.get(0), failure);
+      return true;
+    }
+    int half = batch.size() / 2;
+    return saveWithRetries(batch.subList(0, half)) && saveWithRetries(batch.subList(half, batch.size()));
+  }
+
+  /**
+   * Append a form that can't be saved to the dead-letter file. If even
+   * that fails, the form is logged in full, so it isn't lost entirely.
+   */
+  private void deadLetter(RequestForm requestForm, RuntimeException failure) {
+    try {
+      byte[] line = journalLine(requestForm);
+      try {
+        Files.write(deadLetterPath, line, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        LOGGER.error("Couldn't save request form {}; moved it to {}", requestForm._id, deadLetterPath, failure);
+      } catch (IOException e) {
+        LOGGER.error("Couldn't save request form {}, nor write it to {}: {}",
+          requestForm._id, deadLetterPath, new String(line, StandardCharsets.UTF_8).trim(), failure);
+      }
+    } catch (JsonProcessingException e) {
+      // It was written to the journal the same way, so this can't happen
+      LOGGER.error("Couldn't save request form {}", requestForm._id, failure);
+    }
+  }
+
+  /**
+   * @return whether saving might work if we try again: MongoDB couldn't be
+   *   reached, didn't answer in time, or was between primaries
+   */
+  static boolean isTransient(RuntimeException e) {
+    return e instanceof MongoSocketException
+      || e instanceof MongoTimeoutException
+      || e instanceof MongoNotPrimaryException
+      || e instanceof MongoNodeIsRecoveringException;
+  }
+
+  private void save(List<RequestForm> batch) {
+    List<String> errors = requestFormRepository.insertMany(batch);
+    for (int i = 0; i < batch.size(); i++) {
+      if (errors.get(i) == null) {
+        changeFeed.localChange(ChangeEvent.inserted(ChangeEvent.REQUEST_FORMS, batch.get(i)._id));
+      } else {
+        // Most likely a form replayed from the journal that had in fact
+        // been saved, or a retry whose idempotency key another server
+        // saved first; either way, trying again won't help.
+        LOGGER.warn("Request form {} wasn't saved: {}", batch.get(i)._id, errors.get(i));
+      }
+    }
+  }
+
+  /**
+   * Keep the journal from growing forever: empty it if every form in it
+   * has been saved, or rewrite it with just the waiting forms if it's
+   * getting big. Only the writer thread calls this, once the forms it took
+   * off the queue are saved, so no form is halfway through being saved.
+   * Either way, every form written to the journal so far ends up saved or
+   * in a synced file.
+   */
+  private synchronized void trimJournal() {
+    try {
+      rewriteJournal();
+    } catch (IOException e) {
+      // Everything's still in the journal, so this only costs disk space
+      LOGGER.warn("Couldn't trim {}", journalPath, e);
+    }
+  }
+
+  /**
+   * Empty or compact the journal, if it needs it. Either way, everything
+   * written so far is marked as synced before the old journal is closed,
+   * so a submission whose sync fails because of the close knows its form
+   * is safe.
+   */
+  private void rewriteJournal() throws IOException {
+    if (queue.isEmpty()) {
+      // Everything written so far has been saved
+      syncedBytes.accumulateAndGet(writtenBytes, Math::max);
+      closeJournal();
+      openJournal(false);
+      journalBytes = 0;
+    } else if (journalBytes > MAX_JOURNAL_BYTES) {
+      Path compacted = journalPath.resolveSibling(journalPath.getFileName() + ".tmp");
+      long bytes = 0;
+      try (FileOutputStream out = new FileOutputStream(compacted.toFile())) {
+        for (RequestForm requestForm : queue) {
+          byte[] line = journalLine(requestForm);
+          out.write(line);
+          bytes += line.length;
+        }
+        out.getFD().sync();
+      }
+      // Everything written so far has been saved or is in the compacted file
+      syncedBytes.accumulateAndGet(writtenBytes, Math::max);
+      closeJournal();
+      Files.move(compacted, journalPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      openJournal(true);
+      journalBytes = bytes;
+    }
+  }
+
+  /**
+   * Read whatever was left in the journal by the last run. A crash can
+   * leave a partly written last line, which is skipped.
+   */
+  private List<RequestForm> readJournal() throws IOException {
+    List<RequestForm> forms = new ArrayList<>();
+    if (!Files.exists(journalPath)) {
+      return forms;
+    }
+    try (BufferedReader reader = Files.newBufferedReader(journalPath, StandardCharsets.UTF_8)) {
+      String line = reader.readLine();
+      while (line != null) {
+        try {
+          if (!line.isBlank()) {
+            forms.add(FORM_READER.readValue(line));
+          }
+        } catch (JsonProcessingException e) {
+          LOGGER.warn("Skipping unreadable line in {}: {}", journalPath, e.getOriginalMessage());
+        }
+        line = reader.readLine();
+      }
+    }
+    return forms;
+  }
+
+  private void openJournal(boolean append) throws IOException {
+    journal = new FileOutputStream(journalPath.toFile(), append);
+  }
+
+  private void closeJournal() {
+    try {
+      journal.close();
+    } catch (IOException e) {
+      LOGGER.warn("Couldn't close {}", journalPath, e);
+    }
+  }
+
+  /**
+   * @return the form as a line of the journal
+   */
+  static byte[] journalLine(RequestForm requestForm) throws JsonProcessingException {
+    String json = FORM_WRITER.writeValueAsString(requestForm);
+    return (json + "\n").getBytes(StandardCharsets.UTF_8);
+  }
+}
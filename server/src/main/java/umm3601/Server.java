@@ -1,6 +1,17 @@
 package umm3601;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.time.Duration;
 import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 import com.mongodb.MongoClientSettings;
 import com.mongodb.ServerAddress;
@@ -9,61 +20,382 @@ import com.mongodb.client.MongoClients;
 import com.mongodb.client.MongoDatabase;
 
 import org.bson.UuidRepresentation;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import io.javalin.Javalin;
 import io.javalin.plugin.bundled.RouteOverviewPlugin;
+import umm3601.RequestForm.InMemoryRequestFormRepository;
+import umm3601.RequestForm.MongoRequestFormRepository;
+import umm3601.RequestForm.RequestFormController;
+import umm3601.RequestForm.RequestFormDeduplicator;
+import umm3601.RequestForm.RequestFormRepository;
+import umm3601.RequestForm.RequestFormWriteBehind;
+import umm3601.events.ChangeEvent;
+import umm3601.events.ChangeFeed;
+import umm3601.events.EventsController;
+import umm3601.events.MongoChangeWatcher;
 import umm3601.fsclient.FsclientController;
+import umm3601.fsclient.FsclientRepository;
+import umm3601.fsclient.InMemoryFsclientRepository;
+import umm3601.fsclient.MongoFsclientRepository;
+import umm3601.limits.MongoLatencyMonitor;
+import umm3601.limits.TrustedProxies;
+import umm3601.limits.WriteLimiter;
+import umm3601.metrics.ServerMetrics;
 import io.javalin.http.InternalServerErrorResponse;
 
 public class Server {
 
   private static final int SERVER_PORT = 4567;
 
+  // A middle-of-the-road gzip level: most of the size reduction of the
+  // higher levels, for a fraction of the CPU time.
+  private static final int GZIP_LEVEL = 6;
+
+  // How often to send a comment down idle event streams, so that proxies
+  // don't close them
+  private static final long HEARTBEAT_SECONDS = 15;
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(Server.class);
+
+  // The MongoDB driver's own defaults for the connection pool
+  private static final int DEFAULT_MONGO_MAX_POOL_SIZE = 100;
+  private static final int DEFAULT_MONGO_MAX_WAIT_MS = 120_000;
+
+  // Each client can make 10 writes a second, in bursts of up to 20, and
+  // we stop taking writes while MongoDB takes over half a second to answer
+  private static final int DEFAULT_RATE_LIMIT_PER_SECOND = 10;
+  private static final int DEFAULT_RATE_LIMIT_BURST = 20;
+  private static final int DEFAULT_MONGO_LATENCY_LIMIT_MS = 500;
+  // A POST that only reads, so it isn't limited like the writes
+  private static final String FSCLIENTS_BATCH_GET_PATH = "/api/fsclients/batch-get";
+
+  // Request forms saved in the background are saved in batches of up to
+  // 500, at most 200ms after they arrive, with up to 10,000 waiting
+  private static final int DEFAULT_WRITE_BEHIND_QUEUE_SIZE = 10_000;
+  private static final int DEFAULT_WRITE_BEHIND_BATCH_SIZE = 500;
+  private static final int DEFAULT_WRITE_BEHIND_MAX_DELAY_MS = 200;
+
+  // Each server remembers idempotency keys for a day, and a request form
+  // with the same name and foods as one from the last 10 seconds is a
+  // duplicate. Up to 100,000 of each are kept in memory.
+  private static final int DEFAULT_IDEMPOTENCY_KEY_TTL_HOURS = 24;
+  private static final int DEFAULT_DUPLICATE_WINDOW_SECONDS = 10;
+  private static final int MAX_RECENT_SUBMISSIONS = 100_000;
+
   public static void main(String[] args) {
 
-    // Get the MongoDB address and database name from environment variables and
-    // if they aren't set, use the defaults of "localhost" and "dev".
-    String mongoAddr = System.getenv().getOrDefault("MONGO_ADDR", "localhost");
+    // Where to keep the fsclients and request forms: "mongo" (the default)
+    // or "memory", which needs no database at all, but forgets everything
+    // when the server stops. That's handy for load testing the HTTP side
+    // of the server on its own, and for tests that shouldn't need MongoDB.
+    String storage = System.getenv().getOrDefault("STORAGE", "mongo");
+    if (!storage.equals("mongo") && !storage.equals("memory")) {
+      throw new IllegalArgumentException("STORAGE must be `mongo` or `memory`, not " + storage);
+    }
+
+    // Get the database name from an environment variable and if it isn't
+    // set, use the default of "dev".
     String databaseName = System.getenv().getOrDefault("MONGO_DB", "dev");
 
-    // Setup the MongoDB client object with the information we set earlier
-    MongoClient mongoClient
-      = MongoClients.create(MongoClientSettings
-        .builder()
-        .applyToClusterSettings(builder -> builder.hosts(Arrays.asList(new ServerAddress(mongoAddr))))
-        // Old versions of the mongodb-driver-sync package encoded UUID values (universally unique identifiers) in
-        // a non-standard way. This option says to use the standard encoding.
-        // See: https://studio3t.com/knowledge-base/articles/mongodb-best-practices-uuid-data/
-        .uuidRepresentation(UuidRepresentation.STANDARD)
-        .build());
+    // Connection pool sizing. Every request handler blocks on a connection
+    // while it talks to Mongo, so the pool needs to be big enough for the
+    // number of requests we expect to have in flight at once.
+    int maxPoolSize = intEnv("MONGO_MAX_POOL_SIZE", DEFAULT_MONGO_MAX_POOL_SIZE);
+
+    // If `VIRTUAL_THREADS` is "true" every request is handled on its own
+    // virtual thread rather than on Jetty's fixed pool of platform threads.
+    boolean useVirtualThreads = Boolean.parseBoolean(System.getenv("VIRTUAL_THREADS"));
+
+    // Request, MongoDB, and JVM metrics, served from `/metrics`
+    ServerMetrics metrics = new ServerMetrics();
+    MongoLatencyMonitor mongoLatency = new MongoLatencyMonitor();
+    WriteLimiter writeLimiter = writeLimiter(maxPoolSize, mongoLatency);
+    metrics.addCollector(writeLimiter::writeMetrics);
+
+    // Setup the MongoDB client object (unless we're keeping everything in memory)
+    MongoClient mongoClient = storage.equals("memory") ? null : mongoClient(maxPoolSize, metrics, mongoLatency);
 
     // Get the database
-    MongoDatabase database = mongoClient.getDatabase(databaseName);
+    MongoDatabase database = mongoClient == null ? null : mongoClient.getDatabase(databaseName);
+
+    Executor databaseExecutor = databaseExecutor(maxPoolSize, useVirtualThreads);
+
+    // Changes to the fsclients and request forms, whether made by us or
+    // anyone else, are published on the change feed. A single watcher
+    // follows the database's change stream (or polls it, if it can't) for
+    // everyone, and the events controller pushes the changes to browsers.
+    // (Without a database, all the changes are our own.)
+    ChangeFeed changeFeed = new ChangeFeed();
+    MongoChangeWatcher changeWatcher = database == null
+      ? null
+      : new MongoChangeWatcher(database, changeFeed, List.of(ChangeEvent.FSCLIENTS, ChangeEvent.REQUEST_FORMS));
+    ExecutorService eventSenders = Executors.newVirtualThreadPerTaskExecutor();
+    ScheduledExecutorService heartbeats = Executors.newSingleThreadScheduledExecutor();
+    EventsController eventsController = new EventsController(eventSenders);
 
     // Initialize dependencies
-    FsclientController fsclientController = new FsclientController(database);
+    FsclientRepository fsclientRepository = database == null
+      ? new InMemoryFsclientRepository()
+      : new MongoFsclientRepository(database);
+    RequestFormRepository requestFormRepository = database == null
+      ? new InMemoryRequestFormRepository()
+      : new MongoRequestFormRepository(database);
+    FsclientController fsclientController
+      = new FsclientController(fsclientRepository, databaseExecutor, changeFeed);
+    RequestFormWriteBehind writeBehind = writeBehind(requestFormRepository, changeFeed, metrics);
+    RequestFormDeduplicator deduplicator = deduplicator(metrics);
+    RequestFormController requestFormController
+      = new RequestFormController(requestFormRepository, databaseExecutor, changeFeed, writeBehind, deduplicator);
+    changeFeed.addListener(fsclientController::changed);
+    changeFeed.addListener(requestFormController::changed);
+    changeFeed.addListener(eventsController::publish);
 
-    Javalin server = Javalin.create(config ->
-      config.plugins.register(new RouteOverviewPlugin("/api"))
-    );
+    // Make sure the indexes our queries rely on exist (and the in-memory
+    // search index is loaded) before we start handling requests
+    fsclientRepository.ensureIndexes();
+    requestFormRepository.ensureIndexes();
+    fsclientController.buildSearchIndex();
+
+    // Save any request forms left over from the last run before taking new ones
+    if (writeBehind != null) {
+      try {
+        writeBehind.start();
+      } catch (IOException e) {
+        throw new UncheckedIOException("Couldn't open the request form journal", e);
+      }
+    }
+
+    Javalin server = createServer(useVirtualThreads);
     /*
      * We want to shut the `mongoClient` down if the server either
      * fails to start, or when it's shutting down for whatever reason.
      * Since the mongClient needs to be available throughout the
      * life of the server, the only way to do this is to wait for
-     * these events and close it then.
+     * these events and close it then. The same goes for the threads
+     * of the database executor, if it has any.
      */
     server.events(event -> {
-      event.serverStartFailed(mongoClient::close);
-      event.serverStopped(mongoClient::close);
+      // Give the background writer a chance to save its last forms
+      // before the database connection goes away
+      if (writeBehind != null) {
+        event.serverStartFailed(writeBehind::stop);
+        event.serverStopped(writeBehind::stop);
+      }
+      if (mongoClient != null) {
+        event.serverStartFailed(mongoClient::close);
+        event.serverStopped(mongoClient::close);
+        event.serverStopped(changeWatcher::stop);
+      }
+      if (databaseExecutor instanceof ExecutorService) {
+        event.serverStopped(((ExecutorService) databaseExecutor)::shutdown);
+      }
+      event.serverStopped(heartbeats::shutdown);
+      event.serverStopped(eventSenders::shutdown);
     });
     Runtime.getRuntime().addShutdownHook(new Thread(server::stop));
 
     server.start(SERVER_PORT);
 
+    if (changeWatcher != null) {
+      changeWatcher.start();
+    }
+    heartbeats.scheduleAtFixedRate(
+      eventsController::heartbeat, HEARTBEAT_SECONDS, HEARTBEAT_SECONDS, TimeUnit.SECONDS);
+
+    addMetricsRoutes(server, metrics);
+
+    // Turn away writes when a client is sending too many of them, or the
+    // server or database is too busy to take them on. (This comes after
+    // the metrics, so refused requests are still timed and counted.)
+    server.before("/api/*", writeLimiter::before);
+    server.after("/api/*", writeLimiter::after);
+
+    addFsclientRoutes(server, fsclientController);
+    addEventRoutes(server, eventsController);
+    addRequestFormRoutes(server, requestFormController);
+
+    // This catches any uncaught exceptions thrown in the server
+    // code and turns them into a 500 response ("Internal Server
+    // Error Response"). In general you'll like to *never* actually
+    // return this, as it's an instance of the server crashing in
+    // some way, and returning a 500 to your fsclient is *super*
+    // unhelpful to them. So we log (and count) every error caught
+    // here so we know about them and can try to address them.
+    server.exception(Exception.class, (e, ctx) -> {
+      metrics.exceptionThrown(e);
+      LOGGER.error("Uncaught exception handling {} {}", ctx.method(), ctx.path(), e);
+      throw new InternalServerErrorResponse(e.toString());
+    });
+  }
+
+  /**
+   * Create the MongoDB client, with its connection pool sized from the
+   * environment and every command timed.
+   *
+   * @param maxPoolSize the most connections to have open to the database
+   * @param metrics where to record how long each command takes
+   * @param mongoLatency what keeps track of how quickly the database is answering
+   * @return the MongoDB client
+   */
+  private static MongoClient mongoClient(int maxPoolSize, ServerMetrics metrics, MongoLatencyMonitor mongoLatency) {
+    // Get the MongoDB address from an environment variable and if it
+    // isn't set, use the default of "localhost".
+    String mongoAddr = System.getenv().getOrDefault("MONGO_ADDR", "localhost");
+    int minPoolSize = intEnv("MONGO_MIN_POOL_SIZE", 0);
+    int maxWaitMillis = intEnv("MONGO_MAX_WAIT_MS", DEFAULT_MONGO_MAX_WAIT_MS);
+
+    return MongoClients.create(MongoClientSettings
+      .builder()
+      .applyToClusterSettings(builder -> builder.hosts(Arrays.asList(new ServerAddress(mongoAddr))))
+      .applyToConnectionPoolSettings(builder -> builder
+        .maxSize(maxPoolSize)
+        .minSize(minPoolSize)
+        .maxWaitTime(maxWaitMillis, TimeUnit.MILLISECONDS))
+      // Old versions of the mongodb-driver-sync package encoded UUID values (universally unique identifiers) in
+      // a non-standard way. This option says to use the standard encoding.
+      // See: https://studio3t.com/knowledge-base/articles/mongodb-best-practices-uuid-data/
+      .uuidRepresentation(UuidRepresentation.STANDARD)
+      // Time every command sent to the database
+      .addCommandListener(metrics.mongoCommandListener())
+      // and keep track of how quickly it's answering, to know when to
+      // stop taking writes
+      .addCommandListener(mongoLatency)
+      .build());
+  }
+
+  /**
+   * Choose where the controllers run their database calls.
+   *
+   * By default ("async") they run on a separate executor, so a request
+   * thread isn't tied up waiting on Mongo. Setting `DATABASE_ACCESS` to
+   * "sync" runs them on the request thread instead, which is handy for
+   * comparing the two.
+   *
+   * @param maxPoolSize the most connections to have open to the database
+   * @param useVirtualThreads whether to run each call on its own virtual thread
+   * @return the executor for database calls
+   */
+  private static Executor databaseExecutor(int maxPoolSize, boolean useVirtualThreads) {
+    String databaseAccess = System.getenv().getOrDefault("DATABASE_ACCESS", "async");
+    if (!databaseAccess.equals("async") && !databaseAccess.equals("sync")) {
+      throw new IllegalArgumentException("DATABASE_ACCESS must be `async` or `sync`, not " + databaseAccess);
+    }
+    // There's no point in having more threads waiting on Mongo than there are
+    // connections for them to use, so the database executor (unless it's using
+    // virtual threads) is the same size as the connection pool.
+    if (databaseAccess.equals("sync")) {
+      return Runnable::run;
+    } else if (useVirtualThreads) {
+      return Executors.newVirtualThreadPerTaskExecutor();
+    } else {
+      return Executors.newFixedThreadPool(maxPoolSize);
+    }
+  }
+
+  /**
+   * Create the limits on writes, so that a burst of them is turned away
+   * quickly rather than overwhelming the database. By default there can be
+   * as many writes in flight as there are connections to the database.
+   *
+   * @param maxPoolSize the most connections to have open to the database
+   * @param mongoLatency what keeps track of how quickly the database is answering
+   * @return the write limiter
+   */
+  private static WriteLimiter writeLimiter(int maxPoolSize, MongoLatencyMonitor mongoLatency) {
+    int rateLimitPerSecond = intEnv("RATE_LIMIT_PER_SECOND", DEFAULT_RATE_LIMIT_PER_SECOND);
+    int rateLimitBurst = intEnv("RATE_LIMIT_BURST", DEFAULT_RATE_LIMIT_BURST);
+    int maxConcurrentWrites = intEnv("MAX_CONCURRENT_WRITES", maxPoolSize);
+    int mongoLatencyLimitMillis = intEnv("MONGO_LATENCY_LIMIT_MS", DEFAULT_MONGO_LATENCY_LIMIT_MS);
+    // Behind a reverse proxy, the clients' addresses come from the proxy's
+    // `X-Forwarded-For` header, so that each client has its own rate limit
+    TrustedProxies trustedProxies = TrustedProxies.parse(System.getenv("TRUSTED_PROXIES"));
+
+    return new WriteLimiter(
+      rateLimitPerSecond, rateLimitBurst, maxConcurrentWrites, mongoLatencyLimitMillis, mongoLatency,
+      trustedProxies, Set.of(FSCLIENTS_BATCH_GET_PATH));
+  }
+
+  /**
+   * If `REQUEST_FORM_WRITE_BEHIND` is "true" new request forms are
+   * acknowledged right away and saved in batches in the background,
+   * with a journal file so they aren't lost if the server stops first.
+   *
+   * @param requestFormRepository where the request forms are saved
+   * @param changeFeed where to publish the saved forms
+   * @param metrics where to report the writer's queue
+   * @return the background writer, or null if request forms are saved as they arrive
+   */
+  private static RequestFormWriteBehind writeBehind(
+      RequestFormRepository requestFormRepository, ChangeFeed changeFeed, ServerMetrics metrics) {
+    if (!Boolean.parseBoolean(System.getenv("REQUEST_FORM_WRITE_BEHIND"))) {
+      return null;
+    }
+    RequestFormWriteBehind writeBehind = new RequestFormWriteBehind(
+      requestFormRepository,
+      changeFeed,
+      Path.of(System.getenv().getOrDefault("WRITE_BEHIND_JOURNAL", "request-forms.journal")),
+      intEnv("WRITE_BEHIND_QUEUE_SIZE", DEFAULT_WRITE_BEHIND_QUEUE_SIZE),
+      intEnv("WRITE_BEHIND_BATCH_SIZE", DEFAULT_WRITE_BEHIND_BATCH_SIZE),
+      intEnv("WRITE_BEHIND_MAX_DELAY_MS", DEFAULT_WRITE_BEHIND_MAX_DELAY_MS));
+    metrics.addCollector(writeBehind::writeMetrics);
+    return writeBehind;
+  }
+
+  /**
+   * Retries of a submission (with the same `Idempotency-Key` header) and
+   * quick resubmissions of the same form are only saved once. The keys
+   * are also saved with the forms, so retries to other servers are caught.
+   *
+   * @param metrics where to report how many duplicates were caught
+   * @return the request form deduplicator
+   */
+  private static RequestFormDeduplicator deduplicator(ServerMetrics metrics) {
+    RequestFormDeduplicator deduplicator = new RequestFormDeduplicator(
+      Duration.ofHours(intEnv("IDEMPOTENCY_KEY_TTL_HOURS", DEFAULT_IDEMPOTENCY_KEY_TTL_HOURS)),
+      Duration.ofSeconds(intEnv("DUPLICATE_WINDOW_SECONDS", DEFAULT_DUPLICATE_WINDOW_SECONDS)),
+      MAX_RECENT_SUBMISSIONS);
+    metrics.addCollector(deduplicator::writeMetrics);
+    return deduplicator;
+  }
+
+  private static Javalin createServer(boolean useVirtualThreads) {
+    return Javalin.create(config -> {
+      config.plugins.register(new RouteOverviewPlugin("/api"));
+      // Gzip responses for clients that accept it. Javalin leaves small
+      // responses (under 1500 bytes) alone, since compressing them doesn't
+      // save anything. (Brotli would need a native library, so we don't
+      // offer it.)
+      config.compression.gzipOnly(GZIP_LEVEL);
+      if (useVirtualThreads) {
+        config.jetty.server(() -> new org.eclipse.jetty.server.Server(new VirtualThreadPool()));
+      }
+    });
+  }
+
+  private static void addMetricsRoutes(Javalin server, ServerMetrics metrics) {
+    // Time every request, and count the responses by status code
+    server.before(metrics::requestStarted);
+    server.after(metrics::requestFinished);
+
+    // Get the server's metrics in the Prometheus text format
+    server.get("/metrics", metrics::getMetrics);
+  }
+
+  private static void addFsclientRoutes(Javalin server, FsclientController fsclientController) {
     // List fsclients, filtered using query parameters
     server.get("/api/fsclients", fsclientController::getFsclients);
 
+    // Search fsclients by name, company, and email, as the user types
+    server.get("/api/fsclients/search", fsclientController::searchFsclients);
+
+    // Count the fsclients by role, company, and age band, for reports
+    server.get("/api/fsclients/stats", fsclientController::getFsclientStats);
+
+    // Get the hit/miss/eviction counts for the single fsclient cache
+    server.get("/api/fsclients/cache/stats", fsclientController::getFsclientCacheStats);
+
     // Get the specified fsclient
     server.get("/api/fsclients/{id}", fsclientController::getFsclient);
 
@@ -74,17 +406,57 @@ public class Server {
     // of the HTTP request
     server.post("/api/fsclients", fsclientController::addNewFsclient);
 
-    // This catches any uncaught exceptions thrown in the server
-    // code and turns them into a 500 response ("Internal Server
-    // Error Response"). In general you'll like to *never* actually
-    // return this, as it's an instance of the server crashing in
-    // some way, and returning a 500 to your fsclient is *super*
-    // unhelpful to them. In a production system you'd almost
-    // certainly want to use a logging library to log all errors
-    // caught here so you'd know about them and could try to address
-    // them.
-    server.exception(Exception.class, (e, ctx) -> {
-      throw new InternalServerErrorResponse(e.toString());
-    });
+    // Get or delete several fsclients at once, with their ids in the JSON
+    // body of the HTTP request
+    server.post(FSCLIENTS_BATCH_GET_PATH, fsclientController::getFsclientsByIds);
+    server.post("/api/fsclients/batch-delete", fsclientController::deleteFsclientsByIds);
+  }
+
+  private static void addEventRoutes(Javalin server, EventsController eventsController) {
+    // Stream fsclient and request form inserts and deletes as Server-Sent
+    // Events, optionally only those for one `collection`
+    server.before("/api/events", eventsController::checkSubscription);
+    server.sse("/api/events", eventsController::subscribe);
+  }
+
+  private static void addRequestFormRoutes(Javalin server, RequestFormController requestFormController) {
+    // List request forms, filtered using query parameters
+    server.get("/api/requestform", requestFormController::getRequestForms);
+
+    // Get the number of request forms asking for each food
+    server.get("/api/requestform/demand", requestFormController::getFoodDemand);
+
+    // Recompute the food demand counts from all the request forms
+    server.post("/api/requestform/demand/rebuild", requestFormController::rebuildFoodDemand);
+
+    // Get the specified request form
+    server.get("/api/requestform/{id}", requestFormController::getRequestForm);
+
+    // Add a new request form with the request form info being in the JSON body
+    // of the HTTP request
+    server.post("/api/requestform", requestFormController::addNewRequestForms);
+
+    // Add many request forms at once, with the body being a JSON array or
+    // newline delimited JSON of request forms
+    server.post("/api/requestform/bulk", requestFormController::addNewRequestFormsInBulk);
+  }
+
+  /**
+   * Read an integer setting from an environment variable.
+   *
+   * @param name the name of the environment variable
+   * @param defaultValue the value to use if the variable isn't set
+   * @return the value of the variable, or the default
+   */
+  private static int intEnv(String name, int defaultValue) {
+    String value = System.getenv(name);
+    if (value == null) {
+      return defaultValue;
+    }
+    try {
+      return Integer.parseInt(value.trim());
+    } catch (NumberFormatException e) {
+      throw new IllegalArgumentException("The environment variable " + name + " must be a number, not " + value, e);
+    }
   }
 }
@@ -0,0 +1,59 @@
+package umm3601;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jetty.util.component.AbstractLifeCycle;
+import org.eclipse.jetty.util.thread.ThreadPool;
+
+/**
+ * A Jetty thread pool that runs every task (and so every request) on its
+ * own virtual thread.
+ * <p>
+ * Our request handlers spend most of their time blocked waiting on MongoDB.
+ * With a normal, fixed size, pool of platform threads a burst of slow database
+ * calls can tie up every thread, and then new requests just wait in line.
+ * Virtual threads are cheap enough that we can have one per request, and a
+ * virtual thread that blocks on I/O gives its carrier thread back for
+ * other work.
+ */
+public class VirtualThreadPool extends AbstractLifeCycle implements ThreadPool {
+
+  private final ExecutorService executor = Executors.newThreadPerTaskExecutor(
+    Thread.ofVirtual().name("javalin-virtual-", 0).factory());
+
+  @Override
+  public void execute(Runnable task) {
+    executor.execute(task);
+  }
+
+  @Override
+  public void join() throws InterruptedException {
+    executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+  }
+
+  // Virtual threads are created on demand, so there's never a pool of
+  // idle threads, and we never run low on them.
+
+  @Override
+  public int getThreads() {
+    return 0;
+  }
+
+  @Override
+  public int getIdleThreads() {
+    return 0;
+  }
+
+  @Override
+  public boolean isLowOnThreads() {
+    return false;
+  }
+
+  @Override
+  protected void doStop() throws Exception {
+    executor.shutdown();
+    super.doStop();
+  }
+}
@@ -0,0 +1,76 @@
+package umm3601.events;
+
+/**
+ * A document being added to or deleted from one of our collections, or a
+ * note that any number of changes to a collection may have been missed
+ * (`RESYNC`), so anything cached from it should be reloaded.
+ * <p>
+ * The JSON form of the event is built once, when the event is created,
+ * so sending it to hundreds of subscribers doesn't serialize it hundreds
+ * of times.
+ */
+public final class ChangeEvent {
+
+  // These are the same as the names of the MongoDB collections, so that
+  // events from a change stream can use them directly.
+  public static final String FSCLIENTS = "fsclients";
+  public static final String REQUEST_FORMS = "requestForm";
+
+  public static final String INSERT = "insert";
+  public static final String DELETE = "delete";
+  public static final String RESYNC = "resync";
+
+  private final String collection;
+  private final String operation;
+  private final String id;
+  private final String json;
+
+  /**
+   * @param collection the collection that changed (`FSCLIENTS` or `REQUEST_FORMS`)
+   * @param operation what happened (`INSERT`, `DELETE`, or `RESYNC`)
+   * @param id the `_id` of the document that was added or deleted, or
+   *   empty for a `RESYNC`
+   */
+  public ChangeEvent(String collection, String operation, String id) {
+    this.collection = collection;
+    this.operation = operation;
+    this.id = id;
+    // None of these can contain characters that need escaping in JSON:
+    // the collection and operation are our own constants, and the id is
+    // a hex ObjectId.
+    this.json = "{\"collection\":\"" + collection + "\",\"operation\":\"" + operation
+      + "\",\"id\":\"" + id + "\"}";
+  }
+
+  public static ChangeEvent inserted(String collection, String id) {
+    return new ChangeEvent(collection, INSERT, id);
+  }
+
+  public static ChangeEvent deleted(String collection, String id) {
+    return new ChangeEvent(collection, DELETE, id);
+  }
+
+  public static ChangeEvent resync(String collection) {
+    return new ChangeEvent(collection, RESYNC, "");
+  }
+
+  public String collection() {
+    return collection;
+  }
+
+  public String operation() {
+    return operation;
+  }
+
+  public String id() {
+    return id;
+  }
+
+  /**
+   * @return the event as a JSON object with `collection`, `operation`,
+   *   and `id` fields
+   */
+  public String json() {
+    return json;
+  }
+}
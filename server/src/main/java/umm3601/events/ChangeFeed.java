@@ -0,0 +1,99 @@
+package umm3601.events;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+import umm3601.util.ExpiringLruCache;
+
+/**
+ * The single place that changes to our collections are published from,
+ * whether they were seen on a MongoDB change stream or made by this
+ * server.
+ * <p>
+ * The controllers report every write they make with `localChange`. When a
+ * `MongoChangeWatcher` is following a change stream, those writes (and
+ * everyone else's) come back on the stream, so the local reports are
+ * ignored. Otherwise (standalone MongoDB, or no MongoDB at all) the local
+ * reports are published directly, and the watcher, if there is one, only
+ * adds inserts that it finds by polling and that weren't already
+ * reported locally.
+ * <p>
+ * Listeners are called on the thread that published the event, so they
+ * need to be quick and must not block.
+ */
+public class ChangeFeed {
+
+  // Long enough for the poller to find any insert we've already reported
+  private static final int RECENT_INSERTS_SIZE = 10_000;
+  private static final Duration RECENT_INSERTS_TTL = Duration.ofMinutes(1);
+
+  private final List<Consumer<ChangeEvent>> listeners = new CopyOnWriteArrayList<>();
+  private final ExpiringLruCache<String, Boolean> recentLocalInserts
+    = new ExpiringLruCache<>(RECENT_INSERTS_SIZE, RECENT_INSERTS_TTL);
+  private volatile boolean streaming;
+
+  /**
+   * @param listener called with every change event
+   */
+  public void addListener(Consumer<ChangeEvent> listener) {
+    listeners.add(listener);
+  }
+
+  /**
+   * Report a write made by this server.
+   *
+   * @param event the change that was made
+   */
+  public void localChange(ChangeEvent event) {
+    if (streaming) {
+      return;
+    }
+    if (event.operation().equals(ChangeEvent.INSERT)) {
+      recentLocalInserts.put(event.id(), Boolean.TRUE);
+    }
+    publish(event);
+  }
+
+  /**
+   * @return whether changes are coming from a MongoDB change stream
+   */
+  public boolean isStreaming() {
+    return streaming;
+  }
+
+  void setStreaming(boolean streaming) {
+    this.streaming = streaming;
+  }
+
+  /**
+   * Publish a change seen on a change stream.
+   */
+  void streamedChange(ChangeEvent event) {
+    publish(event);
+  }
+
+  /**
+   * Publish that changes to a collection may have been missed.
+   */
+  void resync(String collection) {
+    publish(ChangeEvent.resync(collection));
+  }
+
+  /**
+   * Publish an insert found by polling, unless it was already reported
+   * locally.
+   */
+  void polledInsert(ChangeEvent event) {
+    if (recentLocalInserts.get(event.id()) == null) {
+      publish(event);
+    }
+  }
+
+  private void publish(ChangeEvent event) {
+    for (Consumer<ChangeEvent> listener : listeners) {
+      listener.accept(event);
+    }
+  }
+}
@@ -0,0 +1,155 @@
+package umm3601.events;
+
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import io.javalin.http.BadRequestResponse;
+import io.javalin.http.Context;
+import io.javalin.http.sse.SseClient;
+
+/**
+ * Pushes changes to fsclients and request forms to browsers as
+ * Server-Sent Events, so that they don't have to poll for them.
+ * <p>
+ * Every subscriber gets its own small buffer of events, which is drained
+ * by a task on the `senderExecutor`, so a slow client never holds up the
+ * `ChangeFeed` or the other clients. If a client falls so far behind that
+ * its buffer fills, the buffered events are dropped and it is sent a
+ * single `resync` event instead, telling it to reload what it's showing.
+ */
+public class EventsController {
+
+  static final String COLLECTION_KEY = "collection";
+  static final String RESYNC_EVENT = ChangeEvent.RESYNC;
+
+  private static final int SUBSCRIBER_BUFFER_SIZE = 256;
+  private static final Set<String> COLLECTIONS = Set.of(ChangeEvent.FSCLIENTS, ChangeEvent.REQUEST_FORMS);
+
+  // Markers put in a subscriber's buffer alongside the real events
+  private static final ChangeEvent RESYNC = new ChangeEvent("", RESYNC_EVENT, "");
+  private static final ChangeEvent HEARTBEAT = new ChangeEvent("", "heartbeat", "");
+
+  private final Set<Subscriber> subscribers = ConcurrentHashMap.newKeySet();
+  private final Executor senderExecutor;
+
+  /**
+   * @param senderExecutor runs the tasks that send events to subscribers;
+   *   since sending can block on a slow client, this should be able to run
+   *   a lot of tasks at once (e.g., virtual threads)
+   */
+  public EventsController(Executor senderExecutor) {
+    this.senderExecutor = senderExecutor;
+  }
+
+  /**
+   * Check the query params of a subscription. This has to be registered as
+   * a `before` handler for the events endpoint: by the time `subscribe`
+   * runs, the 200 and the event stream headers have already been sent, so
+   * it's too late to answer with a 400.
+   *
+   * @param ctx a Javalin HTTP context
+   */
+  public void checkSubscription(Context ctx) {
+    String collection = ctx.queryParam(COLLECTION_KEY);
+    if (collection != null && !COLLECTIONS.contains(collection)) {
+      throw new BadRequestResponse("The collection must be one of " + COLLECTIONS);
+    }
+  }
+
+  /**
+   * Start sending change events to a new SSE client. The optional
+   * `collection` query param (`fsclients` or `requestForm`) limits the
+   * events to that collection; `checkSubscription` has already checked it.
+   *
+   * @param client a Javalin SSE client
+   */
+  public void subscribe(SseClient client) {
+    String collection = client.ctx().queryParam(COLLECTION_KEY);
+    Subscriber subscriber = new Subscriber(client, collection);
+    subscribers.add(subscriber);
+    client.onClose(() -> subscribers.remove(subscriber));
+    client.keepAlive();
+  }
+
+  /**
+   * Send a change to every subscriber that's interested in it. This only
+   * puts the event in their buffers, so it never blocks.
+   *
+   * @param event the change
+   */
+  public void publish(ChangeEvent event) {
+    for (Subscriber subscriber : subscribers) {
+      if (subscriber.collection == null || subscriber.collection.equals(event.collection())) {
+        subscriber.enqueue(event);
+      }
+    }
+  }
+
+  /**
+   * Send a comment to every subscriber, so that proxies don't close idle
+   * connections and we notice clients that have gone away. Call this
+   * every so often.
+   */
+  public void heartbeat() {
+    for (Subscriber subscriber : subscribers) {
+      subscriber.enqueue(HEARTBEAT);
+    }
+  }
+
+  /**
+   * @return the number of clients currently subscribed
+   */
+  public int subscriberCount() {
+    return subscribers.size();
+  }
+
+  private final class Subscriber {
+    private final SseClient client;
+    private final String collection;
+    private final BlockingQueue<ChangeEvent> buffer = new ArrayBlockingQueue<>(SUBSCRIBER_BUFFER_SIZE);
+    private final AtomicBoolean sending = new AtomicBoolean();
+
+    private Subscriber(SseClient client, String collection) {
+      this.client = client;
+      this.collection = collection;
+    }
+
+    private void enqueue(ChangeEvent event) {
+      if (!buffer.offer(event)) {
+        buffer.clear();
+        buffer.offer(RESYNC);
+      }
+      if (sending.compareAndSet(false, true)) {
+        senderExecutor.execute(this::send);
+      }
+    }
+
+    /**
+     * Send everything in the buffer. Only one of these runs at a time for
+     * each subscriber, so the events are sent in order.
+     */
+    private void send() {
+      do {
+        ChangeEvent event = buffer.poll();
+        while (event != null) {
+          if (event == HEARTBEAT) {
+            client.sendComment("heartbeat");
+          } else if (event == RESYNC) {
+            client.sendEvent(RESYNC_EVENT, "{}", null);
+          } else {
+            client.sendEvent(event.operation(), event.json(), null);
+          }
+          event = buffer.poll();
+        }
+        sending.set(false);
+        // An event may have arrived after we found the buffer empty but
+        // before we cleared `sending`, in which case nobody else will send
+        // it, so go around again.
+      } while (!buffer.isEmpty() && sending.compareAndSet(false, true));
+    }
+  }
+}
@@ -0,0 +1,293 @@
+package umm3601.events;
+
+import static com.mongodb.client.model.Filters.and;
+import static com.mongodb.client.model.Filters.in;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import com.mongodb.MongoException;
+import com.mongodb.client.ChangeStreamIterable;
+import com.mongodb.client.MongoChangeStreamCursor;
+import com.mongodb.client.MongoCursor;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.Aggregates;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.changestream.ChangeStreamDocument;
+import com.mongodb.client.model.changestream.OperationType;
+
+import org.bson.BsonDocument;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.bson.types.ObjectId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Follows the inserts and deletes in our collections and publishes them on
+ * a `ChangeFeed`.
+ * <p>
+ * This is the one database cursor behind every open event stream: a
+ * single thread reads a MongoDB change stream on the database, filtered to
+ * our collections, and hands each change to the feed. If the stream can't
+ * be resumed where it left off (its history has been lost), the feed is
+ * told to resync and a new stream is started.
+ * <p>
+ * Change streams need a replica set, though, so on a standalone MongoDB
+ * (like the one in our docker-compose setup) this falls back to polling
+ * each collection for documents inserted since the last poll. Polling only
+ * finds inserts; deletes are only seen if this server made them (see
+ * `ChangeFeed`).
+ */
+public class MongoChangeWatcher {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(MongoChangeWatcher.class);
+
+  // The error MongoDB gives when asked for a change stream on a standalone server
+  private static final int CHANGE_STREAMS_NOT_SUPPORTED = 40573;
+  // The error MongoDB gives when a resume token is older than the oplog
+  private static final int CHANGE_STREAM_HISTORY_LOST = 286;
+
+  private static final long MAX_AWAIT_MILLIS = 1000;
+  private static final long POLL_INTERVAL_MILLIS = 1000;
+  private static final long RETRY_DELAY_MILLIS = 5000;
+  private static final int POLL_BATCH_SIZE = 1000;
+  // How many already seen documents a poll reads past before stopping, to
+  // catch inserts that became visible a little out of order
+  private static final int POLL_OVERLAP = 100;
+  private static final int SEEN_IDS_SIZE = 2 * POLL_BATCH_SIZE;
+
+  private final MongoDatabase database;
+  private final ChangeFeed feed;
+  private final List<String> collections;
+  private final Thread thread;
+  private volatile boolean running = true;
+  // Where to resume the change stream from, or null to start with the next
+  // change. Only used by the watcher thread.
+  private BsonDocument resumeToken;
+
+  /**
+   * @param database the database the collections are in
+   * @param feed where to publish the changes
+   * @param collections the names of the collections to watch
+   */
+  public MongoChangeWatcher(MongoDatabase database, ChangeFeed feed, List<String> collections) {
+    this.database = database;
+    this.feed = feed;
+    this.collections = collections;
+    this.thread = new Thread(this::run, "change-watcher");
+    this.thread.setDaemon(true);
+  }
+
+  public void start() {
+    thread.start();
+  }
+
+  public void stop() {
+    running = false;
+    thread.interrupt();
+  }
+
+  private void run() {
+    while (running) {
+      try {
+        followChangeStream();
+      } catch (MongoException e) {
+        if (e.getCode() == CHANGE_STREAMS_NOT_SUPPORTED) {
+          LOGGER.info("MongoDB doesn't support change streams here; polling for new documents instead");
+          feed.setStreaming(false);
+          poll();
+          return;
+        }
+        if (e.getCode() == CHANGE_STREAM_HISTORY_LOST) {
+          // Retrying with the same token would fail the same way forever
+          LOGGER.warn("Can't resume the MongoDB change stream where it left off; starting a new one", e);
+          resumeToken = null;
+          for (String collection : collections) {
+            feed.resync(collection);
+          }
+          continue;
+        }
+        retryLater(e);
+      }
+    }
+  }
+
+  /**
+   * Publish changes from a change stream, starting after `resumeToken`,
+   * until we're stopped or the stream fails.
+   */
+  private void followChangeStream() {
+    List<Bson> pipeline = List.of(Aggregates.match(and(
+      in("ns.coll", collections),
+      in("operationType", OperationType.INSERT.getValue(), OperationType.DELETE.getValue()))));
+    ChangeStreamIterable<Document> changes = database.watch(pipeline)
+      .maxAwaitTime(MAX_AWAIT_MILLIS, TimeUnit.MILLISECONDS);
+    if (resumeToken != null) {
+      changes = changes.resumeAfter(resumeToken);
+    }
+
+    try (MongoChangeStreamCursor<ChangeStreamDocument<Document>> cursor = changes.cursor()) {
+      feed.setStreaming(true);
+      while (running) {
+        ChangeStreamDocument<Document> change = cursor.tryNext();
+        if (change == null) {
+          continue;
+        }
+        resumeToken = change.getResumeToken();
+        String operation = change.getOperationType() == OperationType.INSERT
+          ? ChangeEvent.INSERT
+          : ChangeEvent.DELETE;
+        String id = change.getDocumentKey().get("_id").asObjectId().getValue().toHexString();
+        feed.streamedChange(new ChangeEvent(change.getNamespace().getCollectionName(), operation, id));
+      }
+    } finally {
+      feed.setStreaming(false);
+    }
+  }
+
+  /**
+   * Poll each collection for newly inserted documents, until we're stopped.
+   * <p>
+   * We can't go by `_id`: ObjectIds are made by the client, and a form
+   * saved by the write-behind queue, or a document from a bulk import, can
+   * have an older `_id` than documents inserted before it. Instead we go by
+   * the record id that MongoDB gives each document as it's inserted. Record
+   * ids only go up, and the natural order of a collection is by record id,
+   * so reading the collection in reverse natural order reads the newest
+   * inserts first, whatever their `_id`s.
+   */
+  private void poll() {
+    Map<String, Set<ObjectId>> seenIds = new HashMap<>();
+    try {
+      for (String collection : collections) {
+        Set<ObjectId> seen = recentIds();
+        List<ObjectId> newest = newestIds(collection);
+        Collections.reverse(newest);
+        seen.addAll(newest);
+        seenIds.put(collection, seen);
+      }
+    } catch (MongoException e) {
+      LOGGER.warn("Couldn't read the newest documents to start polling from", e);
+      for (String collection : collections) {
+        seenIds.put(collection, recentIds());
+      }
+    }
+    while (running) {
+      try {
+        Thread.sleep(POLL_INTERVAL_MILLIS);
+        for (String collection : collections) {
+          pollCollection(collection, seenIds.get(collection));
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return;
+      } catch (MongoException e) {
+        LOGGER.warn("Polling for new documents failed; will try again", e);
+      }
+    }
+  }
+
+  /**
+   * Publish the documents inserted into a collection since the last poll.
+   * This reads back from the newest document until it has passed
+   * `POLL_OVERLAP` documents it has already seen. If it reads a whole batch
+   * without getting that far, there may be more new documents than it can
+   * read in one go, so it tells the feed to resync instead.
+   *
+   * @param collection the collection to poll
+   * @param seen the ids of the documents already seen, oldest first
+   */
+  private void pollCollection(String collection, Set<ObjectId> seen) {
+    List<ObjectId> inserted = new ArrayList<>();
+    int overlap = 0;
+    int read = 0;
+    try (MongoCursor<Document> documents = newestFirst(collection)) {
+      while (overlap < POLL_OVERLAP && documents.hasNext()) {
+        read++;
+        Object id = documents.next().get("_id");
+        if (!(id instanceof ObjectId)) {
+          continue;
+        }
+        if (seen.contains(id)) {
+          overlap++;
+        } else {
+          inserted.add((ObjectId) id);
+        }
+      }
+    }
+    if (inserted.isEmpty()) {
+      return;
+    }
+
+    // Oldest first, so that they're published in the order they were
+    // inserted, and the oldest are the first to be forgotten
+    Collections.reverse(inserted);
+    seen.addAll(inserted);
+    if (overlap < POLL_OVERLAP && read == POLL_BATCH_SIZE) {
+      feed.resync(collection);
+      return;
+    }
+    for (ObjectId id : inserted) {
+      feed.polledInsert(ChangeEvent.inserted(collection, id.toHexString()));
+    }
+  }
+
+  /**
+   * @return the `_id`s of (up to `POLL_BATCH_SIZE` of) the documents most
+   *   recently inserted into the collection, newest first
+   */
+  private List<ObjectId> newestIds(String collection) {
+    List<ObjectId> ids = new ArrayList<>();
+    try (MongoCursor<Document> documents = newestFirst(collection)) {
+      while (documents.hasNext()) {
+        Object id = documents.next().get("_id");
+        if (id instanceof ObjectId) {
+          ids.add((ObjectId) id);
+        }
+      }
+    }
+    return ids;
+  }
+
+  private MongoCursor<Document> newestFirst(String collection) {
+    return database.getCollection(collection)
+      .find()
+      .projection(Projections.include("_id"))
+      .sort(new Document("$natural", -1))
+      .limit(POLL_BATCH_SIZE)
+      .iterator();
+  }
+
+  /**
+   * @return a set that only keeps the `SEEN_IDS_SIZE` ids most recently
+   *   added to it
+   */
+  private static Set<ObjectId> recentIds() {
+    return Collections.newSetFromMap(new LinkedHashMap<>() {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<ObjectId, Boolean> eldest) {
+        return size() > SEEN_IDS_SIZE;
+      }
+    });
+  }
+
+  private void retryLater(MongoException e) {
+    if (!running) {
+      return;
+    }
+    LOGGER.warn("Lost the MongoDB change stream; retrying in {} ms", RETRY_DELAY_MILLIS, e);
+    try {
+      Thread.sleep(RETRY_DELAY_MILLIS);
+    } catch (InterruptedException interrupted) {
+      Thread.currentThread().interrupt();
+      running = false;
+    }
+  }
+}
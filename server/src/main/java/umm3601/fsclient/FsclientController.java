@@ -1,148 +1,599 @@
 package umm3601.fsclient;
 
-import static com.mongodb.client.model.Filters.and;
-import static com.mongodb.client.model.Filters.eq;
-import static com.mongodb.client.model.Filters.regex;
-
-import java.nio.charset.StandardCharsets;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.Duration;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
-import java.util.regex.Pattern;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
 
-import com.mongodb.client.MongoDatabase;
-import com.mongodb.client.model.Sorts;
-import com.mongodb.client.result.DeleteResult;
+import com.fasterxml.jackson.annotation.JsonFilter;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SequenceWriter;
+import com.fasterxml.jackson.databind.ser.impl.SimpleBeanPropertyFilter;
+import com.fasterxml.jackson.databind.ser.impl.SimpleFilterProvider;
 
-import org.bson.Document;
-import org.bson.UuidRepresentation;
-import org.bson.conversions.Bson;
 import org.bson.types.ObjectId;
-import org.mongojack.JacksonMongoCollection;
 
 import io.javalin.http.BadRequestResponse;
+import io.javalin.http.ContentType;
 import io.javalin.http.Context;
 import io.javalin.http.HttpStatus;
 import io.javalin.http.NotFoundResponse;
+import umm3601.events.ChangeEvent;
+import umm3601.events.ChangeFeed;
+import umm3601.util.ChangeToken;
+import umm3601.util.ETags;
+import umm3601.util.ExpiringLruCache;
+import umm3601.util.Hashing;
+import umm3601.util.PageCursor;
+import umm3601.util.PrecomputedBody;
+import umm3601.validation.Checks;
+import umm3601.validation.Validator;
 
 /**
  * Controller that manages requests for info about fsclients.
+ * <p>
+ * The handlers for listing, getting, and adding fsclients don't talk to
+ * the database on the request thread. Instead they hand the database work
+ * to the `databaseExecutor` and give Javalin a future for the result, which
+ * frees the request thread while we wait on the database. Passing an
+ * executor that runs tasks immediately (`Runnable::run`) gives the plain,
+ * synchronous, behavior instead.
  */
 public class FsclientController {
 
   static final String AGE_KEY = "age";
   static final String COMPANY_KEY = "company";
   static final String ROLE_KEY = "role";
+  static final String SORT_BY_KEY = "sortby";
   static final String SORT_ORDER_KEY = "sortorder";
+  static final String LIMIT_KEY = "limit";
+  static final String AFTER_KEY = "after";
+  static final String STREAM_KEY = "stream";
+  static final String QUERY_KEY = "q";
+  static final String FIELDS_KEY = "fields";
+  static final String VIEW_KEY = "view";
+
+  // Response header carrying the `after` cursor for the next page of a
+  // paginated listing; absent when there are no further pages.
+  static final String NEXT_PAGE_HEADER = "X-Next-After";
+  static final String NDJSON_CONTENT_TYPE = "application/x-ndjson";
+
+  private static final int MAX_PAGE_SIZE = 1000;
+  // The most ids one batch get or delete can ask for
+  static final int MAX_BATCH_SIZE = 100;
+  private static final int DEFAULT_SEARCH_RESULTS = 10;
+  private static final int MAX_SEARCH_RESULTS = 100;
+
+  // Fsclient records rarely change, and the same few hundred are looked
+  // up over and over, so we keep recently requested ones in memory.
+  private static final int FSCLIENT_CACHE_SIZE = 1000;
+  private static final Duration FSCLIENT_CACHE_TTL = Duration.ofMinutes(5);
+
+  private static final int LIST_CACHE_SIZE = 64;
+  private static final Duration LIST_CACHE_TTL = Duration.ofMinutes(1);
+
+  // Imports often add many fsclients with the same few emails, so we
+  // remember the avatars we've generated recently.
+  private static final int AVATAR_CACHE_SIZE = 10_000;
+  private static final Duration AVATAR_CACHE_TTL = Duration.ofHours(1);
 
   private static final int REASONABLE_AGE_LIMIT = 150;
-  private static final String ROLE_REGEX = "^(admin|editor|viewer)$";
-  public static final String EMAIL_REGEX = "^[a-zA-Z0-9_!#$%&'*+/=?`{|}~^.-]+@[a-zA-Z0-9.-]+$";
+  public static final String EMAIL_REGEX = Checks.EMAIL_REGEX;
+
+  // The checks a new fsclient has to pass. These are built once and shared
+  // by every request.
+  private static final Validator<Fsclient> FSCLIENT_VALIDATOR = new Validator<Fsclient>("Fsclient")
+    .check("name", usr -> Checks.isNonBlank(usr.name), "Fsclient must have a non-empty fsclient name")
+    .check("email", usr -> Checks.isEmail(usr.email), "Fsclient must have a legal email")
+    .check("age", usr -> usr.age > 0, "Fsclient's age must be greater than zero")
+    .check("age", usr -> usr.age < REASONABLE_AGE_LIMIT, "Fsclient's age must be less than " + REASONABLE_AGE_LIMIT)
+    .check("role", usr -> Checks.isRole(usr.role), "Fsclient must have a legal fsclient role")
+    .check("company", usr -> Checks.isNonBlank(usr.company), "Fsclient must have a non-empty company name");
+
+  // Writes fsclients with only the fields that were asked for (see
+  // `writerFor`). By default the filter lets every field through.
+  private static final String FIELDS_FILTER = "fields";
+  private static final ObjectMapper FSCLIENT_MAPPER = new ObjectMapper()
+    .addMixIn(Fsclient.class, FieldsFilterMixIn.class)
+    .setFilterProvider(new SimpleFilterProvider().addFilter(FIELDS_FILTER, SimpleBeanPropertyFilter.serializeAll()));
+
+  // Used to write fsclients directly to the response when streaming, so we
+  // never have to hold the whole result set in memory. We don't let it
+  // close the response stream; Javalin takes care of that.
+  private static final ObjectWriter FSCLIENT_WRITER = FSCLIENT_MAPPER
+    .writerFor(Fsclient.class)
+    .without(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+  private static final ObjectWriter FSCLIENT_LIST_WRITER = FSCLIENT_MAPPER
+    .writerFor(new TypeReference<List<Fsclient>>() { });
+
+  private final FsclientRepository fsclientRepository;
+  private final Executor databaseExecutor;
+  private final ChangeFeed changeFeed;
+  // Whether to use `fsclientCache` and `listCache`; only benchmarks of
+  // the database path turn them off
+  private final boolean caching;
+
+  private final ExpiringLruCache<ObjectId, Fsclient> fsclientCache
+    = new ExpiringLruCache<>(FSCLIENT_CACHE_SIZE, FSCLIENT_CACHE_TTL);
+  private final ExpiringLruCache<String, String> avatarCache
+    = new ExpiringLruCache<>(AVATAR_CACHE_SIZE, AVATAR_CACHE_TTL);
+
+  // Changes whenever an fsclient is added or deleted; used to tag list
+  // responses so that clients can cheaply check if theirs are current.
+  private final ChangeToken fsclientChanges = new ChangeToken();
 
-  private final JacksonMongoCollection<Fsclient> fsclientCollection;
+  // The most recently requested lists of fsclients, already serialized
+  // (and compressed), so that popular lists (like the default, unfiltered
+  // one) are just a copy of bytes. Each is only used while the change
+  // token it was built with is current.
+  private final ExpiringLruCache<List<Object>, CachedList> listCache
+    = new ExpiringLruCache<>(LIST_CACHE_SIZE, LIST_CACHE_TTL);
+
+  // Names, companies, and emails of all the fsclients, for search-as-you-type
+  private final FsclientSearchIndex searchIndex = new FsclientSearchIndex();
+
+  // The counts for `getFsclientStats`, kept up to date as we add and
+  // delete fsclients, or null if they need to be recomputed (because
+  // they've never been computed, or someone else changed the fsclients).
+  private final AtomicReference<FsclientStats> stats = new AtomicReference<>();
+  // How many of our own writes have started but not yet been applied to
+  // `stats`. Counts computed while any are in progress may or may not
+  // include them, so they aren't kept. Guarded by `statsLock`.
+  private int writesInProgress;
+  private final Object statsLock = new Object();
 
   /**
    * Construct a controller for fsclients.
    *
-   * @param database the database containing fsclient data
+   * @param fsclientRepository where the fsclients are stored
+   * @param databaseExecutor runs the handlers' calls to the repository
+   * @param changeFeed where to report the changes this controller makes
    */
-  public FsclientController(MongoDatabase database) {
-    fsclientCollection = JacksonMongoCollection.builder().build(
-        database,
-        "fsclients",
-        Fsclient.class,
-        UuidRepresentation.STANDARD);
+  public FsclientController(
+    FsclientRepository fsclientRepository,
+    Executor databaseExecutor,
+    ChangeFeed changeFeed) {
+    this(fsclientRepository, databaseExecutor, changeFeed, true);
+  }
+
+  /**
+   * Construct a controller for fsclients that may skip the fsclient and
+   * list caches, so every request goes to the repository.
+   *
+   * @param fsclientRepository where the fsclients are stored
+   * @param databaseExecutor runs the handlers' calls to the repository
+   * @param changeFeed where to report the changes this controller makes
+   * @param caching whether to cache fsclients and lists
+   */
+  FsclientController(
+    FsclientRepository fsclientRepository,
+    Executor databaseExecutor,
+    ChangeFeed changeFeed,
+    boolean caching) {
+    this.fsclientRepository = fsclientRepository;
+    this.databaseExecutor = databaseExecutor;
+    this.changeFeed = changeFeed;
+    this.caching = caching;
+  }
+
+  /**
+   * Forget anything we have cached about a changed fsclient. This should
+   * be registered as a listener on the `ChangeFeed`, so that changes made
+   * by other servers (or directly in the database) are noticed too.
+   *
+   * @param event a change to one of our collections
+   */
+  public void changed(ChangeEvent event) {
+    if (!event.collection().equals(ChangeEvent.FSCLIENTS)) {
+      return;
+    }
+    if (event.operation().equals(ChangeEvent.RESYNC)) {
+      // We may have missed any number of changes, so forget everything
+      // and find any fsclients the search index is missing.
+      stats.set(null);
+      fsclientCache.invalidateAll();
+      fsclientChanges.changed();
+      listCache.invalidateAll();
+      CompletableFuture.runAsync(this::buildSearchIndex, databaseExecutor);
+      return;
+    }
+    // We've already counted the changes we made ourselves (and taken them
+    // out of, or put them in, the search index), so a change that doesn't
+    // match the index was made by someone else, and the stats need to be
+    // recomputed.
+    boolean inIndex = searchIndex.contains(event.id());
+    if (inIndex == event.operation().equals(ChangeEvent.DELETE)) {
+      stats.set(null);
+    }
+    fsclientChanged(event.id());
+    if (event.operation().equals(ChangeEvent.DELETE)) {
+      searchIndex.remove(event.id());
+    } else if (!inIndex) {
+      // Someone else added this fsclient, so we have to look it up to
+      // index it. Listeners mustn't block, so do that in the background.
+      CompletableFuture.runAsync(() -> {
+        Fsclient fsclient = fsclientRepository.findById(event.id());
+        if (fsclient != null) {
+          searchIndex.add(fsclient);
+        }
+      }, databaseExecutor);
+    }
+  }
+
+  /**
+   * Load all the fsclients into the search index. This should be called
+   * once, when the server starts; after that the index is kept up to date
+   * as fsclients are added and deleted.
+   */
+  public void buildSearchIndex() {
+    // The index only needs the searchable fields
+    FsclientQuery query = new FsclientQuery();
+    query.sortBy = "_id";
+    query.fields = Set.of("name", "company", "email");
+    try (Stream<Fsclient> fsclients = fsclientRepository.stream(query)) {
+      fsclients.forEach(searchIndex::add);
+    }
+  }
+
+  private void fsclientChanged(String id) {
+    fsclientCache.invalidate(new ObjectId(id));
+    fsclientChanges.changed();
+    listCache.invalidateAll();
   }
 
   /**
    * Set the JSON body of the response to be the single fsclient
    * specified by the `id` parameter in the request
    *
+   * Recently requested fsclients are served from an in-memory cache;
+   * only cache misses go to the database.
+   *
    * @param ctx a Javalin HTTP context
    */
   public void getFsclient(Context ctx) {
     String id = ctx.pathParam("id");
-    Fsclient fsclient;
+    ObjectId objectId;
 
     try {
-      fsclient = fsclientCollection.find(eq("_id", new ObjectId(id))).first();
+      objectId = new ObjectId(id);
     } catch (IllegalArgumentException e) {
       throw new BadRequestResponse("The requested fsclient id wasn't a legal Mongo Object ID.");
     }
-    if (fsclient == null) {
-      throw new NotFoundResponse("The requested fsclient was not found");
-    } else {
-      ctx.json(fsclient);
-      ctx.status(HttpStatus.OK);
+
+    ctx.future(() -> CompletableFuture
+      .supplyAsync(() -> caching
+        ? fsclientCache.getOrLoad(objectId, key -> fsclientRepository.findById(id))
+        : fsclientRepository.findById(id), databaseExecutor)
+      .thenAccept(fsclient -> {
+        if (fsclient == null) {
+          throw new NotFoundResponse("The requested fsclient was not found");
+        }
+        // Tag the response with a hash of its body, so a client that
+        // already has this version of the fsclient gets a 304 instead.
+        byte[] body = toJson(fsclient);
+        if (!ETags.notModified(ctx, ETags.forContent(body))) {
+          ctx.contentType(ContentType.APPLICATION_JSON);
+          ctx.result(body);
+          ctx.status(HttpStatus.OK);
+        }
+      }));
+  }
+
+  /**
+   * Set the JSON body of the response to be the fsclients with the ids
+   * listed in the request body (`{"ids": [...]}`), so a client that needs
+   * several fsclients can get them with one request rather than one each.
+   * <p>
+   * The response lists the `fsclients` that were found (in the order they
+   * were asked for), the ids that were `notFound`, and the ids that were
+   * `invalid` (not legal Mongo Object IDs). Fsclients in the single
+   * fsclient cache come from there; the rest are found with one query.
+   *
+   * @param ctx a Javalin HTTP context
+   */
+  public void getFsclientsByIds(Context ctx) {
+    BatchIds ids = batchIds(ctx);
+    ctx.future(() -> CompletableFuture
+      .supplyAsync(() -> findByIds(ids.valid()), databaseExecutor)
+      .thenAccept(found -> {
+        List<Fsclient> fsclients = new ArrayList<>();
+        List<String> notFound = new ArrayList<>();
+        for (String id : ids.valid()) {
+          Fsclient fsclient = found.get(id);
+          if (fsclient != null) {
+            fsclients.add(fsclient);
+          } else {
+            notFound.add(id);
+          }
+        }
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("fsclients", fsclients);
+        result.put("notFound", notFound);
+        result.put("invalid", ids.invalid());
+        ctx.json(result);
+        ctx.status(HttpStatus.OK);
+      }));
+  }
+
+  /**
+   * @return the fsclients with the given ids that exist, by id
+   */
+  private Map<String, Fsclient> findByIds(List<String> ids) {
+    Map<String, Fsclient> found = new HashMap<>();
+    List<String> misses = new ArrayList<>();
+    for (String id : ids) {
+      Fsclient fsclient = caching ? fsclientCache.get(new ObjectId(id)) : null;
+      if (fsclient != null) {
+        found.put(id, fsclient);
+      } else {
+        misses.add(id);
+      }
+    }
+    if (!misses.isEmpty()) {
+      // Only cache what we found if nothing was deleted (or changed) meanwhile
+      long loadGeneration = fsclientCache.generation();
+      for (Fsclient fsclient : fsclientRepository.findByIds(misses)) {
+        if (caching) {
+          fsclientCache.putIfUnchanged(new ObjectId(fsclient._id), fsclient, loadGeneration);
+        }
+        found.put(fsclient._id, fsclient);
+      }
     }
+    return found;
   }
 
   /**
    * Set the JSON body of the response to be a list of all the fsclients returned from the database
    * that match any requested filters and ordering
    *
+   * The listing can be paginated with the `limit` and `after` query params. When a page
+   * is full, the `after` cursor for the next page is returned in the `X-Next-After`
+   * header. Pagination is keyset based (on the sort field with `_id` as a tie-breaker),
+   * and the cursor holds the last fsclient's sort value and `_id`, so later pages cost
+   * the same as the first one, and still work if that fsclient has been deleted.
+   *
+   * The `stream` query param (`json` or `ndjson`) writes the fsclients to the response
+   * as they come off the database cursor instead of collecting them into a list first,
+   * which keeps memory use constant for large exports.
+   *
    * @param ctx a Javalin HTTP context
    */
   public void getFsclients(Context ctx) {
-    Bson combinedFilter = constructFilter(ctx);
-    Bson sortingOrder = constructSortingOrder(ctx);
-
-    // All three of the find, sort, and into steps happen "in parallel" inside the
-    // database system. So MongoDB is going to find the fsclients with the specified
-    // properties, return those sorted in the specified manner, and put the
-    // results into an initially empty ArrayList.
-    ArrayList<Fsclient> matchingFsclients = fsclientCollection
-      .find(combinedFilter)
-      .sort(sortingOrder)
-      .into(new ArrayList<>());
-
-    // Set the JSON body of the response to be the list of fsclients returned by the database.
-    // According to the Javalin documentation (https://javalin.io/documentation#context),
-    // this calls result(jsonString), and also sets content type to json
-    ctx.json(matchingFsclients);
-
-    // Explicitly set the context status to OK
-    ctx.status(HttpStatus.OK);
+    FsclientQuery query = constructQuery(ctx);
+
+    String streamFormat = null;
+    if (ctx.queryParamMap().containsKey(STREAM_KEY)) {
+      streamFormat = ctx.queryParamAsClass(STREAM_KEY, String.class)
+        .check(it -> it.equals("json") || it.equals("ndjson"), "The stream format must be `json` or `ndjson`")
+        .get();
+    }
+    boolean stream = streamFormat != null;
+    boolean ndjson = "ndjson".equals(streamFormat);
+
+    // If no fsclients have changed since the client last asked this, it
+    // can keep using the list it has, and we don't need to go to Mongo.
+    if (ETags.notModified(ctx, ETags.forQuery(fsclientChanges, ctx))) {
+      return;
+    }
+
+    ctx.future(() -> CompletableFuture.runAsync(() -> {
+      if (stream) {
+        streamFsclients(ctx, query, ndjson);
+      } else {
+        listFsclients(ctx, query);
+      }
+    }, databaseExecutor));
+  }
+
+  private void listFsclients(Context ctx, FsclientQuery query) {
+    // Read the change token before the fsclients, so that a cached list is
+    // never tagged as newer than the data it was built from.
+    String changeToken = fsclientChanges.current();
+    CachedList list = caching ? listCache.get(query.cacheKey()) : null;
+    if (list == null || !list.changeToken.equals(changeToken)) {
+      List<Fsclient> matchingFsclients = fsclientRepository.find(query);
+
+      // If we filled the page there may be more fsclients, so tell the
+      // caller where to pick up from.
+      String nextAfter = null;
+      if (query.limit > 0 && matchingFsclients.size() == query.limit) {
+        nextAfter = query.cursorAfter(matchingFsclients.get(query.limit - 1)).encode();
+      }
+      list = new CachedList(changeToken, nextAfter, new PrecomputedBody(toJson(matchingFsclients, query)));
+      if (caching) {
+        listCache.put(query.cacheKey(), list);
+      }
+    }
+
+    if (list.nextAfter != null) {
+      ctx.header(NEXT_PAGE_HEADER, list.nextAfter);
+    }
+    // Send the (already serialized, and perhaps compressed) list of
+    // fsclients as the JSON body of the response, with an OK status.
+    try {
+      list.body.writeTo(ctx);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
   }
 
-  private Bson constructFilter(Context ctx) {
-    List<Bson> filters = new ArrayList<>(); // start with a blank document
+
+  /**
+   * Write the fsclients straight from the database to the response body, either as
+   * a single JSON array or as newline delimited JSON (one fsclient per line).
+   *
+   * @param ctx a Javalin HTTP context
+   * @param query the query for the fsclients to write
+   * @param ndjson true for newline delimited JSON, false for a JSON array
+   */
+  private void streamFsclients(Context ctx, FsclientQuery query, boolean ndjson) {
+    try (Stream<Fsclient> fsclients = fsclientRepository.stream(query)) {
+      ctx.status(HttpStatus.OK);
+      if (ndjson) {
+        ctx.contentType(NDJSON_CONTENT_TYPE);
+      } else {
+        ctx.contentType(ContentType.APPLICATION_JSON);
+      }
+
+      try (
+        SequenceWriter writer = ndjson
+          ? writerFor(FSCLIENT_WRITER, query).withRootValueSeparator("\n").writeValues(ctx.outputStream())
+          : writerFor(FSCLIENT_WRITER, query).writeValuesAsArray(ctx.outputStream())
+      ) {
+        Iterator<Fsclient> iterator = fsclients.iterator();
+        while (iterator.hasNext()) {
+          writer.write(iterator.next());
+        }
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /**
+   * Set the JSON body of the response to be the fsclients whose name,
+   * company, or email best match the `q` query param, best match first.
+   * Every word in `q` has to match the start of a word in one of those
+   * fields, so this can be called as the user types. The optional `limit`
+   * query param (default 10) sets the most fsclients to return. The search
+   * index only has their ids, so the fsclients themselves come from the
+   * single fsclient cache, or one query for those that aren't in it.
+   *
+   * @param ctx a Javalin HTTP context
+   */
+  public void searchFsclients(Context ctx) {
+    String query = ctx.queryParamAsClass(QUERY_KEY, String.class)
+      .check(Checks::isNonBlank, "The search query must not be empty")
+      .get();
+    int limit = ctx.queryParamAsClass(LIMIT_KEY, Integer.class)
+      .check(it -> it > 0, "The number of results must be greater than zero")
+      .check(it -> it <= MAX_SEARCH_RESULTS, "The number of results must be at most " + MAX_SEARCH_RESULTS)
+      .getOrDefault(DEFAULT_SEARCH_RESULTS);
+
+    List<String> ids = searchIndex.search(query, limit);
+    ctx.future(() -> CompletableFuture
+      .supplyAsync(() -> findByIds(ids), databaseExecutor)
+      .thenAccept(found -> {
+        // A match may have been deleted since it was indexed
+        List<Fsclient> matches = new ArrayList<>(ids.size());
+        for (String id : ids) {
+          Fsclient fsclient = found.get(id);
+          if (fsclient != null) {
+            matches.add(fsclient);
+          }
+        }
+        ctx.json(matches);
+        ctx.status(HttpStatus.OK);
+      }));
+  }
+
+  /**
+   * Build the query described by the filter, sorting, and pagination
+   * query params in the request, checking that they have legal values.
+   *
+   * @param ctx a Javalin HTTP context
+   * @return the requested query
+   */
+  private FsclientQuery constructQuery(Context ctx) {
+    FsclientQuery query = new FsclientQuery();
 
     if (ctx.queryParamMap().containsKey(AGE_KEY)) {
-      int targetAge = ctx.queryParamAsClass(AGE_KEY, Integer.class)
+      query.age = ctx.queryParamAsClass(AGE_KEY, Integer.class)
         .check(it -> it > 0, "Fsclient's age must be greater than zero")
         .check(it -> it < REASONABLE_AGE_LIMIT, "Fsclient's age must be less than " + REASONABLE_AGE_LIMIT)
         .get();
-      filters.add(eq(AGE_KEY, targetAge));
     }
     if (ctx.queryParamMap().containsKey(COMPANY_KEY)) {
-      Pattern pattern = Pattern.compile(Pattern.quote(ctx.queryParam(COMPANY_KEY)), Pattern.CASE_INSENSITIVE);
-      filters.add(regex(COMPANY_KEY, pattern));
+      query.companyPrefix = ctx.queryParam(COMPANY_KEY);
     }
     if (ctx.queryParamMap().containsKey(ROLE_KEY)) {
-      String role = ctx.queryParamAsClass(ROLE_KEY, String.class)
-        .check(it -> it.matches(ROLE_REGEX), "Fsclient must have a legal fsclient role")
+      query.role = ctx.queryParamAsClass(ROLE_KEY, String.class)
+        .check(Checks::isRole, "Fsclient must have a legal fsclient role")
         .get();
-      filters.add(eq(ROLE_KEY, role));
     }
 
-    // Combine the list of filters into a single filtering document.
-    Bson combinedFilter = filters.isEmpty() ? new Document() : and(filters);
-
-    return combinedFilter;
-  }
-
-  private Bson constructSortingOrder(Context ctx) {
     // Sort the results. Use the `sortby` query param (default "name")
     // as the field to sort by, and the query param `sortorder` (default
     // "asc") to specify the sort order.
-    String sortBy = Objects.requireNonNullElse(ctx.queryParam("sortby"), "name");
-    String sortOrder = Objects.requireNonNullElse(ctx.queryParam("sortorder"), "asc");
-    Bson sortingOrder = sortOrder.equals("desc") ?  Sorts.descending(sortBy) : Sorts.ascending(sortBy);
-    return sortingOrder;
+    query.sortBy = Objects.requireNonNullElse(ctx.queryParam(SORT_BY_KEY), "name");
+    if (!FsclientQuery.SORTABLE_FIELDS.contains(query.sortBy)) {
+      throw new BadRequestResponse("Fsclients can only be sorted by one of " + FsclientQuery.SORTABLE_FIELDS);
+    }
+    query.descending = "desc".equals(ctx.queryParam(SORT_ORDER_KEY));
+
+    if (ctx.queryParamMap().containsKey(AFTER_KEY)) {
+      try {
+        query.after = PageCursor.decode(ctx.queryParam(AFTER_KEY), query.sortBy);
+      } catch (IllegalArgumentException e) {
+        throw new BadRequestResponse(e.getMessage());
+      }
+    }
+    if (ctx.queryParamMap().containsKey(LIMIT_KEY)) {
+      query.limit = ctx.queryParamAsClass(LIMIT_KEY, Integer.class)
+        .check(it -> it > 0, "The page size must be greater than zero")
+        .check(it -> it <= MAX_PAGE_SIZE, "The page size must be at most " + MAX_PAGE_SIZE)
+        .get();
+    }
+
+    // Only return some of the fields of each fsclient, either the ones
+    // listed in `fields` (e.g. `fields=name,role`) or the ones in the
+    // `view=summary` form.
+    boolean hasFields = ctx.queryParamMap().containsKey(FIELDS_KEY);
+    boolean hasView = ctx.queryParamMap().containsKey(VIEW_KEY);
+    if (hasFields && hasView) {
+      throw new BadRequestResponse("Use either `fields` or `view`, not both");
+    }
+    if (hasFields) {
+      Set<String> fields = new HashSet<>();
+      fields.add("_id");
+      for (String field : ctx.queryParam(FIELDS_KEY).split(",")) {
+        if (!FsclientQuery.PROJECTABLE_FIELDS.contains(field.trim())) {
+          throw new BadRequestResponse("The fields must be some of " + FsclientQuery.PROJECTABLE_FIELDS);
+        }
+        fields.add(field.trim());
+      }
+      query.fields = Set.copyOf(fields);
+    } else if (hasView) {
+      String view = ctx.queryParam(VIEW_KEY);
+      if (view.equals("summary")) {
+        query.fields = FsclientQuery.SUMMARY_FIELDS;
+      } else if (!view.equals("full")) {
+        throw new BadRequestResponse("The view must be `summary` or `full`");
+      }
+    }
+
+    return query;
+  }
+
+  /**
+   * @param writer a writer for fsclients (or lists of them)
+   * @param query the query the fsclients are the results of
+   * @return the writer, changed to only write the fields the query asked for
+   */
+  private static ObjectWriter writerFor(ObjectWriter writer, FsclientQuery query) {
+    if (query.fields == null) {
+      return writer;
+    }
+    return writer.with(new SimpleFilterProvider()
+      .addFilter(FIELDS_FILTER, SimpleBeanPropertyFilter.filterOutAllExcept(query.fields)));
   }
 
   /**
@@ -153,36 +604,39 @@ public class FsclientController {
    */
   public void addNewFsclient(Context ctx) {
     /*
-     * The follow chain of statements uses the Javalin validator system
-     * to verify that instance of `Fsclient` provided in this context is
-     * a "legal" fsclient. It checks the following things (in order):
-     *    - The fsclient has a value for the name (`usr.name != null`)
-     *    - The fsclient name is not blank (`usr.name.length > 0`)
+     * The Javalin body validator turns the body into a `Fsclient` (or
+     * responds with a 400 if it can't), and then `FSCLIENT_VALIDATOR`
+     * verifies that it is a "legal" fsclient. It checks that:
+     *    - The fsclient has a non-blank name
      *    - The provided email is valid (matches EMAIL_REGEX)
-     *    - The provided age is > 0
+     *    - The provided age is > 0 and < REASONABLE_AGE_LIMIT
      *    - The provided role is valid (one of "admin", "editor", or "viewer")
      *    - A non-blank company is provided
+     * Every problem with the fsclient is reported in the 400 response,
+     * not just the first one.
      */
-    Fsclient newFsclient = ctx.bodyValidator(Fsclient.class)
-      .check(usr -> usr.name != null && usr.name.length() > 0, "Fsclient must have a non-empty fsclient name")
-      .check(usr -> usr.email.matches(EMAIL_REGEX), "Fsclient must have a legal email")
-      .check(usr -> usr.age > 0, "Fsclient's age must be greater than zero")
-      .check(usr -> usr.age < REASONABLE_AGE_LIMIT, "Fsclient's age must be less than " + REASONABLE_AGE_LIMIT)
-      .check(usr -> usr.role.matches(ROLE_REGEX), "Fsclient must have a legal fsclient role")
-      .check(usr -> usr.company != null && usr.company.length() > 0, "Fsclient must have a non-empty company name")
-      .get();
+    Fsclient newFsclient = FSCLIENT_VALIDATOR.validate(ctx.bodyValidator(Fsclient.class).get());
 
     // Generate a fsclient avatar (you won't need this part for todos)
     newFsclient.avatar = generateAvatar(newFsclient.email);
 
-    fsclientCollection.insertOne(newFsclient);
+    startWrite();
+    ctx.future(() -> CompletableFuture
+      .supplyAsync(() -> fsclientRepository.insert(newFsclient), databaseExecutor)
+      .thenAccept(id -> {
+        updateStats(current -> current.add(newFsclient));
+        fsclientChanged(id);
+        searchIndex.add(newFsclient);
+        changeFeed.localChange(ChangeEvent.inserted(ChangeEvent.FSCLIENTS, id));
 
-    ctx.json(Map.of("id", newFsclient._id));
-    // 201 is the HTTP code for when we successfully
-    // create a new resource (a fsclient in this case).
-    // See, e.g., https://developer.mozilla.org/en-US/docs/Web/HTTP/Status
-    // for a description of the various response codes.
-    ctx.status(HttpStatus.CREATED);
+        ctx.json(Map.of("id", id));
+        // 201 is the HTTP code for when we successfully
+        // create a new resource (a fsclient in this case).
+        // See, e.g., https://developer.mozilla.org/en-US/docs/Web/HTTP/Status
+        // for a description of the various response codes.
+        ctx.status(HttpStatus.CREATED);
+      })
+      .whenComplete((result, e) -> finishWrite()));
   }
 
   /**
@@ -192,8 +646,21 @@ public class FsclientController {
    */
   public void deleteFsclient(Context ctx) {
     String id = ctx.pathParam("id");
-    DeleteResult deleteResult = fsclientCollection.deleteOne(eq("_id", new ObjectId(id)));
-    if (deleteResult.getDeletedCount() != 1) {
+    Fsclient deleted;
+    startWrite();
+    try {
+      deleted = fsclientRepository.delete(id);
+      if (deleted != null) {
+        updateStats(current -> current.remove(deleted));
+        fsclientChanged(id);
+      }
+    } finally {
+      finishWrite();
+    }
+    if (deleted != null) {
+      searchIndex.remove(id);
+      changeFeed.localChange(ChangeEvent.deleted(ChangeEvent.FSCLIENTS, id));
+    } else {
       ctx.status(HttpStatus.NOT_FOUND);
       throw new NotFoundResponse(
         "Was unable to delete ID "
@@ -203,6 +670,182 @@ public class FsclientController {
     ctx.status(HttpStatus.OK);
   }
 
+  /**
+   * Delete the fsclients with the ids listed in the request body
+   * (`{"ids": [...]}`), all with one `deleteMany`.
+   * <p>
+   * The JSON body of the response lists the ids that were `deleted`, the
+   * ones that were `notFound`, and the ones that were `invalid` (not legal
+   * Mongo Object IDs), each in the order they were asked for.
+   *
+   * @param ctx a Javalin HTTP context
+   */
+  public void deleteFsclientsByIds(Context ctx) {
+    BatchIds ids = batchIds(ctx);
+    startWrite();
+    ctx.future(() -> CompletableFuture
+      .supplyAsync(() -> ids.valid().isEmpty() ? List.<Fsclient>of() : fsclientRepository.deleteByIds(ids.valid()),
+        databaseExecutor)
+      .thenAccept(deletedFsclients -> {
+        Set<String> deletedIds = new HashSet<>();
+        for (Fsclient fsclient : deletedFsclients) {
+          updateStats(current -> current.remove(fsclient));
+          fsclientChanged(fsclient._id);
+          searchIndex.remove(fsclient._id);
+          changeFeed.localChange(ChangeEvent.deleted(ChangeEvent.FSCLIENTS, fsclient._id));
+          deletedIds.add(fsclient._id);
+        }
+
+        List<String> deleted = new ArrayList<>();
+        List<String> notFound = new ArrayList<>();
+        for (String id : ids.valid()) {
+          (deletedIds.contains(id) ? deleted : notFound).add(id);
+        }
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("deleted", deleted);
+        result.put("notFound", notFound);
+        result.put("invalid", ids.invalid());
+        ctx.json(result);
+        ctx.status(HttpStatus.OK);
+      })
+      .whenComplete((result, e) -> finishWrite()));
+  }
+
+  /**
+   * The body of a batch get or delete request.
+   */
+  // A plain holder for Jackson to fill in, so we allow public fields.
+  @SuppressWarnings({"VisibilityModifier"})
+  public static class BatchRequest {
+    /** The ids of the fsclients to get or delete. */
+    public List<String> ids;
+  }
+
+  /**
+   * The distinct ids in a batch request, split into legal Object IDs and
+   * the rest, each in the order they were asked for.
+   */
+  record BatchIds(List<String> valid, List<String> invalid) { }
+
+  /**
+   * Read the ids from the body of a batch request, responding with a 400
+   * if there aren't any or there are more than `MAX_BATCH_SIZE`.
+   */
+  static BatchIds batchIds(Context ctx) {
+    List<String> ids = ctx.bodyValidator(BatchRequest.class)
+      .check(body -> body.ids != null && !body.ids.isEmpty(), "The request must have a non-empty list of `ids`")
+      .check(body -> body.ids == null || body.ids.size() <= MAX_BATCH_SIZE,
+        "The request can have at most " + MAX_BATCH_SIZE + " ids")
+      .get()
+      .ids;
+    List<String> valid = new ArrayList<>();
+    List<String> invalid = new ArrayList<>();
+    for (String id : new LinkedHashSet<>(ids)) {
+      (id != null && ObjectId.isValid(id) ? valid : invalid).add(id);
+    }
+    return new BatchIds(valid, invalid);
+  }
+
+  /**
+   * Set the JSON body of the response to be the size and hit/miss/eviction
+   * counts of the single fsclient cache, so we can tell if it's sized well.
+   *
+   * @param ctx a Javalin HTTP context
+   */
+  public void getFsclientCacheStats(Context ctx) {
+    ctx.json(fsclientCache.stats());
+    ctx.status(HttpStatus.OK);
+  }
+
+  /**
+   * Set the JSON body of the response to be the number of fsclients in
+   * total, with each role, at each company, and in each age band (0-9,
+   * 10-19, and so on, with "other" for anything outside 0-149).
+   * <p>
+   * The counts are computed with a single aggregation the first time
+   * they're asked for, and then kept up to date as fsclients are added and
+   * deleted, so this usually doesn't go to the database at all.
+   *
+   * @param ctx a Javalin HTTP context
+   */
+  public void getFsclientStats(Context ctx) {
+    if (ETags.notModified(ctx, ETags.forQuery(fsclientChanges, ctx))) {
+      return;
+    }
+    ctx.future(() -> CompletableFuture
+      .supplyAsync(this::currentStats, databaseExecutor)
+      .thenAccept(currentStats -> {
+        ctx.json(currentStats.toMap());
+        ctx.status(HttpStatus.OK);
+      }));
+  }
+
+  private FsclientStats currentStats() {
+    FsclientStats current = stats.get();
+    if (current != null) {
+      return current;
+    }
+    String changeToken = fsclientChanges.current();
+    FsclientStats computed = fsclientRepository.stats();
+    // Only keep the new counts if none of our writes is in progress, and
+    // nobody else changed the fsclients while we computed them; otherwise
+    // we can't tell whether they include that change. A write that starts
+    // after this check hasn't reached the database, so it isn't in the
+    // counts, and it will find them in `stats` to apply its change to.
+    synchronized (statsLock) {
+      if (writesInProgress == 0 && changeToken.equals(fsclientChanges.current())) {
+        stats.compareAndSet(null, computed);
+      }
+    }
+    return computed;
+  }
+
+  /**
+   * Note that one of our own writes is about to go to the database. This
+   * must be matched by a `finishWrite` once the write has been applied to
+   * the stats (or has failed).
+   */
+  private void startWrite() {
+    synchronized (statsLock) {
+      writesInProgress++;
+    }
+  }
+
+  private void finishWrite() {
+    synchronized (statsLock) {
+      writesInProgress--;
+    }
+  }
+
+  /**
+   * Apply one of our own changes to the stats, if we have any. This has to
+   * happen between `startWrite` and `finishWrite`, so that `currentStats`
+   * doesn't keep counts that already include the change (and then count it
+   * again here).
+   */
+  private void updateStats(Consumer<FsclientStats> change) {
+    FsclientStats current = stats.get();
+    if (current != null) {
+      change.accept(current);
+    }
+  }
+
+  private static byte[] toJson(Fsclient fsclient) {
+    try {
+      return FSCLIENT_WRITER.writeValueAsBytes(fsclient);
+    } catch (JsonProcessingException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  private static byte[] toJson(List<Fsclient> fsclients, FsclientQuery query) {
+    try {
+      return writerFor(FSCLIENT_LIST_WRITER, query).writeValueAsBytes(fsclients);
+    } catch (JsonProcessingException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
   /**
    * Utility function to generate an URI that points
    * at a unique avatar image based on a fsclient's email.
@@ -214,16 +857,9 @@ public class FsclientController {
    * @param email the email to generate an avatar for
    * @return a URI pointing to an avatar image
    */
-  private String generateAvatar(String email) {
-    String avatar;
-    try {
-      // generate unique md5 code for identicon
-      avatar = "https://gravatar.com/avatar/" + md5(email) + "?d=identicon";
-    } catch (NoSuchAlgorithmException ignored) {
-      // set to mystery person
-      avatar = "https://gravatar.com/avatar/?d=mp";
-    }
-    return avatar;
+  String generateAvatar(String email) {
+    // generate unique md5 code for identicon
+    return avatarCache.getOrLoad(email, key -> "https://gravatar.com/avatar/" + md5(key) + "?d=identicon");
   }
 
   /**
@@ -231,15 +867,30 @@ public class FsclientController {
    *
    * @param str the string to generate a md5 for
    */
-  @SuppressWarnings("lgtm[java/weak-cryptographic-algorithm]")
-  public String md5(String str) throws NoSuchAlgorithmException {
-    MessageDigest md = MessageDigest.getInstance("MD5");
-    byte[] hashInBytes = md.digest(str.toLowerCase().getBytes(StandardCharsets.UTF_8));
+  public String md5(String str) {
+    return Hashing.md5Hex(str);
+  }
 
-    StringBuilder result = new StringBuilder();
-    for (byte b : hashInBytes) {
-      result.append(String.format("%02x", b));
+  /**
+   * A serialized list of fsclients, along with the change token it was
+   * built under and the cursor for the page after it (if any).
+   */
+  private static final class CachedList {
+    private final String changeToken;
+    private final String nextAfter;
+    private final PrecomputedBody body;
+
+    private CachedList(String changeToken, String nextAfter, PrecomputedBody body) {
+      this.changeToken = changeToken;
+      this.nextAfter = nextAfter;
+      this.body = body;
     }
-    return result.toString();
+  }
+
+  /**
+   * Adds the `fields` filter to `Fsclient`, for `FSCLIENT_MAPPER` only.
+   */
+  @JsonFilter(FIELDS_FILTER)
+  private interface FieldsFilterMixIn {
   }
 }
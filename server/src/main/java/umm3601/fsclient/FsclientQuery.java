@@ -0,0 +1,89 @@
+package umm3601.fsclient;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+
+import umm3601.util.PageCursor;
+
+/**
+ * The filters, sort order, and page of a request for a list of fsclients.
+ * <p>
+ * This keeps the description of *which* fsclients we want separate from
+ * *how* they are fetched, so the same query can be run by any
+ * `FsclientRepository`. A field left `null` (or `0` for `limit`) means
+ * that part of the query isn't restricted.
+ */
+// Like `Fsclient`, this is a plain holder of values, so we allow public fields.
+@SuppressWarnings({"VisibilityModifier"})
+public class FsclientQuery {
+
+  // We only allow sorting on fields that have an index (see
+  // `MongoFsclientRepository.ensureIndexes()`), so that sorting never falls
+  // back to an in-memory sort of the whole collection.
+  public static final Set<String> SORTABLE_FIELDS = Set.of("_id", "name", "age", "company", "email", "role");
+
+  // The fields a query can ask for, and the ones in the compact "summary"
+  // form of a fsclient (enough for a list of fsclients).
+  public static final Set<String> PROJECTABLE_FIELDS
+    = Set.of("_id", "name", "age", "company", "email", "avatar", "role");
+  public static final Set<String> SUMMARY_FIELDS = Set.of("_id", "name", "role");
+
+  /** Only fsclients of exactly this age. */
+  public Integer age;
+  /** Only fsclients with this role. */
+  public String role;
+  /** Only fsclients whose company starts with this (ignoring case). */
+  public String companyPrefix;
+
+  /** The field to sort on; ties are always broken by `_id`. */
+  public String sortBy = "name";
+  /** Whether to sort in descending rather than ascending order. */
+  public boolean descending;
+
+  /** Only fsclients after this cursor in the sort order. */
+  public PageCursor after;
+  /** The most fsclients to return, or 0 for no limit. */
+  public int limit;
+
+  /** Only return these fields of each fsclient (`_id` is always returned), or null for all. */
+  public Set<String> fields;
+
+  /**
+   * @param fsclient a fsclient from the results of this query
+   * @return a cursor for the page of results after that fsclient
+   */
+  public PageCursor cursorAfter(Fsclient fsclient) {
+    return new PageCursor(sortBy, sortValue(fsclient, sortBy), fsclient._id);
+  }
+
+  /**
+   * @param fsclient a fsclient
+   * @param field one of the `SORTABLE_FIELDS`
+   * @return the value of that field of the fsclient
+   */
+  static Object sortValue(Fsclient fsclient, String field) {
+    switch (field) {
+      case "name":
+        return fsclient.name;
+      case "age":
+        return fsclient.age;
+      case "company":
+        return fsclient.company;
+      case "email":
+        return fsclient.email;
+      case "role":
+        return fsclient.role;
+      default:
+        return fsclient._id;
+    }
+  }
+
+  /**
+   * @return a value that is equal for (only) equal queries, for use as a
+   *   key when caching query results
+   */
+  public List<Object> cacheKey() {
+    return Arrays.asList(age, role, companyPrefix, sortBy, descending, after, limit, fields);
+  }
+}
@@ -0,0 +1,82 @@
+package umm3601.fsclient;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Storage for fsclients.
+ * <p>
+ * `FsclientController` only talks to the database through this interface,
+ * which keeps the HTTP handling separate from the details of the storage.
+ * <p>
+ * Methods that take an id throw an `IllegalArgumentException` if the id
+ * isn't a legal Mongo Object ID.
+ */
+public interface FsclientRepository {
+
+  /**
+   * Make sure any indexes the queries rely on exist.
+   */
+  void ensureIndexes();
+
+  /**
+   * @param id the id of the fsclient to get
+   * @return the fsclient with the given id, or `null` if there isn't one
+   */
+  Fsclient findById(String id);
+
+  /**
+   * Get several fsclients at once.
+   *
+   * @param ids the ids of the fsclients to get
+   * @return the fsclients with those ids that exist, each once, in no
+   *   particular order
+   */
+  List<Fsclient> findByIds(Collection<String> ids);
+
+  /**
+   * @param query the filters, order, and page of fsclients to get
+   * @return the matching fsclients, in order
+   */
+  List<Fsclient> find(FsclientQuery query);
+
+  /**
+   * Get the matching fsclients one at a time, without holding all of them
+   * in memory. The stream holds database resources, so it must be closed
+   * (e.g., with try-with-resources) once you're done with it.
+   *
+   * @param query the filters, order, and page of fsclients to get
+   * @return a stream of the matching fsclients, in order
+   */
+  Stream<Fsclient> stream(FsclientQuery query);
+
+  /**
+   * Add a new fsclient, assigning it an id if it doesn't have one.
+   *
+   * @param fsclient the fsclient to add
+   * @return the id of the new fsclient
+   */
+  String insert(Fsclient fsclient);
+
+  /**
+   * @param id the id of the fsclient to delete
+   * @return the fsclient that was deleted, or `null` if there wasn't one
+   */
+  Fsclient delete(String id);
+
+  /**
+   * Delete several fsclients at once. If any of the ids isn't legal,
+   * nothing is deleted.
+   *
+   * @param ids the ids of the fsclients to delete
+   * @return the fsclients that were deleted, each once, in no particular
+   *   order
+   */
+  List<Fsclient> deleteByIds(Collection<String> ids);
+
+  /**
+   * @return the counts of all the fsclients by role, company, and age band
+   */
+  FsclientStats stats();
+}
@@ -0,0 +1,217 @@
+package umm3601.fsclient;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * An in-memory inverted index of fsclients' names, companies, and emails,
+ * for search-as-you-type.
+ * <p>
+ * Each field is split into lowercase words (so "ConnieStewart@ohmnet.com"
+ * becomes "conniestewart", "ohmnet", and "com"), and the index maps each
+ * word to the fsclients that contain it. The words are kept sorted, so all
+ * the words starting with a prefix are one range of the map, which is what
+ * makes prefix search cheap enough to run on every keystroke.
+ * <p>
+ * A search matches fsclients that have a word starting with <em>every</em>
+ * word of the query. Matches are ranked by where the words were found (a
+ * name match counts for more than a company match, which counts for more
+ * than an email match), with whole-word matches counting double.
+ * <p>
+ * The index only keeps the `_id` and the three searchable fields of each
+ * fsclient, not the whole fsclient, so a search returns ids, and the
+ * caller looks the fsclients up (e.g., in the single fsclient cache).
+ * <p>
+ * Searches don't lock anything. Adding and removing fsclients are
+ * synchronized with each other, and a search running at the same time may
+ * or may not see a fsclient that is being added or removed.
+ */
+public class FsclientSearchIndex {
+
+  static final int NAME_WEIGHT = 4;
+  static final int COMPANY_WEIGHT = 2;
+  static final int EMAIL_WEIGHT = 1;
+  private static final int WHOLE_WORD_FACTOR = 2;
+
+  // The highest char value, so `prefix + LAST_CHAR` is after every word
+  // starting with `prefix`
+  private static final char LAST_CHAR = '\uffff';
+
+  /**
+   * The fields of an fsclient that are indexed.
+   */
+  private record Entry(String name, String company, String email) { }
+
+  // word -> (fsclient id -> weight of the fields the word appears in)
+  private final ConcurrentSkipListMap<String, Map<String, Integer>> postings = new ConcurrentSkipListMap<>();
+  // fsclient id -> its indexed fields
+  private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+
+  /**
+   * Add a fsclient to the index, replacing it if it's already there.
+   *
+   * @param fsclient the fsclient to add; it must have an `_id`, and only
+   *   its `name`, `company`, and `email` are used
+   */
+  public synchronized void add(Fsclient fsclient) {
+    remove(fsclient._id);
+    Entry entry = new Entry(fsclient.name, fsclient.company, fsclient.email);
+    for (Map.Entry<String, Integer> word : weightedWords(entry).entrySet()) {
+      postings.computeIfAbsent(word.getKey(), key -> new ConcurrentHashMap<>()).put(fsclient._id, word.getValue());
+    }
+    entries.put(fsclient._id, entry);
+  }
+
+  /**
+   * Remove a fsclient from the index, if it's there.
+   *
+   * @param id the `_id` of the fsclient to remove
+   */
+  public synchronized void remove(String id) {
+    Entry entry = entries.remove(id);
+    if (entry == null) {
+      return;
+    }
+    for (String word : weightedWords(entry).keySet()) {
+      Map<String, Integer> ids = postings.get(word);
+      if (ids != null) {
+        ids.remove(id);
+        if (ids.isEmpty()) {
+          postings.remove(word);
+        }
+      }
+    }
+  }
+
+  /**
+   * @param id the `_id` of a fsclient
+   * @return whether that fsclient is in the index
+   */
+  public boolean contains(String id) {
+    return entries.containsKey(id);
+  }
+
+  /**
+   * @return the number of fsclients in the index
+   */
+  public int size() {
+    return entries.size();
+  }
+
+  /**
+   * Find the fsclients that best match a query.
+   *
+   * @param query the words to search for; the last one can be partial
+   * @param limit the most fsclients to return
+   * @return the `_id`s of the matching fsclients, best match first
+   */
+  public List<String> search(String query, int limit) {
+    List<String> queryWords = words(query);
+    if (queryWords.isEmpty()) {
+      return List.of();
+    }
+
+    Map<String, Integer> scores = null;
+    for (String queryWord : queryWords) {
+      Map<String, Integer> wordScores = scoreWord(queryWord);
+      if (scores == null) {
+        scores = wordScores;
+      } else {
+        // Only keep fsclients that match every word
+        Map<String, Integer> previous = scores;
+        scores = new HashMap<>();
+        for (Map.Entry<String, Integer> score : wordScores.entrySet()) {
+          Integer previousScore = previous.get(score.getKey());
+          if (previousScore != null) {
+            scores.put(score.getKey(), previousScore + score.getValue());
+          }
+        }
+      }
+      if (scores.isEmpty()) {
+        return List.of();
+      }
+    }
+
+    Map<String, Integer> finalScores = scores;
+    List<String> matches = new ArrayList<>();
+    Map<String, String> names = new HashMap<>();
+    for (String id : finalScores.keySet()) {
+      Entry entry = entries.get(id);
+      if (entry != null) {
+        matches.add(id);
+        names.put(id, entry.name());
+      }
+    }
+    matches.sort(Comparator
+      .comparing((String id) -> finalScores.get(id), Comparator.reverseOrder())
+      .thenComparing(names::get, Comparator.nullsLast(Comparator.naturalOrder()))
+      .thenComparing(Comparator.naturalOrder()));
+    return matches.size() > limit ? matches.subList(0, limit) : matches;
+  }
+
+  /**
+   * Score every fsclient with a word starting with the query word.
+   */
+  private Map<String, Integer> scoreWord(String queryWord) {
+    Map<String, Integer> scores = new HashMap<>();
+    NavigableMap<String, Map<String, Integer>> matchingWords
+      = postings.subMap(queryWord, true, queryWord + LAST_CHAR, false);
+    for (Map.Entry<String, Map<String, Integer>> word : matchingWords.entrySet()) {
+      int factor = word.getKey().equals(queryWord) ? WHOLE_WORD_FACTOR : 1;
+      for (Map.Entry<String, Integer> posting : word.getValue().entrySet()) {
+        // A fsclient can have several words starting with the query word;
+        // only count the best of them.
+        scores.merge(posting.getKey(), posting.getValue() * factor, Math::max);
+      }
+    }
+    return scores;
+  }
+
+  /**
+   * @return every word in the fsclient's searchable fields, with the
+   *   total weight of the fields it appears in
+   */
+  private static Map<String, Integer> weightedWords(Entry entry) {
+    Map<String, Integer> weights = new HashMap<>();
+    addWords(weights, entry.name(), NAME_WEIGHT);
+    addWords(weights, entry.company(), COMPANY_WEIGHT);
+    addWords(weights, entry.email(), EMAIL_WEIGHT);
+    return weights;
+  }
+
+  private static void addWords(Map<String, Integer> weights, String field, int weight) {
+    for (String word : new HashSet<>(words(field))) {
+      weights.merge(word, weight, Integer::sum);
+    }
+  }
+
+  /**
+   * Split text into lowercase words of letters and digits.
+   */
+  static List<String> words(String text) {
+    List<String> words = new ArrayList<>();
+    if (text == null) {
+      return words;
+    }
+    String lowercase = text.toLowerCase(Locale.ROOT);
+    int start = -1;
+    for (int i = 0; i <= lowercase.length(); i++) {
+      boolean wordChar = i < lowercase.length() && Character.isLetterOrDigit(lowercase.charAt(i));
+      if (wordChar && start < 0) {
+        start = i;
+      } else if (!wordChar && start >= 0) {
+        words.add(lowercase.substring(start, i));
+        start = -1;
+      }
+    }
+    return words;
+  }
+}
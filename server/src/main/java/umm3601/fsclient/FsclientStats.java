@@ -0,0 +1,135 @@
+package umm3601.fsclient;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Counts of fsclients by role, by company, and by age band (0-9, 10-19,
+ * and so on), for reports.
+ * <p>
+ * `FsclientRepository.stats()` computes these from scratch; after that
+ * they can be kept up to date with `add` and `remove` as fsclients come
+ * and go, so reports never have to look at the fsclients themselves.
+ */
+public class FsclientStats {
+
+  static final int AGE_BAND_WIDTH = 10;
+  static final int AGE_BANDS = 15;
+  // The bucket for ages outside every band, as in MongoDB's `$bucket`
+  static final String OTHER_AGES = "other";
+  // What we count fsclients without a role or company as
+  static final String UNKNOWN = "unknown";
+  // What we count fsclients without an age as, since that's what their
+  // (int) `age` reads back as
+  static final int MISSING_AGE = 0;
+
+  private long total;
+  private final Map<String, Long> byRole = new TreeMap<>();
+  private final Map<String, Long> byCompany = new TreeMap<>();
+  // Keyed by the lowest age in the band, or -1 for the other ages, so
+  // that the bands are in order
+  private final Map<Integer, Long> byAgeBand = new TreeMap<>();
+
+  /**
+   * @return the boundaries of the age bands, as MongoDB's `$bucket` takes
+   *   them
+   */
+  static List<Integer> ageBoundaries() {
+    List<Integer> boundaries = new ArrayList<>(AGE_BANDS + 1);
+    for (int band = 0; band <= AGE_BANDS; band++) {
+      boundaries.add(band * AGE_BAND_WIDTH);
+    }
+    return boundaries;
+  }
+
+  /**
+   * Count a new fsclient.
+   *
+   * @param fsclient the fsclient that was added
+   */
+  public synchronized void add(Fsclient fsclient) {
+    count(fsclient, 1);
+  }
+
+  /**
+   * Stop counting a deleted fsclient.
+   *
+   * @param fsclient the fsclient that was deleted
+   */
+  public synchronized void remove(Fsclient fsclient) {
+    count(fsclient, -1);
+  }
+
+  private void count(Fsclient fsclient, long change) {
+    countRole(fsclient.role, change);
+    countCompany(fsclient.company, change);
+    countAgeBand(ageBand(fsclient.age), change);
+  }
+
+  /**
+   * Change the number of fsclients with a role; this also changes the
+   * total, since every fsclient has one role (or none).
+   */
+  synchronized void countRole(String role, long change) {
+    total += change;
+    adjust(byRole, role == null ? UNKNOWN : role, change);
+  }
+
+  synchronized void countCompany(String company, long change) {
+    adjust(byCompany, company == null ? UNKNOWN : company, change);
+  }
+
+  /**
+   * @param band the lowest age in the band, or -1 for the other ages
+   */
+  synchronized void countAgeBand(int band, long change) {
+    adjust(byAgeBand, band, change);
+  }
+
+  /**
+   * @param age an age
+   * @return the lowest age in its band, or -1 if it's outside all of them
+   */
+  static int ageBand(int age) {
+    if (age < 0 || age >= AGE_BANDS * AGE_BAND_WIDTH) {
+      return -1;
+    }
+    return age / AGE_BAND_WIDTH * AGE_BAND_WIDTH;
+  }
+
+  private static <K> void adjust(Map<K, Long> counts, K key, long change) {
+    long count = counts.getOrDefault(key, 0L) + change;
+    if (count <= 0) {
+      counts.remove(key);
+    } else {
+      counts.put(key, count);
+    }
+  }
+
+  /**
+   * @return the counts, in the form we send to clients: the `total`, and
+   *   maps of the counts `byRole`, `byCompany`, and `byAge` (where the
+   *   keys are bands like "20-29")
+   */
+  public synchronized Map<String, Object> toMap() {
+    Map<String, Long> byAge = new LinkedHashMap<>();
+    byAgeBand.forEach((band, count) -> {
+      if (band >= 0) {
+        byAge.put(band + "-" + (band + AGE_BAND_WIDTH - 1), count);
+      }
+    });
+    if (byAgeBand.containsKey(-1)) {
+      byAge.put(OTHER_AGES, byAgeBand.get(-1));
+    }
+
+    Map<String, Object> stats = new LinkedHashMap<>();
+    stats.put("total", total);
+    stats.put("byRole", new TreeMap<>(byRole));
+    stats.put("byCompany", new TreeMap<>(byCompany));
+    stats.put("byAge", byAge);
+    return stats;
+  }
+}
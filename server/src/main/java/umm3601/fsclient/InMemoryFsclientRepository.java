@@ -0,0 +1,266 @@
+package umm3601.fsclient;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+import org.bson.types.ObjectId;
+
+import umm3601.util.CaseInsensitiveOrder;
+import umm3601.util.PageCursor;
+
+/**
+ * An `FsclientRepository` that keeps fsclients in memory, for running the
+ * server (e.g., for load tests or hermetic tests) without MongoDB.
+ * <p>
+ * Queries behave like those of `MongoFsclientRepository`: the same
+ * filters, the same case-insensitive matching and sorting of strings, and
+ * the same `_id` tie breaking and `after` cursors. Like the MongoDB
+ * collection, there are indexes on `age`, `role`, and `company`, so a
+ * filtered query only looks at the fsclients that might match.
+ * <p>
+ * Reads don't lock. Writes are serialized, so that the fsclients and the
+ * indexes change together; a read that overlaps a write may or may not see
+ * it, but since every candidate is checked against the whole filter, a
+ * read never returns an fsclient that doesn't match.
+ */
+public class InMemoryFsclientRepository implements FsclientRepository {
+
+  // The comparators for the fields fsclients can be sorted by
+  private static final Map<String, Comparator<Fsclient>> FIELD_ORDERS = Map.of(
+    "_id", Comparator.comparing((Fsclient fsclient) -> fsclient._id),
+    "name", byString(fsclient -> fsclient.name),
+    "age", Comparator.comparingInt((Fsclient fsclient) -> fsclient.age),
+    "company", byString(fsclient -> fsclient.company),
+    "email", byString(fsclient -> fsclient.email),
+    "role", byString(fsclient -> fsclient.role));
+
+  private final Map<String, Fsclient> fsclients = new ConcurrentHashMap<>();
+  // The indexes, from a value of the field to the ids of the fsclients
+  // with it. Strings are lower cased, so that lookups ignore case, and the
+  // companies are kept in order so we can find those with a prefix.
+  private final Map<Integer, Set<String>> byAge = new ConcurrentHashMap<>();
+  private final Map<String, Set<String>> byRole = new ConcurrentHashMap<>();
+  private final ConcurrentSkipListMap<String, Set<String>> byCompany = new ConcurrentSkipListMap<>();
+
+  @Override
+  public void ensureIndexes() {
+    // The indexes are always there
+  }
+
+  @Override
+  public Fsclient findById(String id) {
+    return fsclients.get(checkId(id));
+  }
+
+  @Override
+  public List<Fsclient> findByIds(Collection<String> ids) {
+    List<Fsclient> found = new ArrayList<>();
+    for (String id : checkIds(ids)) {
+      Fsclient fsclient = fsclients.get(id);
+      if (fsclient != null) {
+        found.add(fsclient);
+      }
+    }
+    return found;
+  }
+
+  @Override
+  public List<Fsclient> find(FsclientQuery query) {
+    Comparator<Fsclient> order = FIELD_ORDERS.get(query.sortBy)
+      .thenComparing(fsclient -> fsclient._id);
+    if (query.descending) {
+      order = order.reversed();
+    }
+
+    List<Fsclient> matches = new ArrayList<>();
+    for (String id : candidates(query)) {
+      Fsclient fsclient = fsclients.get(id);
+      if (fsclient != null && matches(query, fsclient)) {
+        matches.add(fsclient);
+      }
+    }
+
+    if (query.after != null) {
+      Fsclient last = fsclientAt(query.after);
+      Comparator<Fsclient> finalOrder = order;
+      matches.removeIf(fsclient -> finalOrder.compare(fsclient, last) <= 0);
+    }
+
+    matches.sort(order);
+    if (query.limit > 0 && matches.size() > query.limit) {
+      return new ArrayList<>(matches.subList(0, query.limit));
+    }
+    // The controller only serializes the requested `fields`, so there's
+    // no need to copy the fsclients to leave the others out.
+    return matches;
+  }
+
+  @Override
+  public Stream<Fsclient> stream(FsclientQuery query) {
+    return find(query).stream();
+  }
+
+  @Override
+  public synchronized String insert(Fsclient fsclient) {
+    if (fsclient._id == null) {
+      fsclient._id = new ObjectId().toHexString();
+    } else if (fsclients.containsKey(checkId(fsclient._id))) {
+      throw new IllegalArgumentException("There is already an fsclient with id " + fsclient._id);
+    }
+    fsclients.put(fsclient._id, fsclient);
+    index(byAge, fsclient.age, fsclient._id);
+    index(byRole, lowerCase(fsclient.role), fsclient._id);
+    index(byCompany, lowerCase(fsclient.company), fsclient._id);
+    return fsclient._id;
+  }
+
+  @Override
+  public synchronized Fsclient delete(String id) {
+    Fsclient fsclient = fsclients.remove(checkId(id));
+    if (fsclient != null) {
+      unindex(byAge, fsclient.age, id);
+      unindex(byRole, lowerCase(fsclient.role), id);
+      unindex(byCompany, lowerCase(fsclient.company), id);
+    }
+    return fsclient;
+  }
+
+  @Override
+  public synchronized List<Fsclient> deleteByIds(Collection<String> ids) {
+    List<Fsclient> deleted = new ArrayList<>();
+    for (String id : checkIds(ids)) {
+      Fsclient fsclient = delete(id);
+      if (fsclient != null) {
+        deleted.add(fsclient);
+      }
+    }
+    return deleted;
+  }
+
+  @Override
+  public FsclientStats stats() {
+    FsclientStats stats = new FsclientStats();
+    fsclients.values().forEach(stats::add);
+    return stats;
+  }
+
+  /**
+   * @return the ids of the fsclients that might match the query, using the
+   *   most selective index that applies
+   */
+  private Collection<String> candidates(FsclientQuery query) {
+    if (query.age != null) {
+      return byAge.getOrDefault(query.age, Set.of());
+    }
+    if (query.role != null) {
+      return byRole.getOrDefault(lowerCase(query.role), Set.of());
+    }
+    if (query.companyPrefix != null) {
+      // Every company starting with the prefix sorts between the prefix
+      // and the prefix followed by the last possible character
+      String prefix = lowerCase(query.companyPrefix);
+      List<String> ids = new ArrayList<>();
+      byCompany
+        .subMap(prefix, prefix + Character.MAX_VALUE)
+        .values()
+        .forEach(ids::addAll);
+      return ids;
+    }
+    return fsclients.keySet();
+  }
+
+  /**
+   * @return a fsclient that sorts exactly where the cursor is
+   */
+  private static Fsclient fsclientAt(PageCursor cursor) {
+    Fsclient fsclient = new Fsclient();
+    fsclient._id = cursor.id();
+    Object value = cursor.value();
+    String text = value == null ? null : value.toString();
+    switch (cursor.sortBy()) {
+      case "name":
+        fsclient.name = text;
+        break;
+      case "age":
+        fsclient.age = value instanceof Number ? ((Number) value).intValue() : 0;
+        break;
+      case "company":
+        fsclient.company = text;
+        break;
+      case "email":
+        fsclient.email = text;
+        break;
+      case "role":
+        fsclient.role = text;
+        break;
+      default:
+        break;
+    }
+    return fsclient;
+  }
+
+  private static boolean matches(FsclientQuery query, Fsclient fsclient) {
+    if (query.age != null && fsclient.age != query.age) {
+      return false;
+    }
+    if (query.role != null && !lowerCase(query.role).equals(lowerCase(fsclient.role))) {
+      return false;
+    }
+    return query.companyPrefix == null
+      || (fsclient.company != null && lowerCase(fsclient.company).startsWith(lowerCase(query.companyPrefix)));
+  }
+
+  private static <K> void index(Map<K, Set<String>> index, K key, String id) {
+    if (key != null) {
+      index.computeIfAbsent(key, k -> ConcurrentHashMap.newKeySet()).add(id);
+    }
+  }
+
+  private static <K> void unindex(Map<K, Set<String>> index, K key, String id) {
+    if (key != null) {
+      index.computeIfPresent(key, (k, ids) -> {
+        ids.remove(id);
+        return ids.isEmpty() ? null : ids;
+      });
+    }
+  }
+
+  private static Comparator<Fsclient> byString(Function<Fsclient, String> field) {
+    return Comparator.comparing(field, CaseInsensitiveOrder.ORDER);
+  }
+
+  private static String lowerCase(String value) {
+    return value == null ? null : value.toLowerCase(Locale.ROOT);
+  }
+
+  /**
+   * Check all the ids up front, so an illegal one fails the whole request
+   * rather than part of it.
+   *
+   * @return the ids, without duplicates
+   */
+  private static Set<String> checkIds(Collection<String> ids) {
+    Set<String> checked = new LinkedHashSet<>();
+    for (String id : ids) {
+      checked.add(checkId(id));
+    }
+    return checked;
+  }
+
+  private static String checkId(String id) {
+    if (!ObjectId.isValid(id)) {
+      throw new IllegalArgumentException("Not a legal Mongo Object ID: " + id);
+    }
+    return id;
+  }
+}
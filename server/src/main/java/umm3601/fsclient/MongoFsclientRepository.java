@@ -0,0 +1,269 @@
+package umm3601.fsclient;
+
+import static com.mongodb.client.model.Filters.and;
+import static com.mongodb.client.model.Filters.eq;
+import static com.mongodb.client.model.Filters.gte;
+import static com.mongodb.client.model.Filters.in;
+import static com.mongodb.client.model.Filters.lt;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import com.mongodb.client.FindIterable;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoCursor;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.Accumulators;
+import com.mongodb.client.model.Aggregates;
+import com.mongodb.client.model.BucketOptions;
+import com.mongodb.client.model.Collation;
+import com.mongodb.client.model.CollationStrength;
+import com.mongodb.client.model.Facet;
+import com.mongodb.client.model.IndexModel;
+import com.mongodb.client.model.IndexOptions;
+import com.mongodb.client.model.Indexes;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.Sorts;
+
+import org.bson.Document;
+import org.bson.UuidRepresentation;
+import org.bson.conversions.Bson;
+import org.bson.types.ObjectId;
+import org.mongojack.JacksonMongoCollection;
+
+/**
+ * An `FsclientRepository` that keeps fsclients in a MongoDB collection.
+ */
+public class MongoFsclientRepository implements FsclientRepository {
+
+  static final String COLLECTION_NAME = "fsclients";
+
+  // All fsclient queries and indexes use this case-insensitive collation. Using
+  // the same collation everywhere means the indexes can serve both the
+  // case-insensitive `company` matching and the sorting on string fields.
+  static final Collation CASE_INSENSITIVE = Collation.builder()
+    .locale("en")
+    .collationStrength(CollationStrength.SECONDARY)
+    .build();
+
+  // Under the collation above U+FFFF sorts after every other character, so
+  // every string with a given prefix is less than the prefix followed by this.
+  private static final String PREFIX_UPPER_BOUND = "\uffff";
+
+  private static final int STREAM_BATCH_SIZE = 500;
+
+  private final JacksonMongoCollection<Fsclient> fsclientCollection;
+  // The same collection, but as raw documents, for creating indexes and
+  // for reading the results of the stats aggregation.
+  private final MongoCollection<Document> fsclientDocuments;
+
+  /**
+   * Construct a repository for the fsclients in the given database.
+   *
+   * @param database the database containing fsclient data
+   */
+  public MongoFsclientRepository(MongoDatabase database) {
+    fsclientCollection = JacksonMongoCollection.builder().build(
+        database,
+        COLLECTION_NAME,
+        Fsclient.class,
+        UuidRepresentation.STANDARD);
+    fsclientDocuments = database.getCollection(COLLECTION_NAME);
+  }
+
+  /**
+   * Make sure the fsclient collection has the indexes that back the filters
+   * and sort orders supported by `FsclientQuery`. Creating an index that already
+   * exists does nothing, so this is safe to call every time the server starts.
+   * <p>
+   * Every sortable field gets an index ending with `_id`, matching the sort order
+   * built by `constructSortingOrder`, and the `age` and `role` filters get compound
+   * indexes that also cover the default sort by name.
+   */
+  @Override
+  public void ensureIndexes() {
+    IndexOptions options = new IndexOptions().collation(CASE_INSENSITIVE);
+    List<IndexModel> indexes = new ArrayList<>();
+    for (String field : FsclientQuery.SORTABLE_FIELDS) {
+      if (!field.equals("_id")) {
+        indexes.add(new IndexModel(Indexes.ascending(field, "_id"), options));
+      }
+    }
+    indexes.add(new IndexModel(Indexes.ascending("age", "name", "_id"), options));
+    indexes.add(new IndexModel(Indexes.ascending("role", "name", "_id"), options));
+    fsclientDocuments.createIndexes(indexes);
+  }
+
+  @Override
+  public Fsclient findById(String id) {
+    return fsclientCollection.find(eq("_id", new ObjectId(id))).first();
+  }
+
+  @Override
+  public List<Fsclient> findByIds(Collection<String> ids) {
+    return fsclientCollection.find(in("_id", objectIds(ids))).into(new ArrayList<>());
+  }
+
+  @Override
+  public List<Fsclient> find(FsclientQuery query) {
+    return findIterable(query).into(new ArrayList<>());
+  }
+
+  @Override
+  public Stream<Fsclient> stream(FsclientQuery query) {
+    MongoCursor<Fsclient> cursor = findIterable(query).batchSize(STREAM_BATCH_SIZE).iterator();
+    return StreamSupport
+      .stream(Spliterators.spliteratorUnknownSize(cursor, Spliterator.ORDERED | Spliterator.NONNULL), false)
+      .onClose(cursor::close);
+  }
+
+  @Override
+  public String insert(Fsclient fsclient) {
+    fsclientCollection.insertOne(fsclient);
+    return fsclient._id;
+  }
+
+  @Override
+  public Fsclient delete(String id) {
+    // Getting the deleted fsclient back lets the caller update anything
+    // derived from it (like the stats) without looking it up first.
+    return fsclientCollection.findOneAndDelete(eq("_id", new ObjectId(id)));
+  }
+
+  /**
+   * Delete the fsclients with one `deleteMany`. That only tells us how many
+   * it deleted, not which ones, so we find them first (with one `$in`
+   * query) and then delete just those. If someone else deletes some of
+   * them in between, both of us will report deleting them.
+   */
+  @Override
+  public List<Fsclient> deleteByIds(Collection<String> ids) {
+    List<Fsclient> found = findByIds(ids);
+    if (!found.isEmpty()) {
+      List<String> foundIds = new ArrayList<>();
+      found.forEach(fsclient -> foundIds.add(fsclient._id));
+      fsclientCollection.deleteMany(in("_id", objectIds(foundIds)));
+    }
+    return found;
+  }
+
+  /**
+   * Count the fsclients with a single aggregation, using `$facet` to group
+   * them by role, by company, and into age bands all in one pass over the
+   * collection. Fsclients without an age go in the same band as they do in
+   * `FsclientStats.add`, so the counts can be kept up to date with it.
+   */
+  @Override
+  public FsclientStats stats() {
+    Document result = fsclientDocuments.aggregate(List.of(Aggregates.facet(
+      new Facet("byRole", Aggregates.group("$role", Accumulators.sum("count", 1))),
+      new Facet("byCompany", Aggregates.group("$company", Accumulators.sum("count", 1))),
+      new Facet("byAge", Aggregates.bucket(
+        new Document("$ifNull", List.of("$age", FsclientStats.MISSING_AGE)),
+        FsclientStats.ageBoundaries(),
+        new BucketOptions()
+          .defaultBucket(FsclientStats.OTHER_AGES)
+          .output(Accumulators.sum("count", 1)))))))
+      .first();
+
+    FsclientStats stats = new FsclientStats();
+    for (Document group : result.getList("byRole", Document.class)) {
+      stats.countRole(group.getString("_id"), count(group));
+    }
+    for (Document group : result.getList("byCompany", Document.class)) {
+      stats.countCompany(group.getString("_id"), count(group));
+    }
+    for (Document bucket : result.getList("byAge", Document.class)) {
+      // Each bucket's `_id` is its lower boundary, or "other"
+      Object band = bucket.get("_id");
+      stats.countAgeBand(band instanceof Number ? ((Number) band).intValue() : -1, count(bucket));
+    }
+    return stats;
+  }
+
+  private static List<ObjectId> objectIds(Collection<String> ids) {
+    // Convert them all before querying, so an illegal id fails the whole
+    // request rather than part of it
+    List<ObjectId> objectIds = new ArrayList<>();
+    for (String id : ids) {
+      objectIds.add(new ObjectId(id));
+    }
+    return objectIds;
+  }
+
+  private static long count(Document group) {
+    return group.get("count", Number.class).longValue();
+  }
+
+  private FindIterable<Fsclient> findIterable(FsclientQuery query) {
+    Bson combinedFilter = constructFilter(query);
+    if (query.after != null) {
+      combinedFilter = and(combinedFilter, query.after.filter(query.descending));
+    }
+
+    // All of the find, sort, and limit steps happen "in parallel" inside the
+    // database system. So MongoDB is going to find the fsclients with the specified
+    // properties and return those sorted in the specified manner.
+    FindIterable<Fsclient> fsclients = fsclientCollection
+      .find(combinedFilter)
+      .sort(constructSortingOrder(query))
+      .collation(CASE_INSENSITIVE);
+    if (query.limit > 0) {
+      fsclients = fsclients.limit(query.limit);
+    }
+    if (query.fields != null) {
+      fsclients = fsclients.projection(constructProjection(query));
+    }
+    return fsclients;
+  }
+
+  static Bson constructFilter(FsclientQuery query) {
+    List<Bson> filters = new ArrayList<>(); // start with a blank document
+
+    if (query.age != null) {
+      filters.add(eq("age", query.age));
+    }
+    if (query.companyPrefix != null) {
+      // Match companies that start with the given text, ignoring case. Because
+      // the query uses the case-insensitive collation this range can be answered
+      // from the `company` index, unlike a case-insensitive regex.
+      filters.add(and(
+        gte("company", query.companyPrefix),
+        lt("company", query.companyPrefix + PREFIX_UPPER_BOUND)));
+    }
+    if (query.role != null) {
+      filters.add(eq("role", query.role));
+    }
+
+    // Combine the list of filters into a single filtering document.
+    Bson combinedFilter = filters.isEmpty() ? new Document() : and(filters);
+
+    return combinedFilter;
+  }
+
+  static Bson constructSortingOrder(FsclientQuery query) {
+    // We always break ties on `_id` (in the same direction) so that the order is
+    // total, which is what makes the `after` pagination cursor well defined.
+    Bson sortingOrder = query.descending
+      ? Sorts.descending(query.sortBy, "_id")
+      : Sorts.ascending(query.sortBy, "_id");
+    return sortingOrder;
+  }
+
+  static Bson constructProjection(FsclientQuery query) {
+    // Only send the requested fields back from the database. (`_id` is
+    // included unless it's explicitly excluded, which we never do.) We
+    // also need the sort field, for the cursor for the next page; it's
+    // left out when the fsclients are written to the response.
+    Set<String> fields = new LinkedHashSet<>(query.fields);
+    fields.add(query.sortBy);
+    return Projections.include(new ArrayList<>(fields));
+  }
+}
@@ -0,0 +1,70 @@
+package umm3601.limits;
+
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.mongodb.event.CommandFailedEvent;
+import com.mongodb.event.CommandListener;
+import com.mongodb.event.CommandSucceededEvent;
+
+/**
+ * Keeps a moving average of how long MongoDB is taking to answer, so we
+ * can stop sending it more work when it's struggling.
+ * <p>
+ * Only the CRUD commands count. Things like `getMore` on a change stream
+ * are <em>supposed</em> to wait, and would make MongoDB look slow when it
+ * isn't. If there haven't been any commands for a while, the average is
+ * too old to trust and MongoDB is assumed to be fine.
+ */
+public class MongoLatencyMonitor implements CommandListener {
+
+  private static final Set<String> TRACKED_COMMANDS
+    = Set.of("insert", "update", "delete", "find", "findAndModify", "count");
+
+  // How much each new command moves the average
+  private static final double SMOOTHING = 0.2;
+  private static final long STALE_AFTER_NANOS = TimeUnit.SECONDS.toNanos(5);
+
+  // The average, as the bits of a double, so it can be updated with a
+  // compare-and-set
+  private final AtomicLong averageBits = new AtomicLong(Double.doubleToLongBits(0));
+  private final AtomicLong lastUpdate = new AtomicLong(System.nanoTime());
+
+  @Override
+  public void commandSucceeded(CommandSucceededEvent event) {
+    if (TRACKED_COMMANDS.contains(event.getCommandName())) {
+      record(event.getElapsedTime(TimeUnit.NANOSECONDS));
+    }
+  }
+
+  @Override
+  public void commandFailed(CommandFailedEvent event) {
+    if (TRACKED_COMMANDS.contains(event.getCommandName())) {
+      record(event.getElapsedTime(TimeUnit.NANOSECONDS));
+    }
+  }
+
+  void record(long nanos) {
+    while (true) {
+      long bits = averageBits.get();
+      double average = Double.longBitsToDouble(bits);
+      double updated = average + SMOOTHING * (nanos - average);
+      if (averageBits.compareAndSet(bits, Double.doubleToLongBits(updated))) {
+        break;
+      }
+    }
+    lastUpdate.set(System.nanoTime());
+  }
+
+  /**
+   * @return the recent average command time, in nanoseconds, or 0 if
+   *   there haven't been any commands recently
+   */
+  public long averageNanos() {
+    if (System.nanoTime() - lastUpdate.get() > STALE_AFTER_NANOS) {
+      return 0;
+    }
+    return (long) Double.longBitsToDouble(averageBits.get());
+  }
+}
@@ -0,0 +1,80 @@
+package umm3601.limits;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * A token bucket rate limiter that holds up to `burst` tokens and refills
+ * at `ratePerSecond` tokens per second; each request takes one token.
+ * <p>
+ * Rather than counting tokens and refilling them, this keeps a single
+ * number: the time at which the bucket will be full again (this is the
+ * "generic cell rate algorithm", which behaves exactly like a token
+ * bucket). Taking a token pushes that time one refill interval later, and
+ * a request is refused if that would push it more than `burst` intervals
+ * into the future. Since that's one `long`, it can be updated with a
+ * compare-and-set, so the bucket never locks.
+ */
+public class TokenBucket {
+
+  private static final long NANOS_PER_SECOND = 1_000_000_000L;
+
+  private final long intervalNanos;
+  private final long burstNanos;
+  private final LongSupplier clock;
+  private final AtomicLong fullAt;
+
+  /**
+   * @param ratePerSecond how many requests per second are allowed over time
+   * @param burst how many requests are allowed at once
+   */
+  public TokenBucket(double ratePerSecond, int burst) {
+    this(ratePerSecond, burst, System::nanoTime);
+  }
+
+  /**
+   * Construct a bucket that reads the time from the given clock. This is
+   * mostly useful for testing.
+   *
+   * @param ratePerSecond how many requests per second are allowed over time
+   * @param burst how many requests are allowed at once
+   * @param clock a source of the current time, in nanoseconds
+   */
+  TokenBucket(double ratePerSecond, int burst, LongSupplier clock) {
+    if (ratePerSecond <= 0 || burst <= 0) {
+      throw new IllegalArgumentException("The rate and burst must be greater than zero");
+    }
+    this.intervalNanos = (long) (NANOS_PER_SECOND / ratePerSecond);
+    this.burstNanos = intervalNanos * burst;
+    this.clock = clock;
+    this.fullAt = new AtomicLong(clock.getAsLong());
+  }
+
+  /**
+   * Take a token, if there is one.
+   *
+   * @return 0 if a token was taken, otherwise how long (in nanoseconds)
+   *   until there will be one
+   */
+  public long tryTake() {
+    while (true) {
+      long now = clock.getAsLong();
+      long current = fullAt.get();
+      long next = Math.max(current, now) + intervalNanos;
+      if (next - now > burstNanos) {
+        return next - now - burstNanos;
+      }
+      if (fullAt.compareAndSet(current, next)) {
+        return 0;
+      }
+    }
+  }
+
+  /**
+   * @return whether the bucket is full, so forgetting it would make no
+   *   difference
+   */
+  public boolean isFull() {
+    return fullAt.get() - clock.getAsLong() <= 0;
+  }
+}
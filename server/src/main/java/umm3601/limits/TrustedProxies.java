@@ -0,0 +1,191 @@
+package umm3601.limits;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The reverse proxies (e.g., the Caddy server in our docker-compose setup)
+ * whose `X-Forwarded-For` headers we believe, so that we can tell which
+ * client a proxied request really came from.
+ * <p>
+ * The proxies are given as a comma separated list of IP addresses and
+ * CIDR ranges, like `10.0.0.0/8, 127.0.0.1`. A request straight from a
+ * client (or from a proxy we don't trust) is from the address it came
+ * from; we ignore its `X-Forwarded-For`, since anyone can send one.
+ */
+public final class TrustedProxies {
+
+  private static final int BITS_PER_BYTE = 8;
+  private static final int BYTE_MASK = 0xff;
+  private static final int HEX_RADIX = 16;
+  private static final int IPV4_PARTS = 4;
+  private static final int MAX_IPV4_PART_LENGTH = 3;
+
+  /**
+   * A range of addresses: those whose first `prefixLength` bits are the
+   * same as `network`'s.
+   */
+  private record Range(byte[] network, int prefixLength) {
+
+    boolean contains(byte[] address) {
+      if (address.length != network.length) {
+        return false;
+      }
+      int fullBytes = prefixLength / BITS_PER_BYTE;
+      for (int i = 0; i < fullBytes; i++) {
+        if (address[i] != network[i]) {
+          return false;
+        }
+      }
+      int remainingBits = prefixLength % BITS_PER_BYTE;
+      if (remainingBits == 0) {
+        return true;
+      }
+      int mask = (BYTE_MASK << (BITS_PER_BYTE - remainingBits)) & BYTE_MASK;
+      return (address[fullBytes] & mask) == (network[fullBytes] & mask);
+    }
+  }
+
+  private final List<Range> ranges;
+
+  private TrustedProxies(List<Range> ranges) {
+    this.ranges = ranges;
+  }
+
+  /**
+   * @return trusted proxies that trust no proxies at all
+   */
+  public static TrustedProxies none() {
+    return new TrustedProxies(List.of());
+  }
+
+  /**
+   * Read a list of trusted proxies.
+   *
+   * @param spec a comma separated list of IP addresses and CIDR ranges, or
+   *   `null` or blank for none
+   * @return the trusted proxies
+   * @throws IllegalArgumentException if an entry isn't an IP address or a
+   *   CIDR range
+   */
+  public static TrustedProxies parse(String spec) {
+    List<Range> ranges = new ArrayList<>();
+    if (spec == null) {
+      return new TrustedProxies(ranges);
+    }
+    for (String entry : spec.split(",")) {
+      String trimmed = entry.trim();
+      if (trimmed.isEmpty()) {
+        continue;
+      }
+      int slash = trimmed.indexOf('/');
+      byte[] network = addressBytes(slash < 0 ? trimmed : trimmed.substring(0, slash));
+      if (network == null) {
+        throw new IllegalArgumentException("Not an IP address or CIDR range: " + trimmed);
+      }
+      int prefixLength = network.length * BITS_PER_BYTE;
+      if (slash >= 0) {
+        try {
+          prefixLength = Integer.parseInt(trimmed.substring(slash + 1));
+        } catch (NumberFormatException e) {
+          throw new IllegalArgumentException("Not an IP address or CIDR range: " + trimmed);
+        }
+        if (prefixLength < 0 || prefixLength > network.length * BITS_PER_BYTE) {
+          throw new IllegalArgumentException("Not an IP address or CIDR range: " + trimmed);
+        }
+      }
+      ranges.add(new Range(network, prefixLength));
+    }
+    return new TrustedProxies(List.copyOf(ranges));
+  }
+
+  /**
+   * @param address an IP address
+   * @return whether it's one of the trusted proxies
+   */
+  public boolean isTrusted(String address) {
+    byte[] bytes = addressBytes(address);
+    if (bytes == null) {
+      return false;
+    }
+    for (Range range : ranges) {
+      if (range.contains(bytes)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Work out which client a request came from. If it came from a trusted
+   * proxy, that's the last address in `X-Forwarded-For` that isn't itself
+   * a trusted proxy (each proxy adds the address it got the request from
+   * to the end, so the addresses before that are the client's say-so).
+   *
+   * @param peer the address the request came from
+   * @param forwardedFor the request's `X-Forwarded-For` header, or `null`
+   * @return the address of the client
+   */
+  public String clientAddress(String peer, String forwardedFor) {
+    if (forwardedFor == null || ranges.isEmpty() || !isTrusted(peer)) {
+      return peer;
+    }
+    String client = peer;
+    String[] hops = forwardedFor.split(",");
+    for (int i = hops.length - 1; i >= 0; i--) {
+      String hop = hops[i].trim();
+      if (addressBytes(hop) == null) {
+        // Not an address, so we can't trust anything before it either
+        break;
+      }
+      client = hop;
+      if (!isTrusted(hop)) {
+        break;
+      }
+    }
+    return client;
+  }
+
+  /**
+   * @return the bytes of an IPv4 or IPv6 address, or `null` if the text
+   *   isn't one. Host names are never looked up.
+   */
+  private static byte[] addressBytes(String text) {
+    if (text.isEmpty() || !isAddressLiteral(text)) {
+      return null;
+    }
+    try {
+      return InetAddress.getByName(text).getAddress();
+    } catch (UnknownHostException e) {
+      return null;
+    }
+  }
+
+  private static boolean isAddressLiteral(String text) {
+    if (text.indexOf(':') >= 0) {
+      // IPv6; `getByName` doesn't do lookups for these
+      for (int i = 0; i < text.length(); i++) {
+        char c = text.charAt(i);
+        if (Character.digit(c, HEX_RADIX) < 0 && c != ':' && c != '.') {
+          return false;
+        }
+      }
+      return true;
+    }
+    String[] parts = text.split("\\.", -1);
+    if (parts.length != IPV4_PARTS) {
+      return false;
+    }
+    for (String part : parts) {
+      if (part.isEmpty() || part.length() > MAX_IPV4_PART_LENGTH || !part.chars().allMatch(Character::isDigit)) {
+        return false;
+      }
+      if (Integer.parseInt(part) > BYTE_MASK) {
+        return false;
+      }
+    }
+    return true;
+  }
+}
@@ -0,0 +1,186 @@
+package umm3601.limits;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import io.javalin.http.Context;
+import io.javalin.http.HandlerType;
+import io.javalin.http.HttpResponseException;
+import io.javalin.http.HttpStatus;
+import io.javalin.http.ServiceUnavailableResponse;
+import umm3601.metrics.ServerMetrics;
+
+/**
+ * Protects the database from more writes than it can handle, by turning
+ * away write requests (`POST`, `PUT`, `PATCH`, and `DELETE`) quickly
+ * instead of letting them pile up. A write is refused with:
+ * <ul>
+ *   <li>429 (Too Many Requests) if the client has used up its token
+ *     bucket, i.e., it's sending more than its share of writes;</li>
+ *   <li>503 (Service Unavailable) if MongoDB's recent average response
+ *     time is over the limit, since more work would only slow it down
+ *     further; or</li>
+ *   <li>503 if there are already as many writes in flight as we allow.</li>
+ * </ul>
+ * Both come with a `Retry-After` header. Reads are never limited here,
+ * including the few `POST`s that only read (like a batch get).
+ * <p>
+ * Each client is known by its IP address. Behind a reverse proxy every
+ * request comes from the proxy's address, so for requests from one of the
+ * `TrustedProxies` the client's address is taken from `X-Forwarded-For`.
+ * <p>
+ * `before` and `after` should be registered as handlers for every API
+ * path, and `writeMetrics` added to the `ServerMetrics` so the refused
+ * requests are counted.
+ */
+public class WriteLimiter {
+
+  static final String RATE_LIMITED = "rate_limited";
+  static final String MONGO_LATENCY = "mongo_latency";
+  static final String CONCURRENCY = "concurrency";
+
+  private static final String RETRY_AFTER = "Retry-After";
+  private static final String FORWARDED_FOR = "X-Forwarded-For";
+  private static final String SLOT_KEY = "limits.writeSlot";
+  // When we're keeping buckets for more clients than this, forget the
+  // ones that are full (which is the same as having no bucket)
+  private static final int MAX_TRACKED_CLIENTS = 10_000;
+  private static final double NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+  private final int ratePerSecond;
+  private final int burst;
+  private final int maxConcurrentWrites;
+  private final long latencyLimitNanos;
+  private final MongoLatencyMonitor mongoLatency;
+  private final TrustedProxies trustedProxies;
+  private final Set<String> readPaths;
+
+  private final Map<String, TokenBucket> buckets = new ConcurrentHashMap<>();
+  private final AtomicInteger writesInFlight = new AtomicInteger();
+  private final Map<String, LongAdder> shedRequests = Map.of(
+    RATE_LIMITED, new LongAdder(),
+    MONGO_LATENCY, new LongAdder(),
+    CONCURRENCY, new LongAdder());
+
+  /**
+   * @param ratePerSecond how many writes per second each client may make
+   *   over time, or 0 for no per-client limit
+   * @param burst how many writes each client may make at once
+   * @param maxConcurrentWrites how many writes may be in flight at once
+   * @param latencyLimitMillis refuse writes while MongoDB's average
+   *   response time is over this, or 0 to never do so
+   * @param mongoLatency tracks MongoDB's response time
+   * @param trustedProxies the proxies whose `X-Forwarded-For` we believe
+   * @param readPaths the paths of `POST`s that only read, and so aren't
+   *   limited
+   */
+  public WriteLimiter(int ratePerSecond, int burst, int maxConcurrentWrites,
+      long latencyLimitMillis, MongoLatencyMonitor mongoLatency,
+      TrustedProxies trustedProxies, Set<String> readPaths) {
+    this.ratePerSecond = ratePerSecond;
+    this.burst = burst;
+    this.maxConcurrentWrites = maxConcurrentWrites;
+    this.latencyLimitNanos = TimeUnit.MILLISECONDS.toNanos(latencyLimitMillis);
+    this.mongoLatency = mongoLatency;
+    this.trustedProxies = trustedProxies;
+    this.readPaths = readPaths;
+  }
+
+  /**
+   * Refuse the request if it's a write we can't take on right now. This
+   * should be registered as a `before` handler for the API paths.
+   *
+   * @param ctx a Javalin HTTP context
+   */
+  public void before(Context ctx) {
+    if (!isWrite(ctx.method()) || readPaths.contains(ctx.path())) {
+      return;
+    }
+
+    if (ratePerSecond > 0) {
+      String client = trustedProxies.clientAddress(ctx.ip(), ctx.header(FORWARDED_FOR));
+      long waitNanos = bucketFor(client).tryTake();
+      if (waitNanos > 0) {
+        shed(ctx, RATE_LIMITED, (long) Math.ceil(waitNanos / NANOS_PER_SECOND));
+        throw new HttpResponseException(
+          HttpStatus.TOO_MANY_REQUESTS.getCode(),
+          "Too many requests; please slow down",
+          Map.of());
+      }
+    }
+
+    if (latencyLimitNanos > 0 && mongoLatency.averageNanos() > latencyLimitNanos) {
+      shed(ctx, MONGO_LATENCY, 1);
+      throw new ServiceUnavailableResponse("The database is overloaded; please try again shortly");
+    }
+
+    if (writesInFlight.incrementAndGet() > maxConcurrentWrites) {
+      writesInFlight.decrementAndGet();
+      shed(ctx, CONCURRENCY, 1);
+      throw new ServiceUnavailableResponse("The server is too busy; please try again shortly");
+    }
+    ctx.attribute(SLOT_KEY, Boolean.TRUE);
+  }
+
+  /**
+   * Note that a write has finished. This should be registered as an
+   * `after` handler for the same paths as `before`.
+   *
+   * @param ctx a Javalin HTTP context
+   */
+  public void after(Context ctx) {
+    // Only writes that got past `before` took a slot
+    if (ctx.attribute(SLOT_KEY) != null) {
+      writesInFlight.decrementAndGet();
+    }
+  }
+
+  /**
+   * Write the counts of refused requests and the writes in flight, in
+   * the Prometheus text format.
+   *
+   * @param out where to write the metrics
+   */
+  public void writeMetrics(StringBuilder out) {
+    out.append("# HELP http_server_shed_requests_total Write requests refused to protect the server, by reason\n");
+    out.append("# TYPE http_server_shed_requests_total counter\n");
+    shedRequests.forEach((reason, count) -> ServerMetrics.writeSample(
+      out, "http_server_shed_requests_total", ServerMetrics.label("reason", reason), count.sum()));
+
+    out.append("# HELP http_server_writes_in_flight Write requests currently being handled\n");
+    out.append("# TYPE http_server_writes_in_flight gauge\n");
+    ServerMetrics.writeSample(out, "http_server_writes_in_flight", "", writesInFlight.get());
+
+    out.append("# HELP mongodb_command_average_seconds Recent average time taken by MongoDB CRUD commands\n");
+    out.append("# TYPE mongodb_command_average_seconds gauge\n");
+    ServerMetrics.writeSample(out, "mongodb_command_average_seconds", "",
+      mongoLatency.averageNanos() / NANOS_PER_SECOND);
+  }
+
+  private TokenBucket bucketFor(String client) {
+    TokenBucket bucket = buckets.get(client);
+    if (bucket != null) {
+      return bucket;
+    }
+    if (buckets.size() >= MAX_TRACKED_CLIENTS) {
+      buckets.values().removeIf(TokenBucket::isFull);
+    }
+    return buckets.computeIfAbsent(client, key -> new TokenBucket(ratePerSecond, burst));
+  }
+
+  private void shed(Context ctx, String reason, long retryAfterSeconds) {
+    shedRequests.get(reason).increment();
+    ctx.header(RETRY_AFTER, Long.toString(Math.max(1, retryAfterSeconds)));
+  }
+
+  private static boolean isWrite(HandlerType method) {
+    return method == HandlerType.POST
+      || method == HandlerType.PUT
+      || method == HandlerType.PATCH
+      || method == HandlerType.DELETE;
+  }
+}
@@ -0,0 +1,98 @@
+package umm3601.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A latency histogram with fixed buckets, in the style of a Prometheus
+ * histogram.
+ * <p>
+ * Recording a value is just a couple of `LongAdder` increments, with no
+ * locking and no allocation, so it's cheap enough to do on every request.
+ * The counts are only added up (and made cumulative) when the histogram
+ * is written out.
+ */
+public final class Histogram {
+
+  // The upper bounds of the buckets, in seconds. These cover everything
+  // from a quick cache hit to a request that is clearly stuck. They are
+  // kept as strings so they are written out exactly as they are here.
+  private static final String[] BUCKET_SECONDS = {
+    "0.0005", "0.001", "0.0025", "0.005", "0.01", "0.025", "0.05", "0.1", "0.25", "0.5", "1", "2.5", "5", "10"
+  };
+  private static final long[] BUCKET_NANOS = new long[BUCKET_SECONDS.length];
+  private static final double NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+  static {
+    for (int i = 0; i < BUCKET_SECONDS.length; i++) {
+      BUCKET_NANOS[i] = Math.round(Double.parseDouble(BUCKET_SECONDS[i]) * NANOS_PER_SECOND);
+    }
+  }
+
+  // One more counter than there are bounds, for values above the last one
+  private final LongAdder[] buckets = new LongAdder[BUCKET_NANOS.length + 1];
+  private final LongAdder sumNanos = new LongAdder();
+
+  public Histogram() {
+    for (int i = 0; i < buckets.length; i++) {
+      buckets[i] = new LongAdder();
+    }
+  }
+
+  /**
+   * Record one observation.
+   *
+   * @param nanos the observed duration, in nanoseconds
+   */
+  public void record(long nanos) {
+    int bucket = 0;
+    while (bucket < BUCKET_NANOS.length && nanos > BUCKET_NANOS[bucket]) {
+      bucket++;
+    }
+    buckets[bucket].increment();
+    sumNanos.add(nanos);
+  }
+
+  /**
+   * @return the number of observations recorded so far
+   */
+  public long count() {
+    long count = 0;
+    for (LongAdder bucket : buckets) {
+      count += bucket.sum();
+    }
+    return count;
+  }
+
+  /**
+   * Write this histogram in the Prometheus text format: one cumulative
+   * `_bucket` line per bound (plus `+Inf`), then `_sum` and `_count`.
+   *
+   * @param out where to write the histogram
+   * @param name the metric name
+   * @param labels the labels for this histogram, already formatted as
+   *   `key="value",...` (possibly empty)
+   */
+  public void writeTo(StringBuilder out, String name, String labels) {
+    String separator = labels.isEmpty() ? "" : ",";
+    long cumulative = 0;
+    for (int i = 0; i < buckets.length; i++) {
+      cumulative += buckets[i].sum();
+      String bound = i < BUCKET_SECONDS.length ? BUCKET_SECONDS[i] : "+Inf";
+      out.append(name).append("_bucket{").append(labels).append(separator)
+        .append("le=\"").append(bound).append("\"} ").append(cumulative).append('\n');
+    }
+    out.append(name).append("_sum");
+    appendLabels(out, labels);
+    out.append(' ').append(sumNanos.sum() / NANOS_PER_SECOND).append('\n');
+    out.append(name).append("_count");
+    appendLabels(out, labels);
+    out.append(' ').append(cumulative).append('\n');
+  }
+
+  private static void appendLabels(StringBuilder out, String labels) {
+    if (!labels.isEmpty()) {
+      out.append('{').append(labels).append('}');
+    }
+  }
+}
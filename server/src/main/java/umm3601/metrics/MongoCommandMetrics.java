@@ -0,0 +1,49 @@
+package umm3601.metrics;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.mongodb.event.CommandFailedEvent;
+import com.mongodb.event.CommandListener;
+import com.mongodb.event.CommandSucceededEvent;
+
+/**
+ * Times every command the MongoDB driver sends to the database, by command
+ * name (`find`, `insert`, `aggregate`, ...).
+ * <p>
+ * The driver calls this on the thread that ran the command, so, like the
+ * rest of the metrics, it only does lock-free counter updates.
+ */
+final class MongoCommandMetrics implements CommandListener {
+
+  private final Map<String, Histogram> durations = new ConcurrentHashMap<>();
+  private final Map<String, LongAdder> failures = new ConcurrentHashMap<>();
+
+  @Override
+  public void commandSucceeded(CommandSucceededEvent event) {
+    durations.computeIfAbsent(event.getCommandName(), name -> new Histogram())
+      .record(event.getElapsedTime(TimeUnit.NANOSECONDS));
+  }
+
+  @Override
+  public void commandFailed(CommandFailedEvent event) {
+    durations.computeIfAbsent(event.getCommandName(), name -> new Histogram())
+      .record(event.getElapsedTime(TimeUnit.NANOSECONDS));
+    failures.computeIfAbsent(event.getCommandName(), name -> new LongAdder()).increment();
+  }
+
+  void writeTo(StringBuilder out) {
+    out.append("# HELP mongodb_command_seconds Time taken by MongoDB commands\n");
+    out.append("# TYPE mongodb_command_seconds histogram\n");
+    durations.forEach((command, histogram) ->
+      histogram.writeTo(out, "mongodb_command_seconds", ServerMetrics.label("command", command)));
+
+    out.append("# HELP mongodb_command_failures_total MongoDB commands that failed\n");
+    out.append("# TYPE mongodb_command_failures_total counter\n");
+    failures.forEach((command, count) ->
+      ServerMetrics.writeSample(out, "mongodb_command_failures_total", ServerMetrics.label("command", command),
+        count.sum()));
+  }
+}
@@ -0,0 +1,220 @@
+package umm3601.metrics;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryUsage;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+import com.mongodb.event.CommandListener;
+
+import io.javalin.http.Context;
+
+/**
+ * Metrics about how the server is behaving, exposed in the Prometheus text
+ * format so that they can be scraped from `/metrics`.
+ * <p>
+ * This records:
+ * <ul>
+ *   <li>a latency histogram per route (method and path pattern),</li>
+ *   <li>the number of requests currently in flight,</li>
+ *   <li>the number of responses with each status code,</li>
+ *   <li>the number of uncaught exceptions of each type,</li>
+ *   <li>the time taken by each kind of MongoDB command, and</li>
+ *   <li>JVM memory, thread, and garbage collection stats.</li>
+ * </ul>
+ * Everything recorded on the request path is a `LongAdder` update, so
+ * recording is lock free. The JVM stats are read when the metrics are
+ * scraped, so they cost nothing the rest of the time.
+ */
+public class ServerMetrics {
+
+  static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+  private static final String START_TIME_KEY = "metrics.startTime";
+  private static final String UNMATCHED_ROUTE = "unmatched";
+  private static final double MILLIS_PER_SECOND = TimeUnit.SECONDS.toMillis(1);
+
+  private final Map<String, Histogram> requestDurations = new ConcurrentHashMap<>();
+  private final Map<Integer, LongAdder> responseStatuses = new ConcurrentHashMap<>();
+  private final Map<String, LongAdder> exceptions = new ConcurrentHashMap<>();
+  private final LongAdder requestsInFlight = new LongAdder();
+  private final MongoCommandMetrics mongoCommands = new MongoCommandMetrics();
+  private final List<Consumer<StringBuilder>> collectors = new CopyOnWriteArrayList<>();
+
+  /**
+   * Add more metrics to the ones we serve. The collector is called every
+   * time the metrics are scraped, and should write its metrics (with
+   * their `# HELP` and `# TYPE` lines) in the Prometheus text format.
+   *
+   * @param collector writes the extra metrics
+   */
+  public void addCollector(Consumer<StringBuilder> collector) {
+    collectors.add(collector);
+  }
+
+  /**
+   * @return a listener to add to the `MongoClientSettings` so that the
+   *   MongoDB commands are timed
+   */
+  public CommandListener mongoCommandListener() {
+    return mongoCommands;
+  }
+
+  /**
+   * Note the start of a request. This should be registered as a `before`
+   * handler for every path.
+   *
+   * @param ctx a Javalin HTTP context
+   */
+  public void requestStarted(Context ctx) {
+    ctx.attribute(START_TIME_KEY, System.nanoTime());
+    requestsInFlight.increment();
+  }
+
+  /**
+   * Record the duration and status of a finished request. This should be
+   * registered as an `after` handler for every path.
+   *
+   * @param ctx a Javalin HTTP context
+   */
+  public void requestFinished(Context ctx) {
+    Long startTime = ctx.attribute(START_TIME_KEY);
+    if (startTime == null) {
+      return;
+    }
+    long elapsed = System.nanoTime() - startTime;
+    requestsInFlight.decrement();
+
+    // Label by the route's path pattern (`/api/fsclients/{id}`) rather than
+    // the actual path, so that there is one histogram per route rather
+    // than one per fsclient.
+    String route = ctx.endpointHandlerPath();
+    if (route.isEmpty()) {
+      route = UNMATCHED_ROUTE;
+    }
+    String labels = label("method", ctx.method().name()) + "," + label("route", route);
+    requestDurations.computeIfAbsent(labels, key -> new Histogram()).record(elapsed);
+    responseStatuses.computeIfAbsent(ctx.statusCode(), key -> new LongAdder()).increment();
+  }
+
+  /**
+   * Count an exception that wasn't handled anywhere else.
+   *
+   * @param e the exception
+   */
+  public void exceptionThrown(Exception e) {
+    exceptions.computeIfAbsent(e.getClass().getName(), key -> new LongAdder()).increment();
+  }
+
+  /**
+   * Get all the metrics, in the Prometheus text format.
+   *
+   * @param ctx a Javalin HTTP context
+   */
+  public void getMetrics(Context ctx) {
+    ctx.contentType(CONTENT_TYPE);
+    ctx.result(scrape());
+  }
+
+  /**
+   * @return all the metrics, in the Prometheus text format
+   */
+  public String scrape() {
+    StringBuilder out = new StringBuilder();
+
+    out.append("# HELP http_server_requests_seconds Time taken to handle HTTP requests\n");
+    out.append("# TYPE http_server_requests_seconds histogram\n");
+    requestDurations.forEach((labels, histogram) ->
+      histogram.writeTo(out, "http_server_requests_seconds", labels));
+
+    out.append("# HELP http_server_requests_in_flight HTTP requests currently being handled\n");
+    out.append("# TYPE http_server_requests_in_flight gauge\n");
+    writeSample(out, "http_server_requests_in_flight", "", requestsInFlight.sum());
+
+    out.append("# HELP http_server_responses_total HTTP responses sent, by status code\n");
+    out.append("# TYPE http_server_responses_total counter\n");
+    responseStatuses.forEach((status, count) ->
+      writeSample(out, "http_server_responses_total", label("status", status.toString()), count.sum()));
+
+    out.append("# HELP http_server_exceptions_total Uncaught exceptions, by type\n");
+    out.append("# TYPE http_server_exceptions_total counter\n");
+    exceptions.forEach((type, count) ->
+      writeSample(out, "http_server_exceptions_total", label("exception", type), count.sum()));
+
+    mongoCommands.writeTo(out);
+    for (Consumer<StringBuilder> collector : collectors) {
+      collector.accept(out);
+    }
+    writeJvmMetrics(out);
+    return out.toString();
+  }
+
+  private static void writeJvmMetrics(StringBuilder out) {
+    MemoryUsage heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+    MemoryUsage nonHeap = ManagementFactory.getMemoryMXBean().getNonHeapMemoryUsage();
+    out.append("# HELP jvm_memory_used_bytes Memory used by the JVM\n");
+    out.append("# TYPE jvm_memory_used_bytes gauge\n");
+    writeSample(out, "jvm_memory_used_bytes", label("area", "heap"), heap.getUsed());
+    writeSample(out, "jvm_memory_used_bytes", label("area", "nonheap"), nonHeap.getUsed());
+    out.append("# HELP jvm_memory_committed_bytes Memory committed by the JVM\n");
+    out.append("# TYPE jvm_memory_committed_bytes gauge\n");
+    writeSample(out, "jvm_memory_committed_bytes", label("area", "heap"), heap.getCommitted());
+    writeSample(out, "jvm_memory_committed_bytes", label("area", "nonheap"), nonHeap.getCommitted());
+
+    out.append("# HELP jvm_threads_live Live JVM threads\n");
+    out.append("# TYPE jvm_threads_live gauge\n");
+    writeSample(out, "jvm_threads_live", "", ManagementFactory.getThreadMXBean().getThreadCount());
+
+    out.append("# HELP jvm_gc_collections_total Garbage collections, by collector\n");
+    out.append("# TYPE jvm_gc_collections_total counter\n");
+    for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+      writeSample(out, "jvm_gc_collections_total", label("gc", gc.getName()), gc.getCollectionCount());
+    }
+    out.append("# HELP jvm_gc_collection_seconds_total Time spent in garbage collection, by collector\n");
+    out.append("# TYPE jvm_gc_collection_seconds_total counter\n");
+    for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+      writeSample(out, "jvm_gc_collection_seconds_total", label("gc", gc.getName()),
+        gc.getCollectionTime() / MILLIS_PER_SECOND);
+    }
+
+    out.append("# HELP process_uptime_seconds Time since the JVM started\n");
+    out.append("# TYPE process_uptime_seconds gauge\n");
+    writeSample(out, "process_uptime_seconds", "",
+      ManagementFactory.getRuntimeMXBean().getUptime() / MILLIS_PER_SECOND);
+  }
+
+  /**
+   * Format one label as `key="value"`, escaping the value as the
+   * Prometheus text format requires.
+   *
+   * @param key the label name
+   * @param value the label value
+   * @return the formatted label
+   */
+  public static String label(String key, String value) {
+    String escaped = value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    return key + "=\"" + escaped + "\"";
+  }
+
+  /**
+   * Write one sample of a metric, e.g. `name{labels} value`.
+   *
+   * @param out where to write the sample
+   * @param name the metric name
+   * @param labels the labels, already formatted (possibly empty)
+   * @param value the value of the metric
+   */
+  public static void writeSample(StringBuilder out, String name, String labels, Number value) {
+    out.append(name);
+    if (!labels.isEmpty()) {
+      out.append('{').append(labels).append('}');
+    }
+    out.append(' ').append(value).append('\n');
+  }
+}
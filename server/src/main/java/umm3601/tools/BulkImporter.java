@@ -0,0 +1,119 @@
+package umm3601.tools;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.MongoException;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.InsertManyOptions;
+
+import org.bson.RawBsonDocument;
+
+/**
+ * Inserts a stream of JSON documents into a collection as fast as MongoDB
+ * will take them.
+ * <p>
+ * One thread reads the documents (with `JsonDocumentReader`) into batches,
+ * and a pool of threads inserts the batches with unordered `insertMany`s,
+ * so reading and several inserts all happen at once. At most two batches
+ * per thread are waiting or being inserted at any time, which keeps the
+ * memory used bounded no matter how big the input is.
+ */
+public class BulkImporter {
+
+  /**
+   * How an import went.
+   *
+   * @param inserted the number of documents inserted
+   * @param failed the number of documents that couldn't be inserted
+   * @param firstError a description of the first failure, or `null` if
+   *   there weren't any
+   */
+  public record Result(long inserted, long failed, String firstError) {
+  }
+
+  private final MongoCollection<RawBsonDocument> collection;
+  private final int batchSize;
+  private final int threads;
+
+  /**
+   * @param collection where to insert the documents
+   * @param batchSize how many documents to insert at a time
+   * @param threads how many batches to insert at once
+   */
+  public BulkImporter(MongoCollection<RawBsonDocument> collection, int batchSize, int threads) {
+    this.collection = collection;
+    this.batchSize = batchSize;
+    this.threads = threads;
+  }
+
+  /**
+   * Insert all the documents in some JSON.
+   *
+   * @param in the JSON (see `JsonDocumentReader` for what's allowed)
+   * @return how many documents were and weren't inserted
+   * @throws IOException if the JSON can't be read; the documents before the
+   *   problem will still have been inserted
+   * @throws InterruptedException if interrupted while waiting for inserts
+   */
+  public Result importFrom(InputStream in) throws IOException, InterruptedException {
+    ExecutorService writers = Executors.newFixedThreadPool(threads);
+    Semaphore batchesInFlight = new Semaphore(threads * 2);
+    AtomicLong inserted = new AtomicLong();
+    AtomicLong failed = new AtomicLong();
+    AtomicReference<String> firstError = new AtomicReference<>();
+
+    try (JsonDocumentReader reader = new JsonDocumentReader(in)) {
+      List<RawBsonDocument> batch = new ArrayList<>(batchSize);
+      RawBsonDocument document = reader.next();
+      while (document != null) {
+        batch.add(document);
+        document = reader.next();
+        if (batch.size() == batchSize || (document == null && !batch.isEmpty())) {
+          List<RawBsonDocument> toInsert = batch;
+          batchesInFlight.acquire();
+          writers.execute(() -> {
+            try {
+              insert(toInsert, inserted, failed, firstError);
+            } finally {
+              batchesInFlight.release();
+            }
+          });
+          batch = new ArrayList<>(batchSize);
+        }
+      }
+    } finally {
+      writers.shutdown();
+      writers.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+    }
+    return new Result(inserted.get(), failed.get(), firstError.get());
+  }
+
+  private void insert(
+    List<RawBsonDocument> batch,
+    AtomicLong inserted,
+    AtomicLong failed,
+    AtomicReference<String> firstError) {
+    try {
+      collection.insertMany(batch, new InsertManyOptions().ordered(false));
+      inserted.addAndGet(batch.size());
+    } catch (MongoBulkWriteException e) {
+      // Everything but the failed documents was still inserted
+      inserted.addAndGet(e.getWriteResult().getInsertedCount());
+      failed.addAndGet(e.getWriteErrors().size());
+      firstError.compareAndSet(null, e.getWriteErrors().get(0).getMessage());
+    } catch (MongoException e) {
+      failed.addAndGet(batch.size());
+      firstError.compareAndSet(null, e.getMessage());
+    }
+  }
+}
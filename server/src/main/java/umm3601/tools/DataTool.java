@@ -0,0 +1,181 @@
+package umm3601.tools;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import com.mongodb.MongoClientSettings;
+import com.mongodb.ServerAddress;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoCursor;
+import com.mongodb.client.MongoDatabase;
+
+import org.bson.RawBsonDocument;
+import org.bson.UuidRepresentation;
+import org.bson.json.JsonMode;
+import org.bson.json.JsonWriterSettings;
+
+/**
+ * A command line tool for loading collections from, and saving them to,
+ * JSON files, without holding a whole collection in memory. Run it with
+ * `./gradlew dataTool --args="..."` from the `server` directory.
+ * <pre>
+ *   import COLLECTION FILE   insert the documents in FILE into COLLECTION
+ *   export COLLECTION FILE   write every document in COLLECTION to FILE
+ *   seed DIRECTORY           drop the database, then import each
+ *                            DIRECTORY/NAME.json into collection NAME
+ * </pre>
+ * Imports take either a JSON array of documents or newline delimited JSON,
+ * and exports write newline delimited JSON (in MongoDB's relaxed extended
+ * JSON, so it can be imported again). A file whose name ends in `.gz` is
+ * read or written gzipped. `--batch-size N` and `--threads N` tune the
+ * imports (see `BulkImporter`).
+ * <p>
+ * Like the server, this uses the database named by `MONGO_DB` (default
+ * `dev`) on the MongoDB server at `MONGO_ADDR` (default `localhost`).
+ */
+public final class DataTool {
+
+  private static final String USAGE = String.join("\n",
+    "Usage: DataTool [--batch-size N] [--threads N] COMMAND",
+    "  import COLLECTION FILE",
+    "  export COLLECTION FILE",
+    "  seed DIRECTORY");
+
+  private static final int DEFAULT_BATCH_SIZE = 1000;
+  private static final int DEFAULT_THREADS = 4;
+  private static final int EXPORT_BATCH_SIZE = 1000;
+  private static final int BUFFER_SIZE = 1 << 16;
+  private static final double NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+  private static final JsonWriterSettings EXPORT_JSON = JsonWriterSettings.builder()
+    .outputMode(JsonMode.RELAXED)
+    .build();
+
+  private DataTool() {
+  }
+
+  public static void main(String[] args) throws IOException, InterruptedException {
+    int batchSize = DEFAULT_BATCH_SIZE;
+    int threads = DEFAULT_THREADS;
+    List<String> command = new ArrayList<>();
+    for (int i = 0; i < args.length; i++) {
+      switch (args[i]) {
+        case "--batch-size":
+          batchSize = Integer.parseInt(args[++i]);
+          break;
+        case "--threads":
+          threads = Integer.parseInt(args[++i]);
+          break;
+        default:
+          command.add(args[i]);
+      }
+    }
+    if (command.isEmpty()) {
+      fail(USAGE);
+    }
+
+    String mongoAddr = System.getenv().getOrDefault("MONGO_ADDR", "localhost");
+    String databaseName = System.getenv().getOrDefault("MONGO_DB", "dev");
+    try (MongoClient mongoClient = MongoClients.create(MongoClientSettings
+        .builder()
+        .applyToClusterSettings(builder -> builder.hosts(Arrays.asList(new ServerAddress(mongoAddr))))
+        .uuidRepresentation(UuidRepresentation.STANDARD)
+        .build())) {
+      MongoDatabase database = mongoClient.getDatabase(databaseName);
+
+      String name = command.get(0);
+      if (name.equals("import") && command.size() == 3) {
+        importFile(database.getCollection(command.get(1), RawBsonDocument.class),
+          Path.of(command.get(2)), batchSize, threads);
+      } else if (name.equals("export") && command.size() == 3) {
+        exportFile(database.getCollection(command.get(1), RawBsonDocument.class), Path.of(command.get(2)));
+      } else if (name.equals("seed") && command.size() == 2) {
+        System.out.println("Dropping DB " + databaseName);
+        database.drop();
+        seed(database, Path.of(command.get(1)), batchSize, threads);
+      } else {
+        fail(USAGE);
+      }
+    }
+  }
+
+  private static void seed(MongoDatabase database, Path directory, int batchSize, int threads)
+      throws IOException, InterruptedException {
+    try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*.json")) {
+      for (Path file : files) {
+        String collection = file.getFileName().toString().replaceFirst("\\.json$", "");
+        System.out.println("Seeding " + collection + " from " + file + " in DB " + database.getName());
+        importFile(database.getCollection(collection, RawBsonDocument.class), file, batchSize, threads);
+      }
+    }
+  }
+
+  private static void importFile(MongoCollection<RawBsonDocument> collection, Path file, int batchSize, int threads)
+      throws IOException, InterruptedException {
+    long start = System.nanoTime();
+    BulkImporter.Result result;
+    try (InputStream in = openForReading(file)) {
+      result = new BulkImporter(collection, batchSize, threads).importFrom(in);
+    }
+    System.out.printf("Imported %d documents into %s in %.1fs%n",
+      result.inserted(), collection.getNamespace().getCollectionName(), secondsSince(start));
+    if (result.failed() > 0) {
+      fail(result.failed() + " documents couldn't be imported; the first problem was: " + result.firstError());
+    }
+  }
+
+  private static void exportFile(MongoCollection<RawBsonDocument> collection, Path file) throws IOException {
+    long start = System.nanoTime();
+    long count = 0;
+    try (Writer out = new BufferedWriter(new OutputStreamWriter(openForWriting(file), StandardCharsets.UTF_8));
+        MongoCursor<RawBsonDocument> cursor = collection.find().batchSize(EXPORT_BATCH_SIZE).iterator()) {
+      while (cursor.hasNext()) {
+        out.write(cursor.next().toJson(EXPORT_JSON));
+        out.write('\n');
+        count++;
+      }
+    }
+    System.out.printf("Exported %d documents from %s in %.1fs%n",
+      count, collection.getNamespace().getCollectionName(), secondsSince(start));
+  }
+
+  private static InputStream openForReading(Path file) throws IOException {
+    InputStream in = new BufferedInputStream(Files.newInputStream(file), BUFFER_SIZE);
+    return isGzipped(file) ? new GZIPInputStream(in, BUFFER_SIZE) : in;
+  }
+
+  private static OutputStream openForWriting(Path file) throws IOException {
+    OutputStream out = new BufferedOutputStream(Files.newOutputStream(file), BUFFER_SIZE);
+    return isGzipped(file) ? new GZIPOutputStream(out, BUFFER_SIZE) : out;
+  }
+
+  private static boolean isGzipped(Path file) {
+    return file.getFileName().toString().endsWith(".gz");
+  }
+
+  private static double secondsSince(long start) {
+    return (System.nanoTime() - start) / NANOS_PER_SECOND;
+  }
+
+  private static void fail(String message) {
+    System.err.println(message);
+    System.exit(1);
+  }
+}
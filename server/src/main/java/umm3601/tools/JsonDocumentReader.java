@@ -0,0 +1,80 @@
+package umm3601.tools;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringWriter;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import org.bson.RawBsonDocument;
+
+/**
+ * Reads MongoDB documents, one at a time, from a stream of JSON. The JSON
+ * can be either one big array of documents (like `mongoimport --jsonArray`
+ * takes, and like our seed files) or documents one after another, e.g.,
+ * newline delimited JSON (like `mongoexport` and `DataTool export`
+ * write).
+ * <p>
+ * This uses Jackson's streaming parser, so only one document is ever in
+ * memory, however big the file is. MongoDB's extended JSON (e.g.,
+ * `{"$oid": "..."}` for an `ObjectId`) is understood, so types survive a
+ * round trip through a file.
+ */
+public class JsonDocumentReader implements Closeable {
+
+  private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+  private final JsonParser parser;
+  private boolean inArray;
+  private JsonToken next;
+
+  /**
+   * @param in the JSON to read; it's closed when this reader is
+   * @throws IOException if the start of the JSON can't be read
+   */
+  public JsonDocumentReader(InputStream in) throws IOException {
+    parser = JSON_FACTORY.createParser(in);
+    next = parser.nextToken();
+    if (next == JsonToken.START_ARRAY) {
+      inArray = true;
+      next = parser.nextToken();
+    }
+  }
+
+  /**
+   * @return the next document, or `null` if there are no more
+   * @throws IOException if the JSON is malformed, or holds something
+   *   other than objects
+   */
+  public RawBsonDocument next() throws IOException {
+    if (inArray && next == JsonToken.END_ARRAY) {
+      inArray = false;
+      next = parser.nextToken();
+    }
+    if (next == null) {
+      return null;
+    }
+    if (next != JsonToken.START_OBJECT) {
+      throw new IOException("Expected a JSON object but found " + next
+        + " at line " + parser.getCurrentLocation().getLineNr());
+    }
+
+    // Copy just this object's JSON, and have the BSON library parse it,
+    // since it knows about extended JSON
+    StringWriter json = new StringWriter();
+    try (JsonGenerator generator = JSON_FACTORY.createGenerator(json)) {
+      generator.copyCurrentStructure(parser);
+    }
+    next = parser.nextToken();
+    return RawBsonDocument.parse(json.toString());
+  }
+
+  @Override
+  public void close() throws IOException {
+    parser.close();
+  }
+}
@@ -0,0 +1,30 @@
+package umm3601.util;
+
+import java.text.Collator;
+import java.util.Comparator;
+import java.util.Locale;
+
+/**
+ * Compares strings the way MongoDB does under the case-insensitive
+ * collation our queries use (English, secondary strength): case is
+ * ignored, but accents aren't. `null` (a missing field) comes before
+ * every string, as it does in MongoDB's sort order.
+ * <p>
+ * `Collator`s aren't safe to share between threads without locking, so
+ * each thread gets its own.
+ */
+public final class CaseInsensitiveOrder {
+
+  private static final ThreadLocal<Collator> COLLATOR = ThreadLocal.withInitial(() -> {
+    Collator collator = Collator.getInstance(Locale.ENGLISH);
+    collator.setStrength(Collator.SECONDARY);
+    return collator;
+  });
+
+  /** Orders strings as the case-insensitive collation does. */
+  public static final Comparator<String> ORDER
+    = Comparator.nullsFirst((a, b) -> COLLATOR.get().compare(a, b));
+
+  private CaseInsensitiveOrder() {
+  }
+}
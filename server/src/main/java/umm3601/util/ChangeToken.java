@@ -0,0 +1,39 @@
+package umm3601.util;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A token that changes whenever a collection does, so that responses built
+ * from the collection can be tagged with it and a client can tell whether
+ * its copy is still current without us re-reading the collection.
+ * <p>
+ * The token is a random per-process epoch plus a counter that is bumped
+ * after every write. The epoch means that tokens handed out before a
+ * restart never match ones handed out after it, since we can't know what
+ * changed while we were down.
+ */
+public class ChangeToken {
+
+  private static final int RADIX = 36;
+
+  private final String epoch = Long.toString(ThreadLocalRandom.current().nextLong() >>> 1, RADIX);
+  private final AtomicLong version = new AtomicLong();
+
+  /**
+   * Note that the collection has changed. Call this <em>after</em> the
+   * write has finished, so that a response tagged with the new token can
+   * never have been built from the old data.
+   */
+  public void changed() {
+    version.incrementAndGet();
+  }
+
+  /**
+   * @return the current token. Read this <em>before</em> reading the
+   *   collection, for the same reason.
+   */
+  public String current() {
+    return epoch + "." + Long.toString(version.get(), RADIX);
+  }
+}
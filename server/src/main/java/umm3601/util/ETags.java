@@ -0,0 +1,100 @@
+package umm3601.util;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Objects;
+
+import io.javalin.http.Context;
+import io.javalin.http.Header;
+import io.javalin.http.HttpStatus;
+
+/**
+ * Helpers for conditional GETs with (weak) ETags.
+ * <p>
+ * A client that has a copy of a response sends its ETag back in the
+ * `If-None-Match` header; if the ETag of the current response would be
+ * the same, we answer with an empty 304 (Not Modified) and the client
+ * keeps using its copy.
+ * <p>
+ * The tags are weak because the same response may be sent gzipped or not
+ * (by Javalin, or by `PrecomputedBody`), and a strong tag would promise
+ * the exact same bytes either way. Weak tags are all `If-None-Match` needs.
+ */
+public final class ETags {
+
+  private ETags() {
+  }
+
+  /**
+   * @param body the response body
+   * @return an ETag for a response with exactly this body
+   */
+  public static String forContent(byte[] body) {
+    return "W/\"" + Hashing.md5Hex(body) + "\"";
+  }
+
+  /**
+   * Make an ETag for a query over a collection. This only depends on the
+   * collection's change token and the path and query string, so it can be
+   * checked before (and instead of) running the query. Including the path
+   * keeps different listings of the same collection from sharing tags.
+   *
+   * @param changes the change token of the collection being queried
+   * @param ctx a Javalin HTTP context
+   * @return an ETag for the response to this query, as of now
+   */
+  public static String forQuery(ChangeToken changes, Context ctx) {
+    return forQuery(changes.current(), ctx.path(), ctx.queryString());
+  }
+
+  /**
+   * @param changeToken the current change token of the collection
+   * @param path the request path
+   * @param queryString the query string, or `null` if there isn't one
+   * @return the ETag for that query
+   */
+  static String forQuery(String changeToken, String path, String queryString) {
+    String request = path + "?" + Objects.requireNonNullElse(queryString, "");
+    return "W/\"" + changeToken + "-" + Hashing.md5Hex(request.getBytes(StandardCharsets.UTF_8)) + "\"";
+  }
+
+  /**
+   * Tag the response with the ETag, and if the client already has the
+   * response with that tag, make it an empty 304.
+   *
+   * @param ctx a Javalin HTTP context
+   * @param etag the ETag of the response
+   * @return true if the response is now a 304 and the caller shouldn't
+   *   produce a body
+   */
+  public static boolean notModified(Context ctx, String etag) {
+    ctx.header(Header.ETAG, etag);
+    if (matches(ctx.header(Header.IF_NONE_MATCH), etag)) {
+      ctx.status(HttpStatus.NOT_MODIFIED);
+      return true;
+    }
+    return false;
+  }
+
+  /**
+   * Check an `If-None-Match` header against an ETag. The header can be
+   * `*` or a comma separated list of ETags, which are compared ignoring
+   * any weak (`W/`) prefix, as HTTP requires for `If-None-Match`.
+   */
+  static boolean matches(String ifNoneMatch, String etag) {
+    if (ifNoneMatch == null) {
+      return false;
+    }
+    String opaqueTag = withoutWeakPrefix(etag);
+    for (String candidate : ifNoneMatch.split(",")) {
+      String tag = withoutWeakPrefix(candidate.trim());
+      if (tag.equals("*") || tag.equals(opaqueTag)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static String withoutWeakPrefix(String tag) {
+    return tag.startsWith("W/") ? tag.substring(2) : tag;
+  }
+}
@@ -0,0 +1,232 @@
+package umm3601.util;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+
+/**
+ * A small, bounded, in-process cache.
+ * <p>
+ * The cache holds at most `maxSize` entries, and each entry is only kept
+ * for `timeToLive` after it was stored. When the cache is full, the least
+ * recently used entry is evicted to make room.
+ * <p>
+ * The cache keeps hit, miss, eviction, and expiration counts so that we
+ * can see how well it is working and size it sensibly.
+ *
+ * @param <K> the type of the keys
+ * @param <V> the type of the cached values
+ */
+public class ExpiringLruCache<K, V> {
+
+  private static final int INITIAL_CAPACITY = 16;
+  private static final float LOAD_FACTOR = 0.75f;
+
+  private final int maxSize;
+  private final long timeToLiveNanos;
+  private final LongSupplier clock;
+
+  // A `LinkedHashMap` in access order keeps the least recently used entry
+  // first, which makes it an easy LRU structure. It isn't thread safe, so
+  // all access to it is synchronized on the map itself.
+  private final LinkedHashMap<K, CacheEntry<V>> entries;
+  // Bumped by every invalidation, so that a value loaded from before one
+  // isn't stored after it. Guarded by `entries`.
+  private long generation;
+
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+  private final LongAdder evictions = new LongAdder();
+  private final LongAdder expirations = new LongAdder();
+
+  /**
+   * Construct an empty cache.
+   *
+   * @param maxSize the maximum number of entries to hold
+   * @param timeToLive how long an entry stays valid after it is stored
+   */
+  public ExpiringLruCache(int maxSize, Duration timeToLive) {
+    this(maxSize, timeToLive, System::nanoTime);
+  }
+
+  /**
+   * Construct an empty cache that reads the time from the given clock.
+   * This is mostly useful for testing expiration.
+   *
+   * @param maxSize the maximum number of entries to hold
+   * @param timeToLive how long an entry stays valid after it is stored
+   * @param clock a source of the current time, in nanoseconds
+   */
+  ExpiringLruCache(int maxSize, Duration timeToLive, LongSupplier clock) {
+    if (maxSize <= 0) {
+      throw new IllegalArgumentException("The cache size must be greater than zero");
+    }
+    this.maxSize = maxSize;
+    this.timeToLiveNanos = timeToLive.toNanos();
+    this.clock = clock;
+    this.entries = new LinkedHashMap<>(INITIAL_CAPACITY, LOAD_FACTOR, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<K, CacheEntry<V>> eldest) {
+        if (size() > ExpiringLruCache.this.maxSize) {
+          evictions.increment();
+          return true;
+        }
+        return false;
+      }
+    };
+  }
+
+  /**
+   * Get the cached value for the given key.
+   *
+   * @param key the key to look up
+   * @return the cached value, or `null` if there is no live entry for the key
+   */
+  public V get(K key) {
+    long now = clock.getAsLong();
+    synchronized (entries) {
+      CacheEntry<V> entry = entries.get(key);
+      if (entry != null && now - entry.storedAt >= timeToLiveNanos) {
+        entries.remove(key);
+        expirations.increment();
+        entry = null;
+      }
+      if (entry == null) {
+        misses.increment();
+        return null;
+      }
+      hits.increment();
+      return entry.value;
+    }
+  }
+
+  /**
+   * Get the cached value for the given key, loading (and caching) it with
+   * the given loader if it isn't in the cache.
+   * <p>
+   * The loader is called without holding the cache lock, so a slow load
+   * doesn't block other lookups. A `null` result is returned but not cached,
+   * and neither is a result if anything was invalidated during the load
+   * (since it may be from before the change that caused that).
+   *
+   * @param key the key to look up
+   * @param loader computes the value for the key on a miss
+   * @return the cached or freshly loaded value (possibly `null`)
+   */
+  public V getOrLoad(K key, Function<? super K, ? extends V> loader) {
+    long loadGeneration = generation();
+    V value = get(key);
+    if (value == null) {
+      value = loader.apply(key);
+      if (value != null) {
+        putIfUnchanged(key, value, loadGeneration);
+      }
+    }
+    return value;
+  }
+
+  /**
+   * @return the current generation, to pass to `putIfUnchanged` once the
+   *   value has been loaded
+   */
+  public long generation() {
+    synchronized (entries) {
+      return generation;
+    }
+  }
+
+  /**
+   * Store a value loaded from elsewhere, unless something was invalidated
+   * since the load started.
+   *
+   * @param key the key to store the value under
+   * @param value the value to store
+   * @param loadGeneration what `generation` returned before the load
+   * @return whether the value was stored
+   */
+  public boolean putIfUnchanged(K key, V value, long loadGeneration) {
+    CacheEntry<V> entry = new CacheEntry<>(value, clock.getAsLong());
+    synchronized (entries) {
+      if (generation != loadGeneration) {
+        return false;
+      }
+      entries.put(key, entry);
+      return true;
+    }
+  }
+
+  /**
+   * Store a value in the cache, replacing any existing entry for the key.
+   *
+   * @param key the key to store the value under
+   * @param value the value to store
+   */
+  public void put(K key, V value) {
+    CacheEntry<V> entry = new CacheEntry<>(value, clock.getAsLong());
+    synchronized (entries) {
+      entries.put(key, entry);
+    }
+  }
+
+  /**
+   * Remove the entry (if any) for the given key.
+   *
+   * @param key the key to remove
+   */
+  public void invalidate(K key) {
+    synchronized (entries) {
+      generation++;
+      entries.remove(key);
+    }
+  }
+
+  /**
+   * Remove every entry from the cache.
+   */
+  public void invalidateAll() {
+    synchronized (entries) {
+      generation++;
+      entries.clear();
+    }
+  }
+
+  /**
+   * @return the number of entries currently held (including any that have
+   *   expired but haven't been looked up since)
+   */
+  public int size() {
+    synchronized (entries) {
+      return entries.size();
+    }
+  }
+
+  /**
+   * @return the current size, capacity, and hit/miss/eviction/expiration counts
+   */
+  public Map<String, Number> stats() {
+    long hitCount = hits.sum();
+    long missCount = misses.sum();
+    long lookups = hitCount + missCount;
+    return Map.of(
+      "size", size(),
+      "maxSize", maxSize,
+      "hits", hitCount,
+      "misses", missCount,
+      "evictions", evictions.sum(),
+      "expirations", expirations.sum(),
+      "hitRate", lookups == 0 ? 0.0 : (double) hitCount / lookups);
+  }
+
+  private static final class CacheEntry<V> {
+    private final V value;
+    private final long storedAt;
+
+    CacheEntry(V value, long storedAt) {
+      this.value = value;
+      this.storedAt = storedAt;
+    }
+  }
+}
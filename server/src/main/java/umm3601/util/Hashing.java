@@ -0,0 +1,173 @@
+package umm3601.util;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Fast MD5 hashing of (lowercased) strings, for things like gravatar URLs.
+ * <p>
+ * Creating a `MessageDigest` is surprisingly expensive, so digests (each
+ * with a small buffer to put the input bytes in) are reused. Platform
+ * threads each keep their own; virtual threads, which are usually created
+ * for a single request, share a small pool instead, since a thread local
+ * would be thrown away with the thread. ASCII input, which is what almost
+ * every email address is, is lowercased straight into the buffer (a piece
+ * at a time, so the buffer never grows), and the hash is hex encoded with
+ * a lookup table, so the only object created per hash is the result.
+ */
+public final class Hashing {
+
+  private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+  private static final int ASCII_LIMIT = 0x80;
+  private static final int NIBBLE_BITS = 4;
+  private static final int NIBBLE_MASK = 0x0f;
+
+  private static final int BUFFER_SIZE = 256;
+  // Virtual threads run on one carrier thread per processor, so twice that many
+  // hashers is plenty for all of them to be hashing at once
+  private static final int POOL_SIZE = Runtime.getRuntime().availableProcessors() * 2;
+
+  private static final MessageDigest PROTOTYPE = newMd5();
+  private static final ThreadLocal<Hasher> HASHERS = ThreadLocal.withInitial(Hasher::new);
+  private static final BlockingQueue<Hasher> POOL = new ArrayBlockingQueue<>(POOL_SIZE);
+
+  /**
+   * A digest, and a buffer to put the bytes to hash in.
+   */
+  private static final class Hasher {
+    private final MessageDigest md = newDigest();
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+  }
+
+  private Hashing() {
+  }
+
+  /**
+   * Compute the MD5 hash of the lowercased string.
+   *
+   * @param str the string to hash
+   * @return the hash, as 32 lowercase hex digits
+   */
+  @SuppressWarnings("lgtm[java/weak-cryptographic-algorithm]")
+  public static String md5Hex(String str) {
+    Hasher hasher = acquire();
+    try {
+      MessageDigest md = hasher.md;
+      if (!lowercaseAsciiInto(hasher, str)) {
+        md.update(str.toLowerCase(Locale.ROOT).getBytes(StandardCharsets.UTF_8));
+      }
+      return toHex(md.digest());
+    } finally {
+      release(hasher);
+    }
+  }
+
+  /**
+   * Compute the MD5 hash of the bytes, exactly as given.
+   *
+   * @param bytes the bytes to hash
+   * @return the hash, as 32 lowercase hex digits
+   */
+  @SuppressWarnings("lgtm[java/weak-cryptographic-algorithm]")
+  public static String md5Hex(byte[] bytes) {
+    Hasher hasher = acquire();
+    try {
+      return toHex(hasher.md.digest(bytes));
+    } finally {
+      release(hasher);
+    }
+  }
+
+  /**
+   * Get a hasher to use: the thread's own on a platform thread, or one
+   * from the pool (or a new one, if they're all in use) on a virtual thread.
+   */
+  private static Hasher acquire() {
+    if (!Thread.currentThread().isVirtual()) {
+      return HASHERS.get();
+    }
+    Hasher hasher = POOL.poll();
+    return hasher == null ? new Hasher() : hasher;
+  }
+
+  /**
+   * Give back a hasher from `acquire`, once its digest has been reset.
+   * Hashers beyond what the pool holds are left for the garbage collector.
+   */
+  private static void release(Hasher hasher) {
+    if (Thread.currentThread().isVirtual()) {
+      POOL.offer(hasher);
+    }
+  }
+
+  private static MessageDigest newMd5() {
+    try {
+      return MessageDigest.getInstance("MD5");
+    } catch (NoSuchAlgorithmException e) {
+      // Every Java platform is required to support MD5
+      throw new IllegalStateException("MD5 is not available", e);
+    }
+  }
+
+  /**
+   * Copy the prototype digest, which is cheaper than looking up the
+   * algorithm again.
+   */
+  private static MessageDigest newDigest() {
+    try {
+      return (MessageDigest) PROTOTYPE.clone();
+    } catch (CloneNotSupportedException e) {
+      return newMd5();
+    }
+  }
+
+  /**
+   * Feed the lowercased string to the digest if it is entirely ASCII,
+   * without creating a lowercased copy of it.
+   *
+   * @return whether the string was ASCII (and so was added to the digest);
+   *   if it wasn't, the digest is left reset
+   */
+  private static boolean lowercaseAsciiInto(Hasher hasher, String str) {
+    MessageDigest md = hasher.md;
+    byte[] buffer = hasher.buffer;
+    int length = str.length();
+    int filled = 0;
+    for (int i = 0; i < length; i++) {
+      char c = str.charAt(i);
+      if (c >= ASCII_LIMIT) {
+        md.reset();
+        return false;
+      }
+      if (c >= 'A' && c <= 'Z') {
+        c = (char) (c + ('a' - 'A'));
+      }
+      buffer[filled++] = (byte) c;
+      if (filled == buffer.length) {
+        md.update(buffer, 0, filled);
+        filled = 0;
+      }
+    }
+    md.update(buffer, 0, filled);
+    return true;
+  }
+
+  /**
+   * Hex encode the bytes, with lowercase digits.
+   *
+   * @param bytes the bytes to encode
+   * @return two hex digits per byte
+   */
+  public static String toHex(byte[] bytes) {
+    char[] hex = new char[bytes.length * 2];
+    for (int i = 0; i < bytes.length; i++) {
+      hex[2 * i] = HEX_DIGITS[(bytes[i] >> NIBBLE_BITS) & NIBBLE_MASK];
+      hex[2 * i + 1] = HEX_DIGITS[bytes[i] & NIBBLE_MASK];
+    }
+    return new String(hex);
+  }
+}
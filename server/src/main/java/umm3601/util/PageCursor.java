@@ -0,0 +1,120 @@
+package umm3601.util;
+
+import static com.mongodb.client.model.Filters.and;
+import static com.mongodb.client.model.Filters.eq;
+import static com.mongodb.client.model.Filters.gt;
+import static com.mongodb.client.model.Filters.lt;
+import static com.mongodb.client.model.Filters.ne;
+import static com.mongodb.client.model.Filters.or;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+
+import org.bson.conversions.Bson;
+import org.bson.types.ObjectId;
+
+/**
+ * Where the next page of a sorted listing starts: the sort field, and the
+ * value of it and the `_id` of the last item on the previous page.
+ * <p>
+ * Carrying the sort value in the cursor means the next page can be found
+ * with a range query alone, without first looking up the last item (which
+ * may have been deleted since). Clients get it as an opaque string (URL
+ * safe base64 of a small JSON array) and just send it back.
+ * <p>
+ * The value is `null` when the item didn't have the field, and ignored
+ * when sorting by `_id`.
+ *
+ * @param sortBy the field the listing is sorted by
+ * @param value the sort field's value in the last item
+ * @param id the `_id` of the last item
+ */
+public record PageCursor(String sortBy, Object value, String id) {
+
+  private static final ObjectMapper MAPPER = new ObjectMapper();
+  private static final int PARTS = 3;
+
+  /**
+   * @return the cursor, as a string to hand to the client
+   */
+  public String encode() {
+    ArrayNode parts = MAPPER.createArrayNode();
+    parts.add(sortBy);
+    parts.add(MAPPER.valueToTree(value));
+    parts.add(id);
+    return Base64.getUrlEncoder().withoutPadding().encodeToString(parts.toString().getBytes(StandardCharsets.UTF_8));
+  }
+
+  /**
+   * Read a cursor that `encode` made.
+   *
+   * @param text the encoded cursor
+   * @param sortBy the field the listing is sorted by now
+   * @return the cursor
+   * @throws IllegalArgumentException if the text isn't a cursor, or is one
+   *   for a listing sorted by a different field
+   */
+  public static PageCursor decode(String text, String sortBy) {
+    JsonNode parts;
+    try {
+      parts = MAPPER.readTree(Base64.getUrlDecoder().decode(text));
+    } catch (IOException | IllegalArgumentException e) {
+      throw new IllegalArgumentException("The `after` cursor isn't one that this listing handed out.");
+    }
+    if (parts == null || !parts.isArray() || parts.size() != PARTS
+      || !parts.get(0).isTextual() || !parts.get(2).isTextual() || !ObjectId.isValid(parts.get(2).asText())) {
+      throw new IllegalArgumentException("The `after` cursor isn't one that this listing handed out.");
+    }
+    if (!parts.get(0).asText().equals(sortBy)) {
+      throw new IllegalArgumentException("The `after` cursor is for a listing sorted by a different field.");
+    }
+    return new PageCursor(sortBy, valueOf(parts.get(1)), parts.get(2).asText());
+  }
+
+  /**
+   * Build the MongoDB filter that selects the items after this cursor, for
+   * a listing sorted on `sortBy` and then `_id` (in the same direction).
+   * MongoDB sorts a missing or `null` field before every other value, so
+   * those items come first in ascending order and last in descending order.
+   *
+   * @param descending whether the listing is in descending order
+   * @return a filter matching only items on later pages
+   */
+  public Bson filter(boolean descending) {
+    ObjectId afterId = new ObjectId(id);
+    if (sortBy.equals("_id")) {
+      return descending ? lt("_id", afterId) : gt("_id", afterId);
+    }
+    // Either the sort field is strictly past the last one we returned, or
+    // it's a tie and the `_id` breaks it.
+    Bson tie = and(eq(sortBy, value), descending ? lt("_id", afterId) : gt("_id", afterId));
+    if (value == null) {
+      return descending ? tie : or(tie, ne(sortBy, null));
+    }
+    return descending
+      ? or(lt(sortBy, value), tie, eq(sortBy, null))
+      : or(gt(sortBy, value), tie);
+  }
+
+  private static Object valueOf(JsonNode node) {
+    if (node.isNull()) {
+      return null;
+    } else if (node.isTextual()) {
+      return node.asText();
+    } else if (node.canConvertToInt() && node.isIntegralNumber()) {
+      return node.intValue();
+    } else if (node.isIntegralNumber()) {
+      return node.longValue();
+    } else if (node.isNumber()) {
+      return node.doubleValue();
+    } else if (node.isBoolean()) {
+      return node.booleanValue();
+    }
+    throw new IllegalArgumentException("The `after` cursor isn't one that this listing handed out.");
+  }
+}
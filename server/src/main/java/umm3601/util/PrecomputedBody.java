@@ -0,0 +1,101 @@
+package umm3601.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.zip.GZIPOutputStream;
+
+import io.javalin.http.ContentType;
+import io.javalin.http.Context;
+import io.javalin.http.Header;
+import io.javalin.http.HttpStatus;
+
+/**
+ * A JSON response body that has already been serialized, and (if it's big
+ * enough to be worth it) gzipped, so that it can be cached and sent again
+ * as just a copy of bytes.
+ * <p>
+ * The body is written straight to the servlet response, bypassing the
+ * compression Javalin applies to other responses, since it's already been
+ * compressed.
+ */
+public final class PrecomputedBody {
+
+  // Javalin doesn't compress responses smaller than this either; below
+  // about one network packet, compression doesn't save anything.
+  static final int COMPRESSION_THRESHOLD = 1500;
+
+  private static final String GZIP = "gzip";
+
+  private final byte[] json;
+  private final byte[] gzipped;
+
+  /**
+   * @param json the serialized JSON body
+   */
+  public PrecomputedBody(byte[] json) {
+    this.json = json;
+    this.gzipped = json.length >= COMPRESSION_THRESHOLD ? gzip(json) : null;
+  }
+
+  /**
+   * Send this body as a 200 response, gzipped if the client accepts that.
+   * Any other headers have to be set before calling this.
+   *
+   * @param ctx a Javalin HTTP context
+   * @throws IOException if writing the response fails
+   */
+  public void writeTo(Context ctx) throws IOException {
+    boolean useGzip = gzipped != null && acceptsGzip(ctx.header(Header.ACCEPT_ENCODING));
+    byte[] bytes = useGzip ? gzipped : json;
+
+    ctx.status(HttpStatus.OK);
+    ctx.res().setStatus(HttpStatus.OK.getCode());
+    ctx.res().setContentType(ContentType.APPLICATION_JSON.getMimeType());
+    ctx.res().setHeader(Header.VARY, Header.ACCEPT_ENCODING);
+    if (useGzip) {
+      ctx.res().setHeader(Header.CONTENT_ENCODING, GZIP);
+    }
+    ctx.res().setContentLength(bytes.length);
+    ctx.res().getOutputStream().write(bytes);
+  }
+
+  /**
+   * Check if an `Accept-Encoding` header allows gzip, i.e., lists `gzip`
+   * or `*` without a quality of zero.
+   */
+  static boolean acceptsGzip(String acceptEncoding) {
+    if (acceptEncoding == null) {
+      return false;
+    }
+    for (String coding : acceptEncoding.split(",")) {
+      String[] parts = coding.split(";");
+      String name = parts[0].trim();
+      if (name.equalsIgnoreCase(GZIP) || name.equals("*")) {
+        return parts.length < 2 || !isZeroQuality(parts[1].trim());
+      }
+    }
+    return false;
+  }
+
+  private static boolean isZeroQuality(String parameter) {
+    if (!parameter.startsWith("q=")) {
+      return false;
+    }
+    try {
+      return Double.parseDouble(parameter.substring(2)) == 0;
+    } catch (NumberFormatException e) {
+      return false;
+    }
+  }
+
+  private static byte[] gzip(byte[] bytes) {
+    ByteArrayOutputStream out = new ByteArrayOutputStream(bytes.length / 2);
+    try (GZIPOutputStream gzipOut = new GZIPOutputStream(out)) {
+      gzipOut.write(bytes);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    return out.toByteArray();
+  }
+}
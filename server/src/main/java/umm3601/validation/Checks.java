@@ -0,0 +1,54 @@
+package umm3601.validation;
+
+import java.util.regex.Pattern;
+
+/**
+ * Common checks on the values in request bodies and query params.
+ * <p>
+ * `String.matches` compiles its regex every time it is called, so the
+ * patterns here are compiled once, up front, and the checks that don't
+ * need a regex at all (like the role) don't use one.
+ */
+public final class Checks {
+
+  public static final String EMAIL_REGEX = "^[a-zA-Z0-9_!#$%&'*+/=?`{|}~^.-]+@[a-zA-Z0-9.-]+$";
+  private static final Pattern EMAIL_PATTERN = Pattern.compile(EMAIL_REGEX);
+
+  private Checks() {
+  }
+
+  /**
+   * @param str the string to check
+   * @return whether the string is present and not just whitespace
+   */
+  public static boolean isNonBlank(String str) {
+    return str != null && !str.isBlank();
+  }
+
+  /**
+   * @param email the string to check
+   * @return whether the string is a (plausibly) legal email address
+   */
+  public static boolean isEmail(String email) {
+    return email != null && EMAIL_PATTERN.matcher(email).matches();
+  }
+
+  /**
+   * @param role the string to check
+   * @return whether the string is one of the fsclient roles: "admin",
+   *   "editor", or "viewer"
+   */
+  public static boolean isRole(String role) {
+    if (role == null) {
+      return false;
+    }
+    switch (role) {
+      case "admin":
+      case "editor":
+      case "viewer":
+        return true;
+      default:
+        return false;
+    }
+  }
+}
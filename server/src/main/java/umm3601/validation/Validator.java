@@ -0,0 +1,100 @@
+package umm3601.validation;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+
+import io.javalin.http.BadRequestResponse;
+
+/**
+ * A reusable set of checks on a request body, like Javalin's body
+ * validator, but built once and shared rather than rebuilt (with new
+ * lambdas) on every request, and reporting every problem at once
+ * rather than just the first.
+ * <p>
+ * Each check belongs to a field. Once a check on a field fails, the
+ * later checks on that field are skipped, so they can assume the earlier
+ * ones passed (e.g., that the field isn't null).
+ * <p>
+ * Add all the checks before sharing the validator between threads;
+ * after that it is only ever read.
+ *
+ * @param <T> the type of the values to validate
+ */
+public final class Validator<T> {
+
+  private final String description;
+  private final List<Rule<T>> rules = new ArrayList<>();
+
+  /**
+   * @param description what is being validated (e.g., "Fsclient"), used
+   *   in the error message when there's nothing to validate at all
+   */
+  public Validator(String description) {
+    this.description = description;
+  }
+
+  /**
+   * Add a check.
+   *
+   * @param field the field being checked
+   * @param predicate true if the value passes the check
+   * @param message the problem to report if it doesn't
+   * @return this validator, so the checks can be chained
+   */
+  public Validator<T> check(String field, Predicate<? super T> predicate, String message) {
+    rules.add(new Rule<>(field, predicate, message));
+    return this;
+  }
+
+  /**
+   * Run all the checks.
+   *
+   * @param value the value to check
+   * @return the problems found, from field name to message, in the order
+   *   the checks were added; empty if the value is legal
+   */
+  public Map<String, String> problems(T value) {
+    Map<String, String> problems = new LinkedHashMap<>();
+    if (value == null) {
+      problems.put("body", description + " must not be empty");
+      return problems;
+    }
+    for (Rule<T> rule : rules) {
+      if (!problems.containsKey(rule.field) && !rule.predicate.test(value)) {
+        problems.put(rule.field, rule.message);
+      }
+    }
+    return problems;
+  }
+
+  /**
+   * Run all the checks, throwing if any of them fail.
+   *
+   * @param value the value to check
+   * @return the value, if it is legal
+   * @throws BadRequestResponse listing every problem (by field in the
+   *   details) if it isn't
+   */
+  public T validate(T value) {
+    Map<String, String> problems = problems(value);
+    if (!problems.isEmpty()) {
+      throw new BadRequestResponse(String.join("; ", problems.values()), problems);
+    }
+    return value;
+  }
+
+  private static final class Rule<T> {
+    private final String field;
+    private final Predicate<? super T> predicate;
+    private final String message;
+
+    private Rule(String field, Predicate<? super T> predicate, String message) {
+      this.field = field;
+      this.predicate = predicate;
+      this.message = message;
+    }
+  }
+}
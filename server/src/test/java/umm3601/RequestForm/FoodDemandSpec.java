@@ -0,0 +1,144 @@
+package umm3601.RequestForm;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+import com.mongodb.MongoClientSettings;
+import com.mongodb.ServerAddress;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests that `FoodDemand` counts request forms as they're added, sums the
+ * counts overall and over a range of days, and can rebuild them from the
+ * forms. Like `MongoSpec`, this needs a MongoDB server at `MONGO_ADDR`.
+ */
+@SuppressWarnings({"MagicNumber"})
+class FoodDemandSpec {
+
+  private static final LocalDate MONDAY = LocalDate.of(2023, 2, 13);
+  private static final LocalDate TUESDAY = MONDAY.plusDays(1);
+
+  private static MongoClient mongoClient;
+  private static MongoDatabase db;
+
+  private MongoCollection<Document> requestFormDocuments;
+  private FoodDemand foodDemand;
+
+  @BeforeAll
+  static void setupDB() {
+    String mongoAddr = System.getenv().getOrDefault("MONGO_ADDR", "localhost");
+
+    mongoClient = MongoClients.create(
+      MongoClientSettings.builder()
+      .applyToClusterSettings(builder ->
+        builder.hosts(Arrays.asList(new ServerAddress(mongoAddr))))
+      .build());
+
+    db = mongoClient.getDatabase("test");
+  }
+
+  @AfterAll
+  static void teardown() {
+    db.drop();
+    mongoClient.close();
+  }
+
+  @BeforeEach
+  void clearDB() {
+    requestFormDocuments = db.getCollection(MongoRequestFormRepository.COLLECTION_NAME);
+    requestFormDocuments.drop();
+    db.getCollection(FoodDemand.COLLECTION_NAME).drop();
+    db.getCollection(FoodDemand.TOTALS_COLLECTION_NAME).drop();
+    foodDemand = new FoodDemand(db, MongoRequestFormRepository.COLLECTION_NAME);
+  }
+
+  private static RequestForm form(LocalDate day, String... foods) {
+    RequestForm requestForm = new RequestForm();
+    requestForm._id = new ObjectId(Date.from(day.atStartOfDay(ZoneOffset.UTC).toInstant())).toHexString();
+    requestForm.name = "Ann";
+    requestForm.foods = new ArrayList<>(List.of(foods));
+    return requestForm;
+  }
+
+  private static List<String> counts(List<FoodCount> summary) {
+    List<String> counts = new ArrayList<>();
+    for (FoodCount count : summary) {
+      counts.add(count.food + "=" + count.count);
+    }
+    return counts;
+  }
+
+  @Test
+  void recordCountsEachFoodOncePerForm() {
+    foodDemand.record(List.of(
+      form(MONDAY, "milk", "eggs", "milk"),
+      form(MONDAY, "milk"),
+      form(TUESDAY, "eggs", "rice")));
+    foodDemand.record(List.of(form(TUESDAY, "eggs")));
+
+    assertEquals(List.of("eggs=3", "milk=2", "rice=1"), counts(foodDemand.summary(null, null)));
+  }
+
+  @Test
+  void summaryOnlyCountsTheGivenDays() {
+    foodDemand.record(List.of(
+      form(MONDAY, "milk", "eggs"),
+      form(TUESDAY, "eggs", "rice"),
+      form(TUESDAY, "rice")));
+
+    assertEquals(List.of("eggs=1", "milk=1"), counts(foodDemand.summary(null, MONDAY)));
+    assertEquals(List.of("rice=2", "eggs=1"), counts(foodDemand.summary(TUESDAY, null)));
+    assertEquals(List.of("eggs=2", "rice=2", "milk=1"), counts(foodDemand.summary(MONDAY, TUESDAY)));
+  }
+
+  @Test
+  void rebuildRecountsTheForms() {
+    // Forms added behind the counters' back
+    for (RequestForm requestForm : List.of(form(MONDAY, "milk", "milk"), form(TUESDAY, "milk", "eggs"))) {
+      requestFormDocuments.insertOne(new Document("_id", new ObjectId(requestForm._id))
+        .append("name", requestForm.name)
+        .append("foods", requestForm.foods));
+    }
+    // And a count for a form that isn't there
+    foodDemand.record(List.of(form(MONDAY, "rice")));
+
+    foodDemand.rebuild();
+    assertEquals(List.of("milk=2", "eggs=1"), counts(foodDemand.summary(null, null)));
+    assertEquals(List.of("eggs=1", "milk=1"), counts(foodDemand.summary(TUESDAY, TUESDAY)));
+  }
+
+  @Test
+  void missingTotalsMarkTheCountersStale() {
+    requestFormDocuments.insertOne(new Document("_id", new ObjectId(form(MONDAY)._id))
+      .append("name", "Ann")
+      .append("foods", List.of("milk")));
+    foodDemand.record(List.of(form(MONDAY, "milk")));
+    db.getCollection(FoodDemand.TOTALS_COLLECTION_NAME).drop();
+
+    foodDemand.checkTotals();
+    // Summaries don't rebuild stale counters themselves; they're just flagged
+    assertTrue(foodDemand.isStale());
+    assertEquals(List.of(), counts(foodDemand.summary(null, null)));
+    foodDemand.rebuild();
+    assertFalse(foodDemand.isStale());
+    assertEquals(List.of("milk=1"), counts(foodDemand.summary(null, null)));
+  }
+}
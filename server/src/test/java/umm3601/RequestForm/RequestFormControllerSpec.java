@@ -0,0 +1,295 @@
+package umm3601.RequestForm;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+
+import io.javalin.http.BadRequestResponse;
+import io.javalin.http.ConflictResponse;
+import io.javalin.http.Context;
+import io.javalin.http.Header;
+import io.javalin.http.HttpResponseException;
+import io.javalin.http.HttpStatus;
+import io.javalin.json.JavalinJackson;
+import io.javalin.validation.BodyValidator;
+import io.javalin.validation.Validator;
+import umm3601.events.ChangeFeed;
+import umm3601.util.PageCursor;
+
+/**
+ * Tests the request form handlers' responses (status codes, headers, and
+ * bodies) over an in-memory repository, with a mocked Javalin context.
+ * The database calls run on the calling thread, unless a test holds them
+ * back to look at a submission while it's still being saved.
+ */
+@SuppressWarnings({"MagicNumber"})
+class RequestFormControllerSpec {
+
+  private static final JavalinJackson JAVALIN_JACKSON = new JavalinJackson();
+  private static final String ANN = "{\"name\": \"Ann\", \"foods\": [\"milk\", \"eggs\"]}";
+  private static final String BOB = "{\"name\": \"Bob\", \"foods\": [\"rice\"]}";
+
+  private final FailingRepository repository = new FailingRepository();
+  private RequestFormDeduplicator deduplicator;
+  private RequestFormController controller;
+
+  /**
+   * An in-memory repository whose `insert` can be made to fail.
+   */
+  private static class FailingRepository extends InMemoryRequestFormRepository {
+    // How many more `insert` calls should throw
+    final AtomicInteger failures = new AtomicInteger();
+
+    @Override
+    public String insert(RequestForm requestForm) {
+      if (failures.getAndUpdate(n -> Math.max(n - 1, 0)) > 0) {
+        throw new IllegalStateException("MongoDB is down");
+      }
+      return super.insert(requestForm);
+    }
+  }
+
+  @BeforeEach
+  void setupController() {
+    deduplicator = newDeduplicator();
+    controller = newController(deduplicator, Runnable::run);
+  }
+
+  private static RequestFormDeduplicator newDeduplicator() {
+    return new RequestFormDeduplicator(Duration.ofHours(1), Duration.ofSeconds(10), 100);
+  }
+
+  private RequestFormController newController(RequestFormDeduplicator dedup, Executor executor) {
+    return new RequestFormController(repository, executor, new ChangeFeed(), null, dedup);
+  }
+
+  private static Context context(Map<String, String> queryParams, Map<String, String> headers) {
+    Context ctx = mock(Context.class);
+    Map<String, List<String>> queryParamMap = new LinkedHashMap<>();
+    queryParams.forEach((key, value) -> queryParamMap.put(key, List.of(value)));
+    when(ctx.path()).thenReturn("/api/requestform");
+    when(ctx.queryString()).thenReturn(queryParams.entrySet().stream()
+      .map(param -> param.getKey() + "=" + param.getValue())
+      .collect(Collectors.joining("&")));
+    when(ctx.queryParamMap()).thenReturn(queryParamMap);
+    when(ctx.queryParam(anyString())).thenAnswer(invocation -> queryParams.get(invocation.<String>getArgument(0)));
+    when(ctx.queryParamAsClass(anyString(), any())).thenAnswer(invocation -> Validator.create(
+      invocation.getArgument(1), queryParams.get(invocation.<String>getArgument(0)), invocation.getArgument(0)));
+    when(ctx.header(anyString())).thenAnswer(invocation -> headers.get(invocation.<String>getArgument(0)));
+    return ctx;
+  }
+
+  private static Context submission(String body, String idempotencyKey) {
+    Context ctx = context(Map.of(), idempotencyKey == null
+      ? Map.of()
+      : Map.of(RequestFormController.IDEMPOTENCY_KEY_HEADER, idempotencyKey));
+    when(ctx.bodyValidator(RequestForm.class))
+      .then(value -> new BodyValidator<>(body, RequestForm.class, JAVALIN_JACKSON));
+    return ctx;
+  }
+
+  /**
+   * Start the future the handler gave the context, as Javalin would.
+   */
+  @SuppressWarnings({"unchecked", "rawtypes"})
+  private static CompletableFuture<?> startFuture(Context ctx) {
+    ArgumentCaptor<Supplier<CompletableFuture<?>>> futureCaptor = ArgumentCaptor.forClass((Class) Supplier.class);
+    verify(ctx).future(futureCaptor.capture());
+    return futureCaptor.getValue().get();
+  }
+
+  private static void awaitFuture(Context ctx) {
+    startFuture(ctx).join();
+  }
+
+  @SuppressWarnings({"unchecked"})
+  private static String idIn(Context ctx) {
+    ArgumentCaptor<Object> jsonCaptor = ArgumentCaptor.forClass(Object.class);
+    verify(ctx).json(jsonCaptor.capture());
+    return (String) ((Map<String, Object>) jsonCaptor.getValue()).get("id");
+  }
+
+  private String submit(String body, String idempotencyKey) {
+    Context ctx = submission(body, idempotencyKey);
+    controller.addNewRequestForms(ctx);
+    awaitFuture(ctx);
+    verify(ctx).status(HttpStatus.CREATED);
+    return idIn(ctx);
+  }
+
+  private static String etagOf(Context ctx) {
+    ArgumentCaptor<String> etagCaptor = ArgumentCaptor.forClass(String.class);
+    verify(ctx).header(eq(Header.ETAG), etagCaptor.capture());
+    return etagCaptor.getValue();
+  }
+
+  @Test
+  void newFormsAreCreatedWithAServerId() {
+    String clientId = new ObjectId().toHexString();
+    Context ctx = submission("{\"_id\": \"" + clientId + "\", \"name\": \"Ann\", \"foods\": [\"milk\"]}", null);
+    controller.addNewRequestForms(ctx);
+    awaitFuture(ctx);
+
+    verify(ctx).status(HttpStatus.CREATED);
+    String id = idIn(ctx);
+    assertNotEquals(clientId, id);
+    assertEquals("Ann", repository.findById(id).name);
+  }
+
+  @Test
+  void duplicateOfAFormStillBeingSavedGetsAConflict() {
+    List<Runnable> held = new ArrayList<>();
+    controller = newController(deduplicator, held::add);
+    Context first = submission(ANN, "key-1");
+    controller.addNewRequestForms(first);
+    CompletableFuture<?> saving = startFuture(first);
+
+    Context retry = submission(ANN, "key-1");
+    assertThrows(ConflictResponse.class, () -> controller.addNewRequestForms(retry));
+    verify(retry).header("Retry-After", "1");
+    verify(retry, never()).future(any());
+
+    // Once the first one is saved, a retry gets its id
+    held.forEach(Runnable::run);
+    saving.join();
+    Context laterRetry = submission(ANN, "key-1");
+    controller.addNewRequestForms(laterRetry);
+    verify(laterRetry).status(HttpStatus.OK);
+    assertEquals(idIn(first), idIn(laterRetry));
+  }
+
+  @Test
+  void reusedKeyIsUnprocessable() {
+    submit(ANN, "key-1");
+
+    HttpResponseException thrown = assertThrows(HttpResponseException.class,
+      () -> controller.addNewRequestForms(submission(BOB, "key-1")));
+    assertEquals(HttpStatus.UNPROCESSABLE_CONTENT.getCode(), thrown.getStatus());
+  }
+
+  @Test
+  void keyReusedOnAnotherServerIsUnprocessable() {
+    submit(ANN, "key-1");
+
+    // Another server hasn't seen the key, but the database has
+    RequestFormController otherServer = newController(newDeduplicator(), Runnable::run);
+    Context ctx = submission(BOB, "key-1");
+    otherServer.addNewRequestForms(ctx);
+    CompletionException thrown = assertThrows(CompletionException.class, () -> awaitFuture(ctx));
+    HttpResponseException cause = assertInstanceOf(HttpResponseException.class, thrown.getCause());
+    assertEquals(HttpStatus.UNPROCESSABLE_CONTENT.getCode(), cause.getStatus());
+  }
+
+  @Test
+  void retryToAnotherServerGetsTheOriginalId() {
+    String id = submit(ANN, "key-1");
+
+    RequestFormController otherServer = newController(newDeduplicator(), Runnable::run);
+    Context ctx = submission(ANN, "key-1");
+    otherServer.addNewRequestForms(ctx);
+    awaitFuture(ctx);
+
+    verify(ctx).status(HttpStatus.OK);
+    assertEquals(id, idIn(ctx));
+    assertEquals(1, repository.count(new RequestFormQuery()));
+  }
+
+  @Test
+  void failedSubmissionReleasesItsKey() {
+    repository.failures.set(1);
+    Context ctx = submission(ANN, "key-1");
+    controller.addNewRequestForms(ctx);
+    assertThrows(CompletionException.class, () -> awaitFuture(ctx));
+    verify(ctx, never()).status(any(HttpStatus.class));
+
+    // The retry is saved, rather than told the first attempt is in progress
+    String id = submit(ANN, "key-1");
+    assertEquals("Ann", repository.findById(id).name);
+  }
+
+  @Test
+  void unchangedListIsNotModified() {
+    submit(ANN, null);
+    Context ctx = context(Map.of("name", "Ann"), Map.of());
+    controller.getRequestForms(ctx);
+    verify(ctx).status(HttpStatus.OK);
+    String etag = etagOf(ctx);
+
+    Context again = context(Map.of("name", "Ann"), Map.of(Header.IF_NONE_MATCH, etag));
+    controller.getRequestForms(again);
+    verify(again).status(HttpStatus.NOT_MODIFIED);
+    verify(again, never()).json(any());
+
+    // Adding a form changes the tag
+    submit(BOB, null);
+    Context afterAdd = context(Map.of("name", "Ann"), Map.of(Header.IF_NONE_MATCH, etag));
+    controller.getRequestForms(afterAdd);
+    verify(afterAdd).status(HttpStatus.OK);
+    assertNotEquals(etag, etagOf(afterAdd));
+  }
+
+  @Test
+  void unchangedFormIsNotModified() {
+    String id = submit(ANN, null);
+    Context ctx = context(Map.of(), Map.of());
+    when(ctx.pathParam("id")).thenReturn(id);
+    controller.getRequestForm(ctx);
+    verify(ctx).status(HttpStatus.OK);
+
+    Context again = context(Map.of(), Map.of(Header.IF_NONE_MATCH, etagOf(ctx)));
+    when(again.pathParam("id")).thenReturn(id);
+    controller.getRequestForm(again);
+    verify(again).status(HttpStatus.NOT_MODIFIED);
+    verify(again, never()).result(any(byte[].class));
+  }
+
+  @Test
+  void badAfterCursorIsABadRequest() {
+    assertThrows(BadRequestResponse.class,
+      () -> controller.getRequestForms(context(Map.of("after", "not a cursor"), Map.of())));
+
+    // A cursor from a listing sorted by something else
+    String idCursor = new PageCursor("_id", null, new ObjectId().toHexString()).encode();
+    assertThrows(BadRequestResponse.class,
+      () -> controller.getRequestForms(context(Map.of("after", idCursor), Map.of())));
+  }
+
+  @Test
+  void fullPageHasANextPageCursor() {
+    submit(ANN, null);
+    submit(BOB, null);
+    Context ctx = context(Map.of("limit", "1"), Map.of());
+    controller.getRequestForms(ctx);
+
+    ArgumentCaptor<String> cursorCaptor = ArgumentCaptor.forClass(String.class);
+    verify(ctx).header(eq(RequestFormController.NEXT_PAGE_HEADER), cursorCaptor.capture());
+    Context nextPage = context(Map.of("limit", "1", "after", cursorCaptor.getValue()), Map.of());
+    controller.getRequestForms(nextPage);
+    verify(nextPage).status(HttpStatus.OK);
+  }
+}
@@ -0,0 +1,119 @@
+package umm3601.RequestForm;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests that `RequestFormDeduplicator` spots retries (by idempotency key)
+ * and resubmissions (by contents), and forgets them when it should.
+ */
+@SuppressWarnings({"MagicNumber"})
+class RequestFormDeduplicatorSpec {
+
+  private final AtomicLong now = new AtomicLong();
+  private RequestFormDeduplicator deduplicator;
+
+  private static RequestForm form(String name, String... foods) {
+    RequestForm requestForm = new RequestForm();
+    requestForm.name = name;
+    requestForm.foods = new ArrayList<>(List.of(foods));
+    return requestForm;
+  }
+
+  @BeforeEach
+  void setupDeduplicator() {
+    deduplicator = new RequestFormDeduplicator(Duration.ofHours(1), Duration.ofSeconds(10), 1000, now::get);
+  }
+
+  @Test
+  void retryGetsTheOriginalId() {
+    RequestFormDeduplicator.Submission first = deduplicator.submit("key", form("Ann", "milk"));
+    assertFalse(first.isDuplicate());
+
+    // While the first is being saved, a retry has to wait
+    RequestFormDeduplicator.Submission retry = deduplicator.submit("key", form("Ann", "milk"));
+    assertTrue(retry.isDuplicate());
+    assertNull(retry.originalId());
+
+    first.saved("id1");
+    retry = deduplicator.submit("key", form("Ann", "milk"));
+    assertTrue(retry.isDuplicate());
+    assertEquals("id1", retry.originalId());
+  }
+
+  @Test
+  void keyReusedForADifferentFormIsSpotted() {
+    RequestFormDeduplicator.Submission first = deduplicator.submit("key", form("Ann", "milk"));
+    assertEquals("key", first.idempotencyKey());
+    assertTrue(deduplicator.submit("key", form("Ann", "milk", "eggs")).isKeyReused());
+
+    first.saved("id1");
+    RequestFormDeduplicator.Submission reused = deduplicator.submit("key", form("Bob", "milk"));
+    assertTrue(reused.isKeyReused());
+    assertFalse(reused.isDuplicate());
+  }
+
+  @Test
+  void formSavedEarlierWithTheKeyIsTheOriginal() {
+    RequestFormDeduplicator.Submission first = deduplicator.submit("key", form("Ann", "milk"));
+    RequestForm original = form(" ann", "MILK");
+    assertTrue(first.sameContents(original));
+    assertFalse(first.sameContents(form("Ann", "eggs")));
+
+    first.savedEarlier("id0");
+    assertEquals("id0", deduplicator.submit("key", form("Ann", "milk")).originalId());
+  }
+
+  @Test
+  void failedSubmissionCanBeRetried() {
+    deduplicator.submit("key", form("Ann", "milk")).failed();
+    assertFalse(deduplicator.submit("key", form("Ann", "milk")).isDuplicate());
+  }
+
+  @Test
+  void sameContentsIsADuplicateWithinTheWindow() {
+    deduplicator.submit(null, form("Ann", "milk", "eggs")).saved("id1");
+
+    RequestFormDeduplicator.Submission again = deduplicator.submit("key", form(" ann ", "EGGS", "milk"));
+    assertEquals("id1", again.originalId());
+    // The new key now stands for the same form
+    assertEquals("id1", deduplicator.submit("key", form("Ann", "milk", "eggs")).originalId());
+    assertTrue(deduplicator.submit("key", form("Bob", "rice")).isKeyReused());
+
+    assertFalse(deduplicator.submit(null, form("Ann", "milk")).isDuplicate());
+
+    now.addAndGet(Duration.ofSeconds(11).toNanos());
+    assertFalse(deduplicator.submit(null, form("Ann", "milk", "eggs")).isDuplicate());
+  }
+
+  @Test
+  void contentKeyIgnoresCaseSpacesAndOrder() {
+    assertEquals(
+      RequestFormDeduplicator.contentKey(form("Ann", "milk", "eggs")),
+      RequestFormDeduplicator.contentKey(form("ANN ", " Eggs", "MILK")));
+    assertNotEquals(
+      RequestFormDeduplicator.contentKey(form("Ann", "milk", "eggs")),
+      RequestFormDeduplicator.contentKey(form("Ann", "milk eggs")));
+  }
+
+  @Test
+  void disabledFindsNoDuplicates() {
+    RequestFormDeduplicator disabled = RequestFormDeduplicator.disabled();
+    disabled.submit("key", form("Ann", "milk")).saved("id1");
+    RequestFormDeduplicator.Submission again = disabled.submit("key", form("Ann", "milk"));
+    assertFalse(again.isDuplicate());
+    // The header is ignored, so the key isn't saved with the form either
+    assertNull(again.idempotencyKey());
+  }
+}
@@ -0,0 +1,239 @@
+package umm3601.RequestForm;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import com.mongodb.MongoSocketException;
+import com.mongodb.ServerAddress;
+
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import umm3601.events.ChangeFeed;
+
+/**
+ * Tests that `RequestFormWriteBehind` journals the forms it's given, saves
+ * them in the background (retrying while the database is down, and setting
+ * aside forms that can't be saved at all), replays whatever the last run
+ * left in the journal, and empties the journal once it's saved.
+ */
+@SuppressWarnings({"MagicNumber"})
+class RequestFormWriteBehindSpec {
+
+  private static final long TIMEOUT_MILLIS = 5000;
+
+  @TempDir
+  Path directory;
+
+  private final FlakyRepository repository = new FlakyRepository();
+  private RequestFormWriteBehind writeBehind;
+
+  /**
+   * An in-memory repository whose `insertMany` can be made to fail.
+   */
+  private static class FlakyRepository extends InMemoryRequestFormRepository {
+    // How many more `insertMany` calls should throw
+    final AtomicInteger failures = new AtomicInteger();
+    volatile RuntimeException failure = new MongoSocketException("MongoDB is down", new ServerAddress());
+    volatile Error fatal;
+
+    @Override
+    public List<String> insertMany(List<RequestForm> forms) {
+      if (fatal != null) {
+        throw fatal;
+      }
+      for (RequestForm form : forms) {
+        if (form.name.equals("Poison")) {
+          throw new IllegalArgumentException("Can't save " + form._id);
+        }
+      }
+      if (failures.getAndUpdate(n -> Math.max(n - 1, 0)) > 0) {
+        throw failure;
+      }
+      return super.insertMany(forms);
+    }
+  }
+
+  @AfterEach
+  void stopWriteBehind() {
+    if (writeBehind != null) {
+      writeBehind.stop();
+    }
+  }
+
+  private Path journal() {
+    return directory.resolve("request-forms.journal");
+  }
+
+  private RequestFormWriteBehind startWriteBehind() throws IOException {
+    writeBehind = new RequestFormWriteBehind(repository, new ChangeFeed(), journal(), 100, 10, 10);
+    writeBehind.start();
+    return writeBehind;
+  }
+
+  private static RequestForm form(String name, String... foods) {
+    RequestForm requestForm = new RequestForm();
+    requestForm._id = new ObjectId().toHexString();
+    requestForm.name = name;
+    requestForm.foods = new ArrayList<>(List.of(foods));
+    return requestForm;
+  }
+
+  private static void eventually(BooleanSupplier condition) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+    while (!condition.getAsBoolean()) {
+      assertTrue(System.currentTimeMillis() < deadline, "Timed out waiting");
+      Thread.sleep(10);
+    }
+  }
+
+  private Path deadLetters() {
+    return directory.resolve("request-forms.journal.dead");
+  }
+
+  private boolean journalIsEmpty() {
+    try {
+      return Files.size(journal()) == 0;
+    } catch (IOException e) {
+      return false;
+    }
+  }
+
+  @Test
+  void submittedFormsAreSavedAndTheJournalEmptied() throws Exception {
+    startWriteBehind();
+    RequestForm ann = form("Ann", "milk");
+    RequestForm bob = form("Bob", "eggs", "rice");
+
+    assertTrue(writeBehind.submit(ann));
+    assertTrue(writeBehind.submit(bob));
+    // Both are in the journal before they're saved
+    assertTrue(Files.readString(journal()).contains(bob._id));
+
+    eventually(() -> repository.findById(ann._id) != null && repository.findById(bob._id) != null);
+    eventually(this::journalIsEmpty);
+    assertEquals(0, writeBehind.pending());
+  }
+
+  @Test
+  void formsLeftInTheJournalAreReplayed() throws Exception {
+    RequestForm ann = form("Ann", "milk");
+    RequestForm bob = form("Bob", "eggs");
+    // A crash can leave half a line at the end
+    Files.writeString(journal(),
+      new String(RequestFormWriteBehind.journalLine(ann), StandardCharsets.UTF_8)
+      + new String(RequestFormWriteBehind.journalLine(bob), StandardCharsets.UTF_8)
+      + "{\"_id\":\"", StandardCharsets.UTF_8);
+
+    startWriteBehind();
+    eventually(() -> repository.findById(ann._id) != null && repository.findById(bob._id) != null);
+    eventually(this::journalIsEmpty);
+  }
+
+  @Test
+  void replayWaitsForTheDatabase() throws Exception {
+    RequestForm ann = form("Ann", "milk");
+    Files.write(journal(), RequestFormWriteBehind.journalLine(ann));
+    repository.failures.set(2);
+
+    // Starting doesn't touch the database, so it doesn't fail
+    startWriteBehind();
+    RequestForm bob = form("Bob", "eggs");
+    assertTrue(writeBehind.submit(bob));
+
+    eventually(() -> repository.findById(ann._id) != null && repository.findById(bob._id) != null);
+    assertEquals(0, repository.failures.get());
+    eventually(this::journalIsEmpty);
+  }
+
+  @Test
+  void unsavedFormsStayInTheJournal() throws Exception {
+    repository.failures.set(Integer.MAX_VALUE);
+    startWriteBehind();
+    RequestForm ann = form("Ann", "milk");
+    assertTrue(writeBehind.submit(ann));
+    writeBehind.stop();
+    writeBehind = null;
+    assertTrue(Files.readString(journal()).contains(ann._id));
+
+    // The next run saves it
+    repository.failures.set(0);
+    startWriteBehind();
+    eventually(() -> repository.findById(ann._id) != null);
+  }
+
+  @Test
+  void formsThatCantBeSavedAreDeadLettered() throws Exception {
+    repository.failure = new IllegalStateException("Unexpected");
+    repository.failures.set(1);
+    startWriteBehind();
+    RequestForm ann = form("Ann", "milk");
+    assertTrue(writeBehind.submit(ann));
+
+    // It isn't retried, but the writer carries on
+    eventually(() -> Files.exists(deadLetters()));
+    assertTrue(Files.readString(deadLetters()).contains(ann._id));
+    RequestForm bob = form("Bob", "eggs");
+    assertTrue(writeBehind.submit(bob));
+    eventually(() -> repository.findById(bob._id) != null);
+    assertNull(repository.findById(ann._id));
+    eventually(this::journalIsEmpty);
+  }
+
+  @Test
+  void oneBadFormDoesntHoldUpTheRestOfItsBatch() throws Exception {
+    RequestForm ann = form("Ann", "milk");
+    RequestForm poison = form("Poison", "eggs");
+    RequestForm bob = form("Bob", "rice");
+    RequestForm cat = form("Cat", "beans");
+    Files.write(journal(), RequestFormWriteBehind.journalLine(ann));
+    Files.write(journal(), RequestFormWriteBehind.journalLine(poison), StandardOpenOption.APPEND);
+    Files.write(journal(), RequestFormWriteBehind.journalLine(bob), StandardOpenOption.APPEND);
+    Files.write(journal(), RequestFormWriteBehind.journalLine(cat), StandardOpenOption.APPEND);
+
+    startWriteBehind();
+    eventually(() -> repository.findById(ann._id) != null
+      && repository.findById(bob._id) != null
+      && repository.findById(cat._id) != null);
+    eventually(this::journalIsEmpty);
+    assertNull(repository.findById(poison._id));
+    String deadLetters = Files.readString(deadLetters());
+    assertTrue(deadLetters.contains(poison._id));
+    assertFalse(deadLetters.contains(ann._id));
+  }
+
+  @Test
+  void submitFailsOnceTheWriterHasDied() throws Exception {
+    repository.fatal = new AssertionError("The writer dies");
+    startWriteBehind();
+    assertTrue(writeBehind.submit(form("Ann", "milk")));
+
+    eventually(() -> {
+      try {
+        writeBehind.submit(form("Bob", "eggs"));
+        return false;
+      } catch (IllegalStateException e) {
+        return true;
+      }
+    });
+    IllegalStateException thrown = assertThrows(IllegalStateException.class,
+      () -> writeBehind.submit(form("Cat", "rice")));
+    assertNotNull(thrown.getMessage());
+  }
+}
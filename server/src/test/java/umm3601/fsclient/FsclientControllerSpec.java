@@ -0,0 +1,189 @@
+package umm3601.fsclient;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+
+import io.javalin.http.BadRequestResponse;
+import io.javalin.http.Context;
+import io.javalin.http.Header;
+import io.javalin.http.HttpStatus;
+import io.javalin.json.JavalinJackson;
+import io.javalin.validation.BodyValidator;
+import io.javalin.validation.ValidationException;
+import io.javalin.validation.Validator;
+import umm3601.events.ChangeFeed;
+import umm3601.util.PageCursor;
+
+/**
+ * Tests the fsclient handlers' responses (status codes, headers, and
+ * bodies) over an in-memory repository, with a mocked Javalin context.
+ * The database calls run on the calling thread.
+ */
+@SuppressWarnings({"MagicNumber"})
+class FsclientControllerSpec {
+
+  private static final JavalinJackson JAVALIN_JACKSON = new JavalinJackson();
+
+  private InMemoryFsclientRepository repository;
+  private FsclientController controller;
+  private String bobId;
+  private String carlId;
+
+  private static Fsclient fsclient(String name, String role, String company, int age) {
+    Fsclient fsclient = new Fsclient();
+    fsclient.name = name;
+    fsclient.role = role;
+    fsclient.company = company;
+    fsclient.age = age;
+    return fsclient;
+  }
+
+  @BeforeEach
+  void setupController() {
+    repository = new InMemoryFsclientRepository();
+    bobId = repository.insert(fsclient("bob", "admin", "OHMNET", 25));
+    carlId = repository.insert(fsclient("carl", "editor", "Niquent", 30));
+    controller = new FsclientController(repository, Runnable::run, new ChangeFeed());
+  }
+
+  private static Context context(Map<String, String> queryParams, Map<String, String> headers) {
+    Context ctx = mock(Context.class);
+    Map<String, List<String>> queryParamMap = new LinkedHashMap<>();
+    queryParams.forEach((key, value) -> queryParamMap.put(key, List.of(value)));
+    when(ctx.path()).thenReturn("/api/fsclients");
+    when(ctx.queryString()).thenReturn(queryParams.entrySet().stream()
+      .map(param -> param.getKey() + "=" + param.getValue())
+      .collect(Collectors.joining("&")));
+    when(ctx.queryParamMap()).thenReturn(queryParamMap);
+    when(ctx.queryParam(anyString())).thenAnswer(invocation -> queryParams.get(invocation.<String>getArgument(0)));
+    when(ctx.queryParamAsClass(anyString(), any())).thenAnswer(invocation -> Validator.create(
+      invocation.getArgument(1), queryParams.get(invocation.<String>getArgument(0)), invocation.getArgument(0)));
+    when(ctx.header(anyString())).thenAnswer(invocation -> headers.get(invocation.<String>getArgument(0)));
+    return ctx;
+  }
+
+  private static Context batchRequest(String... ids) {
+    String body = Arrays.stream(ids)
+      .map(id -> "\"" + id + "\"")
+      .collect(Collectors.joining(", ", "{\"ids\": [", "]}"));
+    Context ctx = context(Map.of(), Map.of());
+    when(ctx.bodyValidator(FsclientController.BatchRequest.class))
+      .then(value -> new BodyValidator<>(body, FsclientController.BatchRequest.class, JAVALIN_JACKSON));
+    return ctx;
+  }
+
+  /**
+   * Run the future the handler gave the context, as Javalin would, and
+   * wait for it.
+   */
+  @SuppressWarnings({"unchecked", "rawtypes"})
+  private static void awaitFuture(Context ctx) {
+    ArgumentCaptor<Supplier<CompletableFuture<?>>> futureCaptor = ArgumentCaptor.forClass((Class) Supplier.class);
+    verify(ctx).future(futureCaptor.capture());
+    futureCaptor.getValue().get().join();
+  }
+
+  @SuppressWarnings({"unchecked"})
+  private static Map<String, Object> jsonOf(Context ctx) {
+    ArgumentCaptor<Object> jsonCaptor = ArgumentCaptor.forClass(Object.class);
+    verify(ctx).json(jsonCaptor.capture());
+    return (Map<String, Object>) jsonCaptor.getValue();
+  }
+
+  private static String etagOf(Context ctx) {
+    ArgumentCaptor<String> etagCaptor = ArgumentCaptor.forClass(String.class);
+    verify(ctx).header(eq(Header.ETAG), etagCaptor.capture());
+    return etagCaptor.getValue();
+  }
+
+  @Test
+  @SuppressWarnings({"unchecked"})
+  void batchGetListsFoundMissingAndInvalidIds() {
+    String missingId = new ObjectId().toHexString();
+    Context ctx = batchRequest(carlId, missingId, "not-an-id", bobId, carlId);
+    controller.getFsclientsByIds(ctx);
+    awaitFuture(ctx);
+
+    verify(ctx).status(HttpStatus.OK);
+    Map<String, Object> result = jsonOf(ctx);
+    List<Fsclient> fsclients = (List<Fsclient>) result.get("fsclients");
+    assertEquals(List.of(carlId, bobId), fsclients.stream().map(fsclient -> fsclient._id).toList());
+    assertEquals(List.of(missingId), result.get("notFound"));
+    assertEquals(List.of("not-an-id"), result.get("invalid"));
+  }
+
+  @Test
+  void batchDeleteListsDeletedMissingAndInvalidIds() {
+    String missingId = new ObjectId().toHexString();
+    Context ctx = batchRequest(bobId, missingId, "not-an-id");
+    controller.deleteFsclientsByIds(ctx);
+    awaitFuture(ctx);
+
+    verify(ctx).status(HttpStatus.OK);
+    Map<String, Object> result = jsonOf(ctx);
+    assertEquals(List.of(bobId), result.get("deleted"));
+    assertEquals(List.of(missingId), result.get("notFound"));
+    assertEquals(List.of("not-an-id"), result.get("invalid"));
+    assertNull(repository.findById(bobId));
+    assertEquals("carl", repository.findById(carlId).name);
+  }
+
+  @Test
+  void emptyBatchIsABadRequest() {
+    // Javalin turns a failed validation into a 400
+    assertThrows(ValidationException.class, () -> controller.getFsclientsByIds(batchRequest()));
+  }
+
+  @Test
+  void unchangedListIsNotModified() {
+    Context ctx = context(Map.of("role", "admin"), Map.of());
+    controller.getFsclients(ctx);
+    String etag = etagOf(ctx);
+
+    Context again = context(Map.of("role", "admin"), Map.of(Header.IF_NONE_MATCH, etag));
+    controller.getFsclients(again);
+    verify(again).status(HttpStatus.NOT_MODIFIED);
+    verify(again, never()).future(any());
+
+    // Deleting an fsclient changes the tag
+    Context delete = batchRequest(carlId);
+    controller.deleteFsclientsByIds(delete);
+    awaitFuture(delete);
+    Context afterDelete = context(Map.of("role", "admin"), Map.of(Header.IF_NONE_MATCH, etag));
+    controller.getFsclients(afterDelete);
+    verify(afterDelete, never()).status(HttpStatus.NOT_MODIFIED);
+    verify(afterDelete).future(any());
+  }
+
+  @Test
+  void badAfterCursorIsABadRequest() {
+    assertThrows(BadRequestResponse.class,
+      () -> controller.getFsclients(context(Map.of("after", "not a cursor"), Map.of())));
+
+    // A cursor from a listing sorted by something else
+    String ageCursor = new PageCursor("age", 25, bobId).encode();
+    assertThrows(BadRequestResponse.class,
+      () -> controller.getFsclients(context(Map.of("sortby", "company", "after", ageCursor), Map.of())));
+  }
+}
@@ -0,0 +1,82 @@
+package umm3601.fsclient;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+@SuppressWarnings({"MagicNumber"})
+public class FsclientSearchIndexSpec {
+
+  private FsclientSearchIndex index;
+
+  private static Fsclient fsclient(String id, String name, String company, String email) {
+    Fsclient fsclient = new Fsclient();
+    fsclient._id = id;
+    fsclient.name = name;
+    fsclient.company = company;
+    fsclient.email = email;
+    return fsclient;
+  }
+
+  private List<String> search(String query) {
+    return index.search(query, 10);
+  }
+
+  @BeforeEach
+  public void setupIndex() {
+    index = new FsclientSearchIndex();
+    index.add(fsclient("1", "Connie Stewart", "OHMNET", "conniestewart@ohmnet.com"));
+    index.add(fsclient("2", "Stewart Ohm", "Conbox", "stew@conbox.com"));
+    index.add(fsclient("3", "Lynn Ferguson", "Stew Inc", "lynn@stewinc.com"));
+  }
+
+  @Test
+  public void splitsIntoLowercaseWords() {
+    assertEquals(List.of("conniestewart", "ohmnet", "com"), FsclientSearchIndex.words("ConnieStewart@OHMNET.com"));
+    assertEquals(List.of(), FsclientSearchIndex.words(" -- "));
+    assertEquals(List.of(), FsclientSearchIndex.words(null));
+  }
+
+  @Test
+  public void findsByPrefix() {
+    assertEquals(List.of("1", "2"), search("con"));
+    assertEquals(List.of("3"), search("FERG"));
+    assertEquals(List.of(), search("xyz"));
+    assertEquals(List.of(), search(""));
+  }
+
+  @Test
+  public void requiresEveryWord() {
+    assertEquals(List.of("1"), search("connie st"));
+    assertEquals(List.of("3"), search("lynn stew"));
+  }
+
+  @Test
+  public void ranksNamesAndWholeWordsFirst() {
+    // "Ohm" is all of fsclient 2's last name, but only the start of
+    // fsclient 1's company and email
+    assertEquals(List.of("2", "1"), search("ohm"));
+  }
+
+  @Test
+  public void limitsResults() {
+    assertEquals(1, index.search("stew", 1).size());
+  }
+
+  @Test
+  public void removesAndReplaces() {
+    index.remove("1");
+    assertFalse(index.contains("1"));
+    assertEquals(List.of("2"), search("con"));
+
+    index.add(fsclient("2", "Bob Jones", "Acme", "bob@acme.com"));
+    assertEquals(2, index.size());
+    assertEquals(List.of("3"), search("stew"));
+    assertTrue(index.contains("2"));
+  }
+}
@@ -0,0 +1,73 @@
+package umm3601.fsclient;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests that `FsclientStats` counts fsclients into the same groups and
+ * age bands as the aggregation in `MongoFsclientRepository`.
+ */
+@SuppressWarnings({"MagicNumber"})
+class FsclientStatsSpec {
+
+  private static Fsclient fsclient(String role, String company, int age) {
+    Fsclient fsclient = new Fsclient();
+    fsclient.role = role;
+    fsclient.company = company;
+    fsclient.age = age;
+    return fsclient;
+  }
+
+  @Test
+  void countsByRoleCompanyAndAge() {
+    FsclientStats stats = new FsclientStats();
+    stats.add(fsclient("admin", "OHMNET", 25));
+    stats.add(fsclient("admin", "NIQUENT", 29));
+    stats.add(fsclient("viewer", "OHMNET", 3));
+    stats.add(fsclient(null, null, 200));
+
+    Map<String, Object> counts = stats.toMap();
+    assertEquals(4L, counts.get("total"));
+    assertEquals(Map.of("admin", 2L, "viewer", 1L, "unknown", 1L), counts.get("byRole"));
+    assertEquals(Map.of("OHMNET", 2L, "NIQUENT", 1L, "unknown", 1L), counts.get("byCompany"));
+    assertEquals(Map.of("0-9", 1L, "20-29", 2L, "other", 1L), counts.get("byAge"));
+  }
+
+  @Test
+  void removingForgetsEmptyGroups() {
+    FsclientStats stats = new FsclientStats();
+    Fsclient ann = fsclient("editor", "OHMNET", 40);
+    stats.add(ann);
+    stats.add(fsclient("viewer", "OHMNET", 41));
+    stats.remove(ann);
+
+    Map<String, Object> counts = stats.toMap();
+    assertEquals(1L, counts.get("total"));
+    assertEquals(Map.of("viewer", 1L), counts.get("byRole"));
+    assertEquals(Map.of("40-49", 1L), counts.get("byAge"));
+  }
+
+  @Test
+  void agesFallInTheSameBandsAsTheAggregation() {
+    assertEquals(List.of(0, 10, 20, 30, 40, 50, 60, 70, 80, 90, 100, 110, 120, 130, 140, 150),
+      FsclientStats.ageBoundaries());
+    assertEquals(0, FsclientStats.ageBand(0));
+    assertEquals(140, FsclientStats.ageBand(149));
+    assertEquals(-1, FsclientStats.ageBand(150));
+    assertEquals(-1, FsclientStats.ageBand(-1));
+  }
+
+  @Test
+  void missingAgeIsInTheSameBandAsTheAggregationPutsIt() {
+    // MongoJack leaves `age` at 0 for a document without one, which is
+    // what the aggregation uses for a missing age too
+    FsclientStats stats = new FsclientStats();
+    stats.add(new Fsclient());
+    assertEquals(Map.of("0-9", 1L), stats.toMap().get("byAge"));
+    assertEquals(0, FsclientStats.ageBand(FsclientStats.MISSING_AGE));
+  }
+}
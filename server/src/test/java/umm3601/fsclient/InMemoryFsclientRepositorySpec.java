@@ -0,0 +1,135 @@
+package umm3601.fsclient;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests that `InMemoryFsclientRepository` filters, sorts, and pages
+ * fsclients the same way the MongoDB queries do.
+ */
+@SuppressWarnings({"MagicNumber"})
+class InMemoryFsclientRepositorySpec {
+
+  private InMemoryFsclientRepository repository;
+
+  private static Fsclient fsclient(String name, String role, String company, int age) {
+    Fsclient fsclient = new Fsclient();
+    fsclient.name = name;
+    fsclient.role = role;
+    fsclient.company = company;
+    fsclient.age = age;
+    return fsclient;
+  }
+
+  private List<String> names(FsclientQuery query) {
+    return repository.find(query).stream().map(fsclient -> fsclient.name).collect(Collectors.toList());
+  }
+
+  @BeforeEach
+  void setupRepository() {
+    repository = new InMemoryFsclientRepository();
+    repository.insert(fsclient("bob", "admin", "OHMNET", 25));
+    repository.insert(fsclient("Alice", "viewer", "ohm inc", 25));
+    repository.insert(fsclient("carl", "Admin", "Niquent", 30));
+    repository.insert(fsclient("Dave", "editor", "OHMNET", 40));
+  }
+
+  @Test
+  void sortsByNameIgnoringCase() {
+    assertEquals(List.of("Alice", "bob", "carl", "Dave"), names(new FsclientQuery()));
+  }
+
+  @Test
+  void filtersLikeMongo() {
+    FsclientQuery query = new FsclientQuery();
+    query.companyPrefix = "OHM";
+    assertEquals(List.of("Alice", "bob", "Dave"), names(query));
+
+    query = new FsclientQuery();
+    query.role = "ADMIN";
+    assertEquals(List.of("bob", "carl"), names(query));
+
+    query = new FsclientQuery();
+    query.age = 25;
+    query.descending = true;
+    assertEquals(List.of("bob", "Alice"), names(query));
+  }
+
+  @Test
+  void breaksTiesById() {
+    FsclientQuery query = new FsclientQuery();
+    query.sortBy = "age";
+    query.descending = true;
+    // Alice was added after bob, so has the larger id
+    assertEquals(List.of("Dave", "carl", "Alice", "bob"), names(query));
+  }
+
+  @Test
+  void pagesWithAfterCursor() {
+    FsclientQuery query = new FsclientQuery();
+    query.limit = 3;
+    List<Fsclient> firstPage = repository.find(query);
+    assertEquals(3, firstPage.size());
+
+    query.after = query.cursorAfter(firstPage.get(2));
+    assertEquals(List.of("Dave"), names(query));
+
+    // The cursor still works once the fsclient it came from is gone
+    repository.delete(firstPage.get(2)._id);
+    assertEquals(List.of("Dave"), names(query));
+
+    query.sortBy = "age";
+    query.descending = true;
+    query.limit = 0;
+    query.after = null;
+    query.after = query.cursorAfter(repository.find(query).get(0));
+    assertEquals(List.of("Alice", "bob"), names(query));
+  }
+
+  @Test
+  void deleteReturnsTheDeletedFsclient() {
+    String id = repository.find(new FsclientQuery()).get(0)._id;
+    assertEquals("Alice", repository.delete(id).name);
+    assertNull(repository.findById(id));
+    assertNull(repository.delete(id));
+
+    FsclientQuery query = new FsclientQuery();
+    query.companyPrefix = "ohm";
+    assertEquals(List.of("bob", "Dave"), names(query));
+  }
+
+  @Test
+  void findsAndDeletesBatchesOfIds() {
+    List<Fsclient> all = repository.find(new FsclientQuery());
+    String missing = new ObjectId().toHexString();
+    List<String> ids = List.of(all.get(0)._id, missing, all.get(2)._id, all.get(0)._id);
+
+    assertEquals(2, repository.findByIds(ids).size());
+
+    List<String> deleted = repository.deleteByIds(ids).stream()
+      .map(fsclient -> fsclient.name)
+      .sorted()
+      .collect(Collectors.toList());
+    assertEquals(List.of("Alice", "carl"), deleted);
+    assertEquals(List.of("bob", "Dave"), names(new FsclientQuery()));
+    assertEquals(0, repository.deleteByIds(ids).size());
+  }
+
+  @Test
+  void rejectsIllegalIds() {
+    assertThrows(IllegalArgumentException.class, () -> repository.findById("not an id"));
+
+    // One illegal id means nothing in the batch is deleted
+    String id = repository.find(new FsclientQuery()).get(0)._id;
+    assertThrows(IllegalArgumentException.class, () -> repository.deleteByIds(List.of(id, "not an id")));
+    assertEquals("Alice", repository.findById(id).name);
+  }
+}
@@ -0,0 +1,79 @@
+package umm3601.limits;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests of `TokenBucket`, using a fake clock so that we don't have to
+ * wait for the bucket to refill.
+ */
+@SuppressWarnings({"MagicNumber"})
+class TokenBucketSpec {
+
+  // 10 tokens per second is one every 100ms
+  private static final long INTERVAL = 100_000_000L;
+
+  private AtomicLong now;
+  private TokenBucket bucket;
+
+  @BeforeEach
+  void setupBucket() {
+    now = new AtomicLong(1_000_000_000L);
+    bucket = new TokenBucket(10, 3, now::get);
+  }
+
+  @Test
+  void allowsABurst() {
+    assertTrue(bucket.isFull());
+    assertEquals(0, bucket.tryTake());
+    assertEquals(0, bucket.tryTake());
+    assertEquals(0, bucket.tryTake());
+    assertFalse(bucket.isFull());
+  }
+
+  @Test
+  void refusesWhenEmptyAndSaysHowLongToWait() {
+    for (int i = 0; i < 3; i++) {
+      bucket.tryTake();
+    }
+    assertEquals(INTERVAL, bucket.tryTake());
+
+    now.addAndGet(INTERVAL / 4);
+    assertEquals(INTERVAL * 3 / 4, bucket.tryTake());
+  }
+
+  @Test
+  void refillsOverTime() {
+    for (int i = 0; i < 3; i++) {
+      bucket.tryTake();
+    }
+    now.addAndGet(INTERVAL);
+    assertEquals(0, bucket.tryTake());
+    assertTrue(bucket.tryTake() > 0);
+
+    now.addAndGet(INTERVAL * 3);
+    assertTrue(bucket.isFull());
+  }
+
+  @Test
+  void doesNotSaveUpMoreThanABurst() {
+    now.addAndGet(INTERVAL * 100);
+    for (int i = 0; i < 3; i++) {
+      assertEquals(0, bucket.tryTake());
+    }
+    assertTrue(bucket.tryTake() > 0);
+  }
+
+  @Test
+  void rejectsNonPositiveSettings() {
+    assertThrows(IllegalArgumentException.class, () -> new TokenBucket(0, 3));
+    assertThrows(IllegalArgumentException.class, () -> new TokenBucket(10, 0));
+  }
+}
@@ -0,0 +1,48 @@
+package umm3601.limits;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests that `TrustedProxies` matches addresses against ranges, and only
+ * believes `X-Forwarded-For` from trusted proxies.
+ */
+class TrustedProxiesSpec {
+
+  private final TrustedProxies proxies = TrustedProxies.parse("172.16.0.0/12, 10.1.2.3, ::1");
+
+  @Test
+  void matchesAddressesAndRanges() {
+    assertTrue(proxies.isTrusted("172.18.0.5"));
+    assertTrue(proxies.isTrusted("172.31.255.255"));
+    assertFalse(proxies.isTrusted("172.32.0.1"));
+    assertTrue(proxies.isTrusted("10.1.2.3"));
+    assertFalse(proxies.isTrusted("10.1.2.4"));
+    assertTrue(proxies.isTrusted("0:0:0:0:0:0:0:1"));
+    assertFalse(proxies.isTrusted("localhost"));
+    assertFalse(proxies.isTrusted("300.1.2.3"));
+  }
+
+  @Test
+  void usesForwardedForOnlyFromTrustedProxies() {
+    assertEquals("203.0.113.7", proxies.clientAddress("172.18.0.5", "203.0.113.7"));
+    // A client can put anything at the front; only what the proxies added counts
+    assertEquals("203.0.113.7", proxies.clientAddress("172.18.0.5", "1.2.3.4, 203.0.113.7, 10.1.2.3"));
+    assertEquals("203.0.113.9", proxies.clientAddress("203.0.113.9", "1.2.3.4"));
+    assertEquals("172.18.0.5", proxies.clientAddress("172.18.0.5", null));
+    assertEquals("172.18.0.5", proxies.clientAddress("172.18.0.5", "unknown"));
+    assertEquals("198.51.100.1", TrustedProxies.none().clientAddress("198.51.100.1", "1.2.3.4"));
+  }
+
+  @Test
+  void rejectsBadEntries() {
+    assertThrows(IllegalArgumentException.class, () -> TrustedProxies.parse("10.0.0.0/33"));
+    assertThrows(IllegalArgumentException.class, () -> TrustedProxies.parse("proxy.example.com"));
+    assertThrows(IllegalArgumentException.class, () -> TrustedProxies.parse("10.0.0.0/x"));
+    assertFalse(TrustedProxies.parse(" ").isTrusted("10.0.0.1"));
+  }
+}
@@ -0,0 +1,54 @@
+package umm3601.metrics;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+@SuppressWarnings({"MagicNumber"})
+public class HistogramSpec {
+
+  @Test
+  public void countsObservations() {
+    Histogram histogram = new Histogram();
+    assertEquals(0, histogram.count());
+    histogram.record(TimeUnit.MILLISECONDS.toNanos(3));
+    histogram.record(TimeUnit.MILLISECONDS.toNanos(30));
+    assertEquals(2, histogram.count());
+  }
+
+  @Test
+  public void writesCumulativeBuckets() {
+    Histogram histogram = new Histogram();
+    histogram.record(TimeUnit.MILLISECONDS.toNanos(3));
+    histogram.record(TimeUnit.MILLISECONDS.toNanos(30));
+    histogram.record(TimeUnit.SECONDS.toNanos(60));
+
+    StringBuilder out = new StringBuilder();
+    histogram.writeTo(out, "latency_seconds", "route=\"/api\"");
+    String text = out.toString();
+
+    assertTrue(text.contains("latency_seconds_bucket{route=\"/api\",le=\"0.001\"} 0\n"));
+    assertTrue(text.contains("latency_seconds_bucket{route=\"/api\",le=\"0.005\"} 1\n"));
+    assertTrue(text.contains("latency_seconds_bucket{route=\"/api\",le=\"0.05\"} 2\n"));
+    assertTrue(text.contains("latency_seconds_bucket{route=\"/api\",le=\"10\"} 2\n"));
+    assertTrue(text.contains("latency_seconds_bucket{route=\"/api\",le=\"+Inf\"} 3\n"));
+    assertTrue(text.contains("latency_seconds_sum{route=\"/api\"} 60.033\n"));
+    assertTrue(text.contains("latency_seconds_count{route=\"/api\"} 3\n"));
+  }
+
+  @Test
+  public void writesWithoutLabels() {
+    Histogram histogram = new Histogram();
+    histogram.record(1);
+
+    StringBuilder out = new StringBuilder();
+    histogram.writeTo(out, "latency_seconds", "");
+    String text = out.toString();
+
+    assertTrue(text.contains("latency_seconds_bucket{le=\"0.0005\"} 1\n"));
+    assertTrue(text.contains("latency_seconds_count 1\n"));
+  }
+}
@@ -0,0 +1,86 @@
+package umm3601.tools;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.bson.RawBsonDocument;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests that `JsonDocumentReader` reads both JSON arrays and newline
+ * delimited JSON, and keeps MongoDB's extended JSON types.
+ */
+@SuppressWarnings({"MagicNumber"})
+class JsonDocumentReaderSpec {
+
+  private static List<RawBsonDocument> readAll(String json) throws IOException {
+    List<RawBsonDocument> documents = new ArrayList<>();
+    try (JsonDocumentReader reader = new JsonDocumentReader(
+        new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)))) {
+      RawBsonDocument document = reader.next();
+      while (document != null) {
+        documents.add(document);
+        document = reader.next();
+      }
+    }
+    return documents;
+  }
+
+  @Test
+  void readsAnArray() throws IOException {
+    List<RawBsonDocument> documents
+      = readAll("[{\"name\": \"Ann\", \"tags\": [\"a\", {\"b\": 1}]}, {\"name\": \"Bo\"}]");
+    assertEquals(2, documents.size());
+    assertEquals("Ann", documents.get(0).getString("name").getValue());
+    assertEquals(1, documents.get(0).getArray("tags").get(1).asDocument().getInt32("b").getValue());
+    assertEquals("Bo", documents.get(1).getString("name").getValue());
+  }
+
+  @Test
+  void readsNewlineDelimitedJson() throws IOException {
+    List<RawBsonDocument> documents = readAll("{\"n\": 1}\n{\"n\": 2}\n{\"n\": 3}\n");
+    assertEquals(3, documents.size());
+    assertEquals(3, documents.get(2).getInt32("n").getValue());
+  }
+
+  @Test
+  void readsNothingFromAnEmptyArray() throws IOException {
+    assertEquals(0, readAll("[]").size());
+    assertEquals(0, readAll("").size());
+  }
+
+  @Test
+  void keepsExtendedJsonTypes() throws IOException {
+    String id = "588935f57546a2daea44de7c";
+    RawBsonDocument document = readAll("[{\"_id\": {\"$oid\": \"" + id + "\"}, \"big\": 12345678901}]").get(0);
+    assertEquals(new ObjectId(id), document.getObjectId("_id").getValue());
+    assertEquals(12345678901L, document.getInt64("big").getValue());
+  }
+
+  @Test
+  void rejectsThingsThatAreNotObjects() throws IOException {
+    try (JsonDocumentReader reader = new JsonDocumentReader(
+        new ByteArrayInputStream("[{\"n\": 1}, 2]".getBytes(StandardCharsets.UTF_8)))) {
+      assertEquals(1, reader.next().getInt32("n").getValue());
+      assertThrows(IOException.class, reader::next);
+    }
+  }
+
+  @Test
+  void returnsNullAtTheEnd() throws IOException {
+    try (JsonDocumentReader reader = new JsonDocumentReader(
+        new ByteArrayInputStream("{}".getBytes(StandardCharsets.UTF_8)))) {
+      reader.next();
+      assertNull(reader.next());
+      assertNull(reader.next());
+    }
+  }
+}
@@ -0,0 +1,54 @@
+package umm3601.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+
+import org.junit.jupiter.api.Test;
+
+public class ETagsSpec {
+
+  @Test
+  public void matchesIfNoneMatch() {
+    assertFalse(ETags.matches(null, "\"abc\""));
+    assertTrue(ETags.matches("\"abc\"", "\"abc\""));
+    assertTrue(ETags.matches("\"xyz\", \"abc\"", "\"abc\""));
+    assertTrue(ETags.matches("W/\"abc\"", "\"abc\""));
+    assertTrue(ETags.matches("*", "\"abc\""));
+    assertFalse(ETags.matches("\"abd\"", "\"abc\""));
+    assertFalse(ETags.matches("abc", "\"abc\""));
+    assertTrue(ETags.matches("\"abc\"", "W/\"abc\""));
+    assertTrue(ETags.matches("W/\"abc\"", "W/\"abc\""));
+  }
+
+  @Test
+  public void contentTagsDependOnTheBody() {
+    String tag = ETags.forContent("{\"name\":\"Connie\"}".getBytes(StandardCharsets.UTF_8));
+    assertEquals(tag, ETags.forContent("{\"name\":\"Connie\"}".getBytes(StandardCharsets.UTF_8)));
+    assertNotEquals(tag, ETags.forContent("{\"name\":\"connie\"}".getBytes(StandardCharsets.UTF_8)));
+  }
+
+  @Test
+  public void queryTagsDependOnThePathAndQuery() {
+    String tag = ETags.forQuery("1", "/api/fsclients", "age=25");
+    assertTrue(tag.startsWith("W/"));
+    assertEquals(tag, ETags.forQuery("1", "/api/fsclients", "age=25"));
+    assertNotEquals(tag, ETags.forQuery("1", "/api/fsclients/stats", "age=25"));
+    assertNotEquals(tag, ETags.forQuery("1", "/api/fsclients", "age=26"));
+    assertNotEquals(tag, ETags.forQuery("2", "/api/fsclients", "age=25"));
+    assertEquals(ETags.forQuery("1", "/api/fsclients", null), ETags.forQuery("1", "/api/fsclients", ""));
+  }
+
+  @Test
+  public void changeTokensChangeOnWrites() {
+    ChangeToken changes = new ChangeToken();
+    String before = changes.current();
+    assertEquals(before, changes.current());
+    changes.changed();
+    assertNotEquals(before, changes.current());
+    assertNotEquals(before, new ChangeToken().current());
+  }
+}
@@ -0,0 +1,116 @@
+package umm3601.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests of the eviction, expiration, and counting behavior of
+ * `ExpiringLruCache`. These use a fake clock so that we don't
+ * actually have to wait for entries to expire.
+ */
+@SuppressWarnings({"MagicNumber"})
+class ExpiringLruCacheSpec {
+
+  private AtomicLong now;
+  private ExpiringLruCache<String, String> cache;
+
+  @BeforeEach
+  void setupCache() {
+    now = new AtomicLong();
+    cache = new ExpiringLruCache<>(2, Duration.ofNanos(100), now::get);
+  }
+
+  @Test
+  void getReturnsStoredValue() {
+    cache.put("a", "apple");
+    assertEquals("apple", cache.get("a"));
+    assertNull(cache.get("b"));
+
+    Map<String, Number> stats = cache.stats();
+    assertEquals(1L, stats.get("hits"));
+    assertEquals(1L, stats.get("misses"));
+  }
+
+  @Test
+  void evictsLeastRecentlyUsedEntry() {
+    cache.put("a", "apple");
+    cache.put("b", "banana");
+    // Touch "a" so that "b" is now the least recently used
+    cache.get("a");
+    cache.put("c", "cherry");
+
+    assertEquals("apple", cache.get("a"));
+    assertNull(cache.get("b"));
+    assertEquals("cherry", cache.get("c"));
+    assertEquals(2, cache.size());
+    assertEquals(1L, cache.stats().get("evictions"));
+  }
+
+  @Test
+  void expiresOldEntries() {
+    cache.put("a", "apple");
+    now.set(99);
+    assertEquals("apple", cache.get("a"));
+    now.set(100);
+    assertNull(cache.get("a"));
+    assertEquals(0, cache.size());
+    assertEquals(1L, cache.stats().get("expirations"));
+  }
+
+  @Test
+  void getOrLoadOnlyLoadsOnMiss() {
+    AtomicInteger loads = new AtomicInteger();
+    assertEquals("A", cache.getOrLoad("a", key -> {
+      loads.incrementAndGet();
+      return key.toUpperCase();
+    }));
+    assertEquals("A", cache.getOrLoad("a", key -> {
+      loads.incrementAndGet();
+      return key.toUpperCase();
+    }));
+    assertEquals(1, loads.get());
+  }
+
+  @Test
+  void loadsThatRaceAnInvalidationAreNotCached() {
+    // Deleted while it was being loaded, so what we loaded is stale
+    assertEquals("A", cache.getOrLoad("a", key -> {
+      cache.invalidate(key);
+      return "A";
+    }));
+    assertNull(cache.get("a"));
+
+    long loadGeneration = cache.generation();
+    cache.invalidate("b");
+    assertFalse(cache.putIfUnchanged("a", "A", loadGeneration));
+    assertTrue(cache.putIfUnchanged("a", "A", cache.generation()));
+    assertEquals("A", cache.get("a"));
+  }
+
+  @Test
+  void nullLoadsAreNotCached() {
+    assertNull(cache.getOrLoad("a", key -> null));
+    assertEquals(0, cache.size());
+  }
+
+  @Test
+  void invalidateRemovesEntries() {
+    cache.put("a", "apple");
+    cache.put("b", "banana");
+    cache.invalidate("a");
+    assertNull(cache.get("a"));
+    assertEquals("banana", cache.get("b"));
+    cache.invalidateAll();
+    assertEquals(0, cache.size());
+  }
+}
@@ -0,0 +1,64 @@
+package umm3601.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.jupiter.api.Test;
+
+@SuppressWarnings({"MagicNumber"})
+public class HashingSpec {
+
+  @Test
+  public void hashesKnownValues() {
+    assertEquals("d41d8cd98f00b204e9800998ecf8427e", Hashing.md5Hex(""));
+    assertEquals("900150983cd24fb0d6963f7d28e17f72", Hashing.md5Hex("abc"));
+  }
+
+  @Test
+  public void ignoresCase() {
+    assertEquals(Hashing.md5Hex("conniestewart@ohmnet.com"), Hashing.md5Hex("ConnieStewart@OHMNET.com"));
+  }
+
+  @Test
+  public void matchesMessageDigestForNonAscii() throws NoSuchAlgorithmException {
+    String email = "Zo\u00eb.\u00c5ngstr\u00f6m@example.com";
+    byte[] expected = MessageDigest.getInstance("MD5")
+      .digest(email.toLowerCase(Locale.ROOT).getBytes(StandardCharsets.UTF_8));
+    assertEquals(Hashing.toHex(expected), Hashing.md5Hex(email));
+  }
+
+  @Test
+  public void handlesLongStrings() {
+    String longEmail = "a".repeat(1000) + "@example.com";
+    assertEquals(Hashing.md5Hex(longEmail.toUpperCase(Locale.ROOT)), Hashing.md5Hex(longEmail));
+  }
+
+  @Test
+  public void handlesNonAsciiAfterAFullBuffer() throws NoSuchAlgorithmException {
+    String longEmail = "A".repeat(1000) + "\u00eb@example.com";
+    byte[] expected = MessageDigest.getInstance("MD5")
+      .digest(longEmail.toLowerCase(Locale.ROOT).getBytes(StandardCharsets.UTF_8));
+    assertEquals(Hashing.toHex(expected), Hashing.md5Hex(longEmail));
+  }
+
+  @Test
+  public void hashesOnVirtualThreads() throws Exception {
+    String expected = Hashing.md5Hex("conniestewart@ohmnet.com");
+    try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+      Future<String> hashed = executor.submit(() -> Hashing.md5Hex("ConnieStewart@OHMNET.com"));
+      assertEquals(expected, hashed.get());
+    }
+  }
+
+  @Test
+  public void encodesHex() {
+    assertEquals("00017f80ff", Hashing.toHex(new byte[] {0x00, 0x01, 0x7f, (byte) 0x80, (byte) 0xff}));
+  }
+}
@@ -0,0 +1,34 @@
+package umm3601.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.Test;
+
+@SuppressWarnings({"MagicNumber"})
+public class PageCursorSpec {
+
+  private final String id = new ObjectId().toHexString();
+
+  @Test
+  public void decodesWhatItEncodes() {
+    for (PageCursor cursor : new PageCursor[] {
+      new PageCursor("name", "Connie Stewart", id),
+      new PageCursor("age", 25, id),
+      new PageCursor("company", null, id),
+    }) {
+      assertEquals(cursor, PageCursor.decode(cursor.encode(), cursor.sortBy()));
+    }
+  }
+
+  @Test
+  public void rejectsOtherCursors() {
+    String cursor = new PageCursor("age", 25, id).encode();
+    assertThrows(IllegalArgumentException.class, () -> PageCursor.decode(cursor, "name"));
+    assertThrows(IllegalArgumentException.class, () -> PageCursor.decode(id, "_id"));
+    assertThrows(IllegalArgumentException.class, () -> PageCursor.decode("not a cursor!", "name"));
+    String badId = new PageCursor("age", 25, "nope").encode();
+    assertThrows(IllegalArgumentException.class, () -> PageCursor.decode(badId, "age"));
+  }
+}
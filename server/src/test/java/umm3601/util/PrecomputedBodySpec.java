@@ -0,0 +1,27 @@
+package umm3601.util;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+public class PrecomputedBodySpec {
+
+  @Test
+  public void acceptsGzipWhenOffered() {
+    assertTrue(PrecomputedBody.acceptsGzip("gzip"));
+    assertTrue(PrecomputedBody.acceptsGzip("deflate, gzip;q=1.0, br"));
+    assertTrue(PrecomputedBody.acceptsGzip("GZIP"));
+    assertTrue(PrecomputedBody.acceptsGzip("*"));
+    assertTrue(PrecomputedBody.acceptsGzip("gzip;q=0.5"));
+  }
+
+  @Test
+  public void refusesGzipWhenNotOffered() {
+    assertFalse(PrecomputedBody.acceptsGzip(null));
+    assertFalse(PrecomputedBody.acceptsGzip(""));
+    assertFalse(PrecomputedBody.acceptsGzip("br, deflate"));
+    assertFalse(PrecomputedBody.acceptsGzip("gzip;q=0"));
+    assertFalse(PrecomputedBody.acceptsGzip("gzip; q=0.0"));
+  }
+}
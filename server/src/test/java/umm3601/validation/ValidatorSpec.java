@@ -0,0 +1,86 @@
+package umm3601.validation;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+import io.javalin.http.BadRequestResponse;
+import umm3601.fsclient.Fsclient;
+
+@SuppressWarnings({"MagicNumber"})
+public class ValidatorSpec {
+
+  private final Validator<Fsclient> validator = new Validator<Fsclient>("Fsclient")
+    .check("name", usr -> Checks.isNonBlank(usr.name), "bad name")
+    .check("email", usr -> Checks.isEmail(usr.email), "bad email")
+    .check("age", usr -> usr.age > 0, "age too small")
+    .check("age", usr -> usr.age < 150, "age too big")
+    .check("role", usr -> Checks.isRole(usr.role), "bad role");
+
+  private Fsclient legalFsclient() {
+    Fsclient fsclient = new Fsclient();
+    fsclient.name = "Connie Stewart";
+    fsclient.email = "conniestewart@ohmnet.com";
+    fsclient.age = 25;
+    fsclient.role = "editor";
+    return fsclient;
+  }
+
+  @Test
+  public void acceptsLegalValues() {
+    Fsclient fsclient = legalFsclient();
+    assertTrue(validator.problems(fsclient).isEmpty());
+    assertSame(fsclient, validator.validate(fsclient));
+  }
+
+  @Test
+  public void reportsEveryBadField() {
+    Fsclient fsclient = legalFsclient();
+    fsclient.name = "  ";
+    fsclient.email = null;
+    fsclient.role = "boss";
+
+    Map<String, String> problems = validator.problems(fsclient);
+    assertEquals(Map.of("name", "bad name", "email", "bad email", "role", "bad role"), problems);
+
+    BadRequestResponse e = assertThrows(BadRequestResponse.class, () -> validator.validate(fsclient));
+    assertEquals("bad name; bad email; bad role", e.getMessage());
+    assertEquals(problems, e.getDetails());
+  }
+
+  @Test
+  public void reportsOnlyTheFirstProblemPerField() {
+    Fsclient fsclient = legalFsclient();
+    fsclient.age = 200;
+    assertEquals(Map.of("age", "age too big"), validator.problems(fsclient));
+  }
+
+  @Test
+  public void rejectsMissingValue() {
+    assertEquals(Map.of("body", "Fsclient must not be empty"), validator.problems(null));
+  }
+
+  @Test
+  public void checksRoles() {
+    assertTrue(Checks.isRole("admin"));
+    assertTrue(Checks.isRole("editor"));
+    assertTrue(Checks.isRole("viewer"));
+    assertFalse(Checks.isRole("Admin"));
+    assertFalse(Checks.isRole("admins"));
+    assertFalse(Checks.isRole(null));
+  }
+
+  @Test
+  public void checksEmails() {
+    assertTrue(Checks.isEmail("conniestewart@ohmnet.com"));
+    assertFalse(Checks.isEmail("conniestewart"));
+    assertFalse(Checks.isEmail("connie stewart@ohmnet.com"));
+    assertFalse(Checks.isEmail(null));
+  }
+}